@@ -70,6 +70,7 @@ public final class R {
         public static final int Data_RR_Units=0x7f050012;
         public static final int Default_Value=0x7f050011;
         public static final int Negative_Response=0x7f050024;
+        public static final int Notify_Live_Body=0x7f050025;
         public static final int Notify_Started=0x7f05000b;
         public static final int Notify_Started_Body=0x7f05000c;
         public static final int Positive_Response=0x7f050023;
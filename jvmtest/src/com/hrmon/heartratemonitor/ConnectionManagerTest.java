@@ -0,0 +1,157 @@
+package com.hrmon.heartratemonitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.os.Looper;
+
+import com.dsi.ant.AntInterface;
+import com.dsi.ant.AntMesg;
+import com.hrmon.heartratemonitor.ConnectionManager.ChannelPeriod;
+import com.hrmon.heartratemonitor.ConnectionManager.ChannelStates;
+
+/**
+ * Opens the HRM channel on a simulated radio, and checks the search strategy:
+ * a high priority (fast) search on a connect, switched to a background search
+ * once tracking, and background searches only when reacquiring.
+ */
+public class ConnectionManagerTest {
+
+	/** Fast search timeout (s), and as configured (2.5 s units) */
+	private static final int FAST_SEARCH_TIMEOUT = 10;
+	private static final int FAST_SEARCH_UNITS = 4;
+
+	/** Background search timeout (2.5 s units) */
+	private static final int BACKGROUND_SEARCH_UNITS = 12;
+
+	private Looper mLooper;
+	private SimulatedRadio mRadio;
+	private ConnectionManager mConnection;
+
+	@Before
+	public void setUp()
+	{
+		Looper.prepareMainLooper();
+		mLooper = Looper.myLooper();
+
+		FakeClock clock = new FakeClock(1000000, 1300000000000L);
+		mRadio = new SimulatedRadio(clock, 72, ChannelPeriod.FULL);
+		AntInterface.setRadio(mRadio);
+		mConnection = new ConnectionManager(new Instrumentation(), clock);
+		mConnection.setFastSearchTimeout(FAST_SEARCH_TIMEOUT);
+		assertTrue(mConnection.start(mRadio));
+	}
+
+	@After
+	public void tearDown()
+	{
+		AntInterface.setRadio(null);
+		mLooper.quit();
+	}
+
+	@Test
+	public void connectSearchesFastThenInBackgroundOnceTracking()
+	{
+		connect();
+		mLooper.idleFor(1000);
+
+		assertEquals(ChannelStates.TRACKING_DATA, mConnection.getHrmState());
+		assertEquals(1, mRadio.getAcquisitions().size());
+		assertEquals(0, mRadio.getLowPrioritySearchMillisec());
+
+		// Opened with a fast search only...
+		assertEquals(FAST_SEARCH_UNITS, getSearchTimeout(AntMesg.MESG_CHANNEL_SEARCH_TIMEOUT_ID, 0));
+		assertEquals(0, getSearchTimeout(AntMesg.MESG_SET_LP_SEARCH_TIMEOUT_ID, 0));
+
+		// ...then switched to a background search, for a dropout
+		assertEquals(0, mRadio.getSearchTimeout());
+		assertEquals(BACKGROUND_SEARCH_UNITS, mRadio.getLowPrioritySearchTimeout());
+	}
+
+	@Test
+	public void failedFastSearchIsFollowedByBackgroundSearch()
+	{
+		mRadio.setInRange(false);
+		connect();
+		mLooper.idleFor(FAST_SEARCH_TIMEOUT * 1000 + 500);
+
+		assertEquals(1, mRadio.getSearchTimeouts());
+		assertEquals(1, mConnection.getTransitionCount(ChannelStates.SEARCHING, ChannelStates.OFFLINE));
+		assertTrue(mConnection.isReacquiring());
+
+		// Reopened (after a reset, as nothing was tracked yet) with a background search only
+		mRadio.setInRange(true);
+		mLooper.idleFor(6000);
+
+		assertEquals(ChannelStates.TRACKING_DATA, mConnection.getHrmState());
+		assertEquals(2, mRadio.getCommands(AntMesg.MESG_SYSTEM_RESET_ID).size());
+		assertEquals(0, getSearchTimeout(AntMesg.MESG_CHANNEL_SEARCH_TIMEOUT_ID, 1));
+		assertEquals(BACKGROUND_SEARCH_UNITS, getSearchTimeout(AntMesg.MESG_SET_LP_SEARCH_TIMEOUT_ID, 1));
+		assertTrue(mRadio.getLowPrioritySearchMillisec() > 0);
+	}
+
+	@Test
+	public void reacquireAfterDropoutSkipsFastSearch()
+	{
+		connect();
+		mLooper.idleFor(3000);
+		assertEquals(ChannelStates.TRACKING_DATA, mConnection.getHrmState());
+		int searchTimeouts = mRadio.getCommands(AntMesg.MESG_CHANNEL_SEARCH_TIMEOUT_ID).size();
+
+		// The background search times out while the sensor is away, and the channel is reopened
+		mRadio.setInRange(false);
+		mLooper.idleFor(BACKGROUND_SEARCH_UNITS * 2500 + 5000);
+		assertEquals(1, mRadio.getSearchTimeouts());
+		assertEquals(1, mConnection.getTransitionCount(ChannelStates.TRACKING_DATA, ChannelStates.SEARCHING));
+		assertEquals(1, mConnection.getTransitionCount(ChannelStates.SEARCHING, ChannelStates.OFFLINE));
+		assertEquals(ChannelStates.SEARCHING, mConnection.getHrmState());
+
+		mRadio.setInRange(true);
+		mLooper.idleFor(6000);
+		assertEquals(ChannelStates.TRACKING_DATA, mConnection.getHrmState());
+		assertEquals(2, mRadio.getAcquisitions().size());
+
+		// Reopened without a reset, with a background search only (and left as it is once tracking)
+		assertEquals(1, mRadio.getCommands(AntMesg.MESG_SYSTEM_RESET_ID).size());
+		List<byte[]> commands = mRadio.getCommands(AntMesg.MESG_CHANNEL_SEARCH_TIMEOUT_ID);
+		assertEquals(searchTimeouts + 1, commands.size());
+		assertEquals(0, getSearchTimeout(AntMesg.MESG_CHANNEL_SEARCH_TIMEOUT_ID, searchTimeouts));
+		assertEquals(BACKGROUND_SEARCH_UNITS, mRadio.getLowPrioritySearchTimeout());
+		assertFalse(mConnection.isReacquiring());
+	}
+
+	@Test
+	public void noFastSearchTimeoutSearchesInBackground()
+	{
+		mConnection.setFastSearchTimeout(0);
+		connect();
+		mLooper.idleFor(6000);
+
+		assertEquals(ChannelStates.TRACKING_DATA, mConnection.getHrmState());
+		assertEquals(0, mRadio.getHighPrioritySearchMillisec());
+		assertEquals(0, getSearchTimeout(AntMesg.MESG_CHANNEL_SEARCH_TIMEOUT_ID, 0));
+		assertEquals(BACKGROUND_SEARCH_UNITS, getSearchTimeout(AntMesg.MESG_SET_LP_SEARCH_TIMEOUT_ID, 0));
+		assertEquals(1, mRadio.getCommands(AntMesg.MESG_CHANNEL_SEARCH_TIMEOUT_ID).size());
+	}
+
+	/** Connect as the session manager does: open the channel on the next reset */
+	private void connect()
+	{
+		mConnection.openChannel(ConnectionManager.HRM_CHANNEL, true);
+		mConnection.requestReset();
+	}
+
+	/** Get the timeout (2.5 s units) of a search timeout command sent to the radio */
+	private int getSearchTimeout(byte messageId, int index)
+	{
+		return mRadio.getCommands(messageId).get(index)[AntMesg.MESG_DATA_OFFSET + 1] & 0xFF;
+	}
+
+}
@@ -0,0 +1,123 @@
+package com.hrmon.heartratemonitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import android.os.Looper;
+
+import com.hrmon.heartratemonitor.ConnectionManager.ChannelPeriod;
+
+/**
+ * Decodes sensor traffic on the main thread while large exports run on the job
+ * executor, and checks that the decode latency stays within its budget.
+ */
+public class DecodeLatencyDuringExportTest {
+
+	/** Decode latency budget, at the 99th percentile (ns) */
+	private static final long DECODE_BUDGET_NANOS = 5000000;
+
+	/** Messages decoded before measuring (for the JIT) */
+	private static final int WARM_UP_MESSAGES = 5000;
+
+	/** Messages decoded while exports are running */
+	private static final int MEASURED_MESSAGES = 500;
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	private Looper mLooper;
+	private FakeClock mClock;
+	private Instrumentation mInstrumentation;
+	private JobExecutor mJobs;
+	private ConnectionManager mConnection;
+	private SessionManager mManager;
+	private SessionArchive mArchive;
+	private SessionSummary mSummary;
+
+	@Before
+	public void setUp()
+	{
+		Looper.prepareMainLooper();
+		mLooper = Looper.myLooper();
+
+		File dir = mFolder.getRoot();
+		mClock = new FakeClock(1000000, 1300000000000L);
+		mInstrumentation = new Instrumentation();
+		mJobs = new JobExecutor();
+		mArchive = new SessionArchive(new File(dir, SessionArchive.ARCHIVE_DIR));
+		mConnection = new ConnectionManager(mInstrumentation, mClock);
+		mManager = new SessionManager(mClock, mConnection, new SessionData(mClock), mArchive,
+				new DeviceRegistry(new File(dir, DeviceRegistry.REGISTRY_FILE)), mJobs, mInstrumentation);
+
+		// A session of the time limit to export
+		SessionData session = new SessionSimulator(SessionData.SESSION_TIMELIMIT_MILLISEC, 72,
+				ChannelPeriod.FULL, 50).run().session;
+		session.stop();
+		mSummary = mArchive.archive(session);
+		assertNotNull(mSummary);
+	}
+
+	@After
+	public void tearDown()
+	{
+		mJobs.shutDown();
+		assertTrue(mJobs.awaitTermination(5000));
+		mLooper.quit();
+	}
+
+	@Test
+	public void decodeLatencyStaysInBudgetDuringExport() throws Exception
+	{
+		SensorTraffic sensor = new SensorTraffic(mClock, 72, ChannelPeriod.FULL).withExtendedData(-60);
+		mManager.startSession();
+
+		for (int i = 0; i < WARM_UP_MESSAGES; i++) {
+			mConnection.receiveMessage(sensor.next());
+			mLooper.runDue();
+		}
+		mInstrumentation.reset();
+
+		// Decode (with the main thread otherwise idle) until enough messages
+		// have been decoded during exports, starting the next export as each completes
+		int exports = 0;
+		int measured = 0;
+		ExportJob job = null;
+		while (measured < MEASURED_MESSAGES) {
+			if ((job == null) || ExportJobTest.isDone(job)) {
+				if (job != null) {
+					assertEquals(BackgroundJob.JobState.FINISHED, job.getState());
+				}
+				job = new ExportJob(mArchive, mSummary, SessionExporter.Format.CSV,
+						new File(mFolder.getRoot(), "export" + exports + ".csv"));
+				assertTrue(mJobs.submit(job));
+				exports++;
+			}
+
+			if (job.getState() == BackgroundJob.JobState.RUNNING) {
+				mConnection.receiveMessage(sensor.next());
+				mLooper.runDue();
+				measured++;
+			}
+			Thread.sleep(1);
+		}
+		ExportJobTest.waitFor(job);
+
+		LatencyHistogram decode = mInstrumentation.getHistogram(Instrumentation.Stage.DECODE);
+		StringBuilder summary = new StringBuilder();
+		decode.dump(summary);
+		summary.append(" over ").append(exports).append(" exports");
+
+		assertEquals(MEASURED_MESSAGES, decode.getCount());
+		assertTrue("Decode latency " + summary, decode.getPercentile(99) <= DECODE_BUDGET_NANOS);
+	}
+
+}
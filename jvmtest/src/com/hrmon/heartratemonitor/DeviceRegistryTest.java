@@ -0,0 +1,47 @@
+package com.hrmon.heartratemonitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DeviceRegistryTest {
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	@Test
+	public void savedDevicesLoadBack() throws Exception
+	{
+		File file = new File(mFolder.getRoot(), DeviceRegistry.REGISTRY_FILE);
+		DeviceRegistry registry = new DeviceRegistry(file);
+		registry.load();
+		registry.put(new DeviceInfo(1234).withLastSeen(1300000000000L, -60));
+		assertTrue(registry.isDirty());
+		assertTrue(registry.save());
+		assertFalse(registry.isDirty());
+
+		DeviceRegistry loaded = new DeviceRegistry(file);
+		loaded.load();
+		assertEquals(1, loaded.getAll().size());
+		assertNotNull(loaded.get(1234));
+		assertEquals(1300000000000L, loaded.get(1234).getLastSeen());
+	}
+
+	@Test
+	public void failedSaveKeepsTheChanges() throws Exception
+	{
+		File file = new File(new File(mFolder.getRoot(), "missing"), DeviceRegistry.REGISTRY_FILE);
+		DeviceRegistry registry = new DeviceRegistry(file);
+		registry.put(new DeviceInfo(1234));
+
+		assertFalse(registry.save());
+		assertTrue(registry.isDirty());
+	}
+}
@@ -0,0 +1,107 @@
+package com.hrmon.heartratemonitor;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hrmon.heartratemonitor.ConnectionManager.ChannelPeriod;
+
+/**
+ * Exports of a session of the time limit (12 h), in each format, straight from
+ * the session data and from the archive.
+ */
+public class ExportBenchmark {
+
+	/** Exports before timing (for the JIT) */
+	private static final int WARM_UP_RUNS = 3;
+
+	/** Timed exports (the median is reported) */
+	private static final int TIMED_RUNS = 5;
+
+	/** Longest median export time (ms) */
+	private static final long MAX_EXPORT_MILLISEC = 1000;
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	private SessionData mSession;
+	private SessionArchive mArchive;
+	private SessionSummary mSummary;
+
+	@Before
+	public void setUp()
+	{
+		mSession = new SessionSimulator(SessionData.SESSION_TIMELIMIT_MILLISEC, 72, ChannelPeriod.FULL, 50).run().session;
+		mSession.stop();
+
+		mArchive = new SessionArchive(new File(mFolder.getRoot(), SessionArchive.ARCHIVE_DIR));
+		mSummary = mArchive.archive(mSession);
+		assertNotNull(mSummary);
+	}
+
+	@Test
+	public void exportFromSessionData() throws Exception
+	{
+		for (SessionExporter.Format format : SessionExporter.Format.values()) {
+			benchmark(format, "session data", false);
+		}
+	}
+
+	@Test
+	public void exportFromArchive() throws Exception
+	{
+		for (SessionExporter.Format format : SessionExporter.Format.values()) {
+			benchmark(format, "archive", true);
+		}
+	}
+
+	/** Time the exports of a format, and check the median */
+	private void benchmark(SessionExporter.Format format, String from, boolean isArchived) throws Exception
+	{
+		SessionExporter exporter = SessionExporter.create(format);
+		File file = new File(mFolder.getRoot(), "export." + format.getExtension());
+
+		long[] times = new long[TIMED_RUNS];
+		for (int i = -WARM_UP_RUNS; i < TIMED_RUNS; i++) {
+			long start = System.nanoTime();
+			if (isArchived) {
+				ArchivedSession session = mArchive.open(mSummary);
+				try {
+					exporter.export(session, file);
+				} finally {
+					session.close();
+				}
+			} else {
+				exporter.export(mSession, file);
+			}
+			if (i >= 0) {
+				times[i] = (System.nanoTime() - start) / 1000000;
+			}
+		}
+		Arrays.sort(times);
+		long median = times[TIMED_RUNS / 2];
+
+		String result = String.format("%s export of %.0f h from the %s: %d ms (median), %d KB, %d samples",
+				format, mSession.getDuration() / 3600000.0, from, median, file.length() / 1024, countSamples(format));
+		System.out.println(result);
+		assertTrue(result, median < MAX_EXPORT_MILLISEC);
+	}
+
+	/** Get the samples written in a format */
+	private long countSamples(SessionExporter.Format format)
+	{
+		long samples = 0;
+		for (int series : SessionExporter.create(format).getSeries()) {
+			samples += mSession.size(series);
+		}
+		return samples;
+	}
+
+}
@@ -0,0 +1,138 @@
+package com.hrmon.heartratemonitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import android.os.Looper;
+
+import com.hrmon.heartratemonitor.ConnectionManager.ChannelPeriod;
+
+/**
+ * Exports of an archived (1 h) session on the job executor.
+ */
+public class ExportJobTest {
+
+	/** Longest wait for a job (ms) */
+	private static final long JOB_TIMEOUT_MILLISEC = 30000;
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	private Looper mLooper;
+	private JobExecutor mJobs;
+	private SessionArchive mArchive;
+	private SessionSummary mSummary;
+
+	/** Records the progress notifications */
+	private static class ProgressListener implements BackgroundJob.Listener {
+		int maxProgress = -1;
+		boolean finished = false;
+
+		@Override
+		public void notifyJobProgress(BackgroundJob job)
+		{
+			assertTrue(job.getProgress() >= maxProgress);
+			assertTrue(job.getProgress() <= 100);
+			maxProgress = job.getProgress();
+		}
+
+		@Override
+		public void notifyJobFinished(BackgroundJob job)
+		{
+			finished = true;
+		}
+	}
+
+	@Before
+	public void setUp()
+	{
+		Looper.prepareMainLooper();
+		mLooper = Looper.myLooper();
+		mJobs = new JobExecutor();
+
+		mArchive = new SessionArchive(new File(mFolder.getRoot(), SessionArchive.ARCHIVE_DIR));
+		SessionData session = new SessionSimulator(3600000, 72, ChannelPeriod.FULL, 50).run().session;
+		session.stop();
+		mSummary = mArchive.archive(session);
+		assertNotNull(mSummary);
+	}
+
+	@After
+	public void tearDown()
+	{
+		mJobs.shutDown();
+		assertTrue(mJobs.awaitTermination(5000));
+		mLooper.quit();
+	}
+
+	@Test
+	public void csvProgressCoversAllSeries() throws Exception
+	{
+		assertProgressReachesTheEnd(SessionExporter.Format.CSV);
+	}
+
+	@Test
+	public void fitProgressCoversTheSeriesItWrites() throws Exception
+	{
+		assertProgressReachesTheEnd(SessionExporter.Format.FIT);
+	}
+
+	@Test
+	public void tcxProgressCoversTheSeriesItWrites() throws Exception
+	{
+		assertProgressReachesTheEnd(SessionExporter.Format.TCX);
+	}
+
+	/** Export in a format, and check that the progress rises to (nearly) 100% */
+	private void assertProgressReachesTheEnd(SessionExporter.Format format) throws Exception
+	{
+		File file = new File(mFolder.getRoot(), "export." + format.getExtension());
+		ExportJob job = new ExportJob(mArchive, mSummary, format, file);
+		ProgressListener listener = new ProgressListener();
+		job.setListener(listener);
+
+		assertTrue(mJobs.submit(job));
+		long deadline = System.currentTimeMillis() + JOB_TIMEOUT_MILLISEC;
+		while (!listener.finished) {
+			assertTrue(job + " timed out", System.currentTimeMillis() < deadline);
+			Thread.sleep(5);
+			mLooper.runDue();
+		}
+
+		assertEquals(BackgroundJob.JobState.FINISHED, job.getState());
+		assertTrue(format + " progress reached " + listener.maxProgress + "%", listener.maxProgress >= 80);
+		assertTrue(file.length() > 0);
+	}
+
+	/** Wait for a job to complete */
+	static void waitFor(BackgroundJob job) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + JOB_TIMEOUT_MILLISEC;
+		while (!isDone(job)) {
+			assertTrue(job + " timed out", System.currentTimeMillis() < deadline);
+			Thread.sleep(5);
+		}
+	}
+
+	/** Check if a job has completed */
+	static boolean isDone(BackgroundJob job)
+	{
+		switch (job.getState()) {
+		case QUEUED:
+		case RUNNING:
+			return false;
+		default:
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,43 @@
+package com.hrmon.heartratemonitor;
+
+/**
+ * Clock that only moves when it is advanced, for simulating sessions faster than real time.
+ */
+public class FakeClock extends Clock {
+
+	/** Elapsed realtime (ms) */
+	private volatile long mElapsedRealtime;
+
+	/** Wall clock time at elapsed realtime 0 (ms) */
+	private final long mWallOffset;
+
+	/**
+	 * Constructor
+	 * @param elapsedRealtime the starting elapsed realtime (ms)
+	 * @param currentTimeMillis the starting wall clock time (ms)
+	 */
+	public FakeClock(long elapsedRealtime, long currentTimeMillis)
+	{
+		mElapsedRealtime = elapsedRealtime;
+		mWallOffset = currentTimeMillis - elapsedRealtime;
+	}
+
+	@Override
+	public long elapsedRealtime()
+	{
+		return mElapsedRealtime;
+	}
+
+	@Override
+	public long currentTimeMillis()
+	{
+		return mWallOffset + mElapsedRealtime;
+	}
+
+	/** Move the clock forward (from a single thread) */
+	public void advance(long millis)
+	{
+		mElapsedRealtime += millis;
+	}
+
+}
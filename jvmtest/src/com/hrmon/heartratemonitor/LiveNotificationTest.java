@@ -0,0 +1,140 @@
+package com.hrmon.heartratemonitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.res.Resources;
+import android.os.IBinder;
+import android.os.Looper;
+
+import com.dsi.ant.AntInterface;
+import com.hrmon.heartratemonitor.ConnectionManager.ChannelPeriod;
+import com.hrmon.heartratemonitor.ConnectionManager.ChannelStates;
+
+/**
+ * Shows the live notification of a session tracking a sensor on a simulated radio,
+ * and checks that its text is built, and posted, at most once per update interval.
+ */
+public class LiveNotificationTest {
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	private Looper mLooper;
+	private FakeClock mClock;
+	private JobExecutor mJobs;
+	private ConnectionManager mConnection;
+	private SessionManager mManager;
+	private CountingService mService;
+	private LiveNotification mNotification;
+
+	/** Service counting the live texts built, and the notifications posted */
+	private static class CountingService extends Service {
+		int texts = 0;
+		int notifications = 0;
+
+		@Override
+		public IBinder onBind(Intent intent)
+		{
+			return null;
+		}
+
+		@Override
+		public Resources getResources()
+		{
+			return new Resources() {
+				@Override
+				public String getString(int id, Object... formatArgs)
+				{
+					if (id == R.string.Notify_Live_Body) {
+						texts++;
+					}
+					return super.getString(id, formatArgs);
+				}
+			};
+		}
+
+		@Override
+		public Object getSystemService(String name)
+		{
+			if (!Context.NOTIFICATION_SERVICE.equals(name)) {
+				return null;
+			}
+			return new NotificationManager() {
+				@Override
+				public void notify(int id, Notification notification)
+				{
+					notifications++;
+				}
+			};
+		}
+	}
+
+	@Before
+	public void setUp()
+	{
+		Looper.prepareMainLooper();
+		mLooper = Looper.myLooper();
+
+		File dir = mFolder.getRoot();
+		Instrumentation instrumentation = new Instrumentation();
+		mClock = new FakeClock(1000000, 1300000000000L);
+		SimulatedRadio radio = new SimulatedRadio(mClock, 72, ChannelPeriod.FULL);
+		AntInterface.setRadio(radio);
+		mConnection = new ConnectionManager(instrumentation, mClock);
+		assertTrue(mConnection.start(radio));
+		mJobs = new JobExecutor();
+		mManager = new SessionManager(mClock, mConnection, new SessionData(mClock),
+				new SessionArchive(new File(dir, SessionArchive.ARCHIVE_DIR)),
+				new DeviceRegistry(new File(dir, DeviceRegistry.REGISTRY_FILE)), mJobs, instrumentation);
+
+		mService = new CountingService();
+		mNotification = new LiveNotification(mService, mManager, mClock);
+		mManager.subscribe(mNotification);
+	}
+
+	@After
+	public void tearDown()
+	{
+		mNotification.stop();
+		mJobs.shutDown();
+		assertTrue(mJobs.awaitTermination(5000));
+		AntInterface.setRadio(null);
+		mLooper.quit();
+	}
+
+	@Test
+	public void unchangedTextIsBuiltOncePerInterval()
+	{
+		mNotification.start();
+		mManager.connectSensor();
+		mLooper.idleFor(LiveNotification.UPDATE_INTERVAL_MILLISEC);
+		assertEquals(ChannelStates.TRACKING_DATA, mConnection.getHrmState());
+
+		// The live heart rate replaces the started text
+		mLooper.idleFor(LiveNotification.UPDATE_INTERVAL_MILLISEC);
+		assertEquals(1, mService.notifications);
+
+		// A steady heart rate within the minute: checked once per interval, never posted
+		int texts = mService.texts;
+		long interval = 10 * LiveNotification.UPDATE_INTERVAL_MILLISEC;
+		mLooper.idleFor(interval);
+		assertTrue("Texts built: " + (mService.texts - texts),
+				mService.texts - texts <= interval / LiveNotification.UPDATE_INTERVAL_MILLISEC + 1);
+		assertEquals(1, mService.notifications);
+	}
+
+}
@@ -0,0 +1,36 @@
+package com.hrmon.heartratemonitor;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class RadioQualityTest {
+
+	@Test
+	public void throughputCoversTheWindow()
+	{
+		RadioQuality quality = new RadioQuality(30);
+		quality.addReceived(0, 3);
+		quality.addDropped(0, 1);
+		quality.addReceived(10000, 4);
+
+		assertEquals(87, quality.getThroughput(10000));
+		assertEquals(100, quality.getThroughput(30000));
+		assertEquals(0, quality.getThroughput(40000));
+	}
+
+	@Test
+	public void readingTheThroughputLeavesTheWindow()
+	{
+		RadioQuality quality = new RadioQuality(30);
+		quality.addReceived(0, 3);
+		quality.addDropped(0, 1);
+
+		// A read ahead of the packets does not expire them
+		assertEquals(0, quality.getThroughput(60000));
+		assertEquals(75, quality.getThroughput(0));
+
+		quality.addReceived(60000, 1);
+		assertEquals(100, quality.getThroughput(60000));
+	}
+}
@@ -0,0 +1,56 @@
+package com.hrmon.heartratemonitor;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class RxTimelineTest {
+
+	/** Channel period (ticks, 4.06 Hz) and its length (ms) */
+	private static final int PERIOD = 8070;
+	private static final long PERIOD_MILLISEC = (PERIOD * 1000L) / RxTimeline.TICKS_PER_SECOND;
+
+	private static final long ARRIVAL = 1000000;
+
+	@Test
+	public void firstBatchIsAnchoredOnItsLastMessage()
+	{
+		RxTimeline timeline = new RxTimeline();
+
+		// A first batch of buffered messages, all arriving at once
+		long[] times = new long[6];
+		for (int i = 0; i < times.length; i++) {
+			times[i] = timeline.toTime(i * PERIOD, ARRIVAL, 0, PERIOD);
+		}
+		long backdate = timeline.settle();
+		assertEquals(times[times.length - 1] - ARRIVAL, backdate);
+
+		// Back-dated from the last message's arrival, by the RX timestamps
+		for (int i = 0; i < times.length; i++) {
+			long expected = ARRIVAL - ((times.length - 1 - i) * PERIOD * 1000L) / RxTimeline.TICKS_PER_SECOND;
+			assertEquals(expected, times[i] - backdate, 1);
+		}
+
+		// Settled once; the next message is timed on the same anchor
+		assertEquals(0, timeline.settle());
+		long next = timeline.toTime(times.length * PERIOD, ARRIVAL + PERIOD_MILLISEC + 20, 0, PERIOD);
+		assertEquals(ARRIVAL + PERIOD_MILLISEC, next, 1);
+	}
+
+	@Test
+	public void settledTimelineKeepsMessagesAtOrBeforeTheirArrival()
+	{
+		RxTimeline timeline = new RxTimeline();
+		assertEquals(ARRIVAL, timeline.toTime(0, ARRIVAL, 0, PERIOD));
+		assertEquals(0, timeline.settle());
+
+		// Delayed first message: the anchor moves back to a less delayed one
+		long time = timeline.toTime(PERIOD, ARRIVAL + PERIOD_MILLISEC - 30, 0, PERIOD);
+		assertEquals(ARRIVAL + PERIOD_MILLISEC - 30, time);
+
+		// A missed period, then a message timed by its timestamp, not its late arrival
+		time = timeline.toTime(3 * PERIOD, ARRIVAL + 5 * PERIOD_MILLISEC, 1, PERIOD);
+		assertEquals(ARRIVAL + 3 * PERIOD_MILLISEC - 30, time, 1);
+	}
+
+}
@@ -0,0 +1,177 @@
+package com.hrmon.heartratemonitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import android.os.Looper;
+
+import com.dsi.ant.AntInterface;
+import com.hrmon.heartratemonitor.ConnectionManager.ChannelPeriod;
+import com.hrmon.heartratemonitor.ConnectionManager.ChannelStates;
+
+/**
+ * Time to acquire the sensor, and time spent searching (at high and low priority)
+ * and with the receiver on searching, with a fast (high priority) search on a connect followed
+ * by background (low priority) searches, against background searches only. The
+ * connection manager opens the channel on a simulated radio, replaying the
+ * sensor traffic, in a few scenarios:
+ *
+ * - connect: the sensor is in range when connecting
+ * - late:    the sensor comes in range LATE_MILLISEC after connecting
+ * - dropout: the tracked sensor goes out of range for DROPOUT_MILLISEC
+ * - absent:  there is no sensor, until the connection manager gives up
+ *
+ * The time to acquire is from the connect (or the sensor coming back, for the
+ * dropout), and the search and receiver times are over the RUN_MILLISEC from the
+ * connect (or the dropout).
+ */
+public class SearchBenchmark {
+
+	/** Simulated time per run (ms) */
+	private static final long RUN_MILLISEC = 300000;
+
+	/** Fast search timeout (s) */
+	private static final int FAST_SEARCH_TIMEOUT = 10;
+
+	/** Time before the sensor comes in range, in the late scenario (ms) */
+	private static final long LATE_MILLISEC = 20000;
+
+	/** Time the sensor is out of range, in the dropout scenario (ms) */
+	private static final long DROPOUT_MILLISEC = 60000;
+
+	/** Time tracking before the dropout (ms) */
+	private static final long TRACKING_MILLISEC = 10000;
+
+	/** Heart rate of the sensor */
+	private static final int BPM = 72;
+
+	private enum Scenario { CONNECT, LATE, DROPOUT, ABSENT }
+
+	/** Result of a run */
+	private static class Result {
+		Scenario scenario;
+		boolean isFast;
+		long acquire = -1;
+		long highPriority;
+		long lowPriority;
+		long radioOn;
+		int searchTimeouts;
+
+		@Override
+		public String toString()
+		{
+			return String.format("%-7s %-15s acquired %-9s %6d ms high priority, %6d ms low priority search, %6d ms radio on searching (%d search timeouts)",
+					scenario, isFast ? "fast+background" : "background", (acquire < 0) ? "never" : "in " + acquire + " ms",
+					highPriority, lowPriority, radioOn, searchTimeouts);
+		}
+	}
+
+	@Test
+	public void searchStrategies()
+	{
+		Result[] fast = new Result[Scenario.values().length];
+		Result[] background = new Result[Scenario.values().length];
+		for (Scenario scenario : Scenario.values()) {
+			fast[scenario.ordinal()] = run(scenario, true);
+			background[scenario.ordinal()] = run(scenario, false);
+			System.out.println(fast[scenario.ordinal()]);
+			System.out.println(background[scenario.ordinal()]);
+		}
+
+		// A fast search acquires a sensor in range sooner
+		Result connectFast = fast[Scenario.CONNECT.ordinal()];
+		Result connectBackground = background[Scenario.CONNECT.ordinal()];
+		assertTrue(connectFast.toString(), (connectFast.acquire >= 0) && (connectFast.acquire < connectBackground.acquire));
+		assertEquals(0, connectBackground.highPriority);
+
+		// A late sensor is acquired by the background search following the fast one
+		assertTrue(fast[Scenario.LATE.ordinal()].toString(), fast[Scenario.LATE.ordinal()].acquire >= LATE_MILLISEC);
+		assertTrue(background[Scenario.LATE.ordinal()].toString(), background[Scenario.LATE.ordinal()].acquire >= LATE_MILLISEC);
+
+		// A dropout is reacquired in the background, whichever the connect search
+		Result dropoutFast = fast[Scenario.DROPOUT.ordinal()];
+		Result dropoutBackground = background[Scenario.DROPOUT.ordinal()];
+		assertTrue(dropoutFast.toString(), dropoutFast.acquire >= 0);
+		assertEquals(dropoutBackground.acquire, dropoutFast.acquire);
+		assertEquals(dropoutBackground.lowPriority, dropoutFast.lowPriority);
+
+		// With no sensor, the fast search costs its timeout at high priority (with the receiver on), then gives way
+		Result absentFast = fast[Scenario.ABSENT.ordinal()];
+		Result absentBackground = background[Scenario.ABSENT.ordinal()];
+		assertEquals(-1, absentFast.acquire);
+		assertTrue(absentFast.toString(), absentFast.highPriority <= (FAST_SEARCH_TIMEOUT + 1) * 1000);
+		assertTrue(absentFast.toString(), absentFast.radioOn > absentBackground.radioOn);
+	}
+
+	/** Run a scenario, with or without a fast search on the connect */
+	private Result run(Scenario scenario, boolean isFast)
+	{
+		Looper.prepareMainLooper();
+		Looper looper = Looper.myLooper();
+
+		try {
+			FakeClock clock = new FakeClock(1000000, 1300000000000L);
+			SimulatedRadio radio = new SimulatedRadio(clock, BPM, ChannelPeriod.FULL);
+			AntInterface.setRadio(radio);
+			ConnectionManager connection = new ConnectionManager(new Instrumentation(), clock);
+			connection.setFastSearchTimeout(isFast ? FAST_SEARCH_TIMEOUT : 0);
+			assertTrue(connection.start(radio));
+
+			Result result = new Result();
+			result.scenario = scenario;
+			result.isFast = isFast;
+
+			// Measured from the connect, or from the dropout (and acquired from the sensor coming back)
+			long start = looper.uptimeMillis();
+			long back = start;
+			int acquisitions = 0;
+			long highPriority = 0;
+			long lowPriority = 0;
+			long radioOn = 0;
+			int searchTimeouts = 0;
+
+			radio.setInRange((scenario == Scenario.CONNECT) || (scenario == Scenario.DROPOUT));
+			connection.openChannel(ConnectionManager.HRM_CHANNEL, true);
+			connection.requestReset();
+
+			switch (scenario) {
+			case LATE:
+				looper.idleFor(LATE_MILLISEC);
+				radio.setInRange(true);
+				break;
+			case DROPOUT:
+				looper.idleFor(TRACKING_MILLISEC);
+				assertEquals(ChannelStates.TRACKING_DATA, connection.getHrmState());
+				radio.setInRange(false);
+				start = looper.uptimeMillis();
+				highPriority = radio.getHighPrioritySearchMillisec();
+				lowPriority = radio.getLowPrioritySearchMillisec();
+				radioOn = radio.getRadioOnMillisec();
+				searchTimeouts = radio.getSearchTimeouts();
+				acquisitions = radio.getAcquisitions().size();
+				looper.idleFor(DROPOUT_MILLISEC);
+				radio.setInRange(true);
+				back = looper.uptimeMillis();
+				break;
+			default:
+				break;
+			}
+			looper.idleFor(RUN_MILLISEC - (looper.uptimeMillis() - start));
+
+			if (radio.getAcquisitions().size() > acquisitions) {
+				result.acquire = radio.getAcquisitions().get(acquisitions) - back;
+			}
+			result.highPriority = radio.getHighPrioritySearchMillisec() - highPriority;
+			result.lowPriority = radio.getLowPrioritySearchMillisec() - lowPriority;
+			result.radioOn = radio.getRadioOnMillisec() - radioOn;
+			result.searchTimeouts = radio.getSearchTimeouts() - searchTimeouts;
+			return result;
+		} finally {
+			AntInterface.setRadio(null);
+			looper.quit();
+		}
+	}
+
+}
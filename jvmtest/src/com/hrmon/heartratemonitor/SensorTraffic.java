@@ -0,0 +1,159 @@
+package com.hrmon.heartratemonitor;
+
+import com.dsi.ant.AntDefine;
+import com.dsi.ant.AntMesg;
+import com.hrmon.heartratemonitor.ConnectionManager.ChannelPeriod;
+
+/**
+ * Synthetic traffic of an ANT+ heart rate sensor beating at a steady rate, as the
+ * radio delivers it: one broadcast (or RX fail event) per channel period.
+ *
+ * Each message moves the fake clock on to its time. The broadcasts are page 4
+ * (with the previous beat time), with the page toggle bit flipping every 4 messages,
+ * and optionally carry the RSSI and RX timestamp extended data.
+ */
+class SensorTraffic {
+
+	/** Length of a broadcast (channel and payload) */
+	private static final int BROADCAST_LENGTH = 9;
+
+	/** RSSI measurement type, and the threshold sent with it */
+	private static final byte RSSI_TYPE = 0x20;
+	private static final byte RSSI_THRESHOLD = -96;
+
+	/** Clock moved on by the messages */
+	private final FakeClock mClock;
+
+	/** Elapsed realtime of the first message (ms) */
+	private final long mStart;
+
+	/** Channel period (1/32768 s) */
+	private final int mPeriod;
+
+	/** Heart rate (BPM), and beat interval (1/1024 s) */
+	private final int mBPM;
+	private final int mBeatInterval;
+
+	/** Signal strength (dBm), sent if extended data is on */
+	private int mRSSI = -60;
+
+	/** Flag indicating that the broadcasts carry extended data (RSSI and RX timestamp) */
+	private boolean mIsExtended = false;
+
+	/** Sensor time (1/32768 s) of the last message */
+	private long mTicks = 0;
+
+	/** Messages sent (including those dropped) */
+	private long mMessages = 0;
+
+	/**
+	 * Constructor
+	 * @param clock  the clock moved on by the messages
+	 * @param bpm    the heart rate
+	 * @param period the channel period profile
+	 */
+	SensorTraffic(FakeClock clock, int bpm, ChannelPeriod period)
+	{
+		mClock = clock;
+		mStart = clock.elapsedRealtime();
+		mPeriod = period.getPeriod();
+		mBPM = bpm;
+		mBeatInterval = (60 * 1024) / bpm;
+	}
+
+	/** Send the RSSI and RX timestamp extended data */
+	SensorTraffic withExtendedData(int rssi)
+	{
+		mIsExtended = true;
+		mRSSI = rssi;
+		return this;
+	}
+
+	/** Get the RR interval the sensor reports (ms) */
+	int getRR()
+	{
+		return (mBeatInterval * 1000) / 1024;
+	}
+
+	/** Get the beats so far */
+	long getBeats()
+	{
+		return (mTicks / 32) / mBeatInterval;
+	}
+
+	/** Get the messages so far (including those dropped) */
+	long getMessages()
+	{
+		return mMessages;
+	}
+
+	/** Get the channel period (ms) */
+	long getPeriodMillisec()
+	{
+		return (mPeriod * 1000L) / RxTimeline.TICKS_PER_SECOND;
+	}
+
+	/** Move on one channel period, and get the broadcast sent in it */
+	byte[] next()
+	{
+		advance();
+
+		long beats = getBeats();
+		int beatTime = (int) ((beats * mBeatInterval) & 0xFFFF);
+		int previousBeatTime = (int) (((beats - 1) * mBeatInterval) & 0xFFFF);
+		int page = 4 | ((((mMessages - 1) / 4) % 2 != 0) ? 0x80 : 0);
+
+		byte[] message = new byte[mIsExtended ? 17 : 11];
+		message[ConnectionManager.PKT_LENGTH] = (byte) (mIsExtended ? BROADCAST_LENGTH + 6 : BROADCAST_LENGTH);
+		message[AntMesg.MESG_ID_OFFSET] = AntMesg.MESG_BROADCAST_DATA_ID;
+		message[AntMesg.MESG_DATA_OFFSET] = ConnectionManager.HRM_CHANNEL;
+
+		int payload = ConnectionManager.PKT_PAYLOAD;
+		message[payload] = (byte) page;
+		message[payload + 2] = (byte) previousBeatTime;
+		message[payload + 3] = (byte) (previousBeatTime >> 8);
+		message[payload + 4] = (byte) beatTime;
+		message[payload + 5] = (byte) (beatTime >> 8);
+		message[payload + 6] = (byte) beats;
+		message[payload + 7] = (byte) mBPM;
+
+		if (mIsExtended) {
+			int timestamp = (int) (mTicks & 0xFFFF);
+			message[ConnectionManager.PKT_EXT] = ConnectionManager.LC_RSSI | ConnectionManager.LC_TIMESTAMP;
+			message[ConnectionManager.PKT_EXT + 1] = RSSI_TYPE;
+			message[ConnectionManager.PKT_EXT + 2] = (byte) mRSSI;
+			message[ConnectionManager.PKT_EXT + 3] = RSSI_THRESHOLD;
+			message[ConnectionManager.PKT_EXT + 4] = (byte) timestamp;
+			message[ConnectionManager.PKT_EXT + 5] = (byte) (timestamp >> 8);
+		}
+
+		return message;
+	}
+
+	/** Move on one channel period, and get the RX fail event of the broadcast missed in it */
+	byte[] dropped()
+	{
+		advance();
+
+		return new byte[] { 3, AntMesg.MESG_RESPONSE_EVENT_ID, ConnectionManager.HRM_CHANNEL,
+				AntMesg.MESG_EVENT_ID, AntDefine.EVENT_RX_FAIL };
+	}
+
+	/** Get the channel ID response of a sensor (HRM device type) */
+	static byte[] channelId(short deviceNumber)
+	{
+		return new byte[] { 5, AntMesg.MESG_CHANNEL_ID_ID, ConnectionManager.HRM_CHANNEL,
+				(byte) deviceNumber, (byte) (deviceNumber >> 8), 120, 1 };
+	}
+
+	/** Move the sensor time, and the clock, on one channel period */
+	private void advance()
+	{
+		mMessages++;
+		mTicks += mPeriod;
+
+		long time = mStart + ((mTicks * 1000) / RxTimeline.TICKS_PER_SECOND);
+		mClock.advance(time - mClock.elapsedRealtime());
+	}
+
+}
@@ -0,0 +1,92 @@
+package com.hrmon.heartratemonitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SessionArchiveTest {
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	private File mDirectory;
+
+	@Before
+	public void setUp()
+	{
+		mDirectory = new File(mFolder.getRoot(), SessionArchive.ARCHIVE_DIR);
+	}
+
+	@Test
+	public void archivedSessionReadsBack() throws Exception
+	{
+		SessionArchive archive = new SessionArchive(mDirectory);
+		SessionData session = createSession(1300000000000L, 10);
+		SessionSummary summary = archive.archive(session);
+		assertNotNull(summary);
+
+		ArchivedSession archived = archive.open(summary);
+		assertNotNull(archived);
+		try {
+			for (int series = 0; series < SampleSource.SERIES_COUNT; series++) {
+				assertEquals(session.size(series), archived.size(series));
+			}
+			assertEquals(session.getStartTimestamp(), archived.getStartTime());
+		} finally {
+			archived.close();
+		}
+
+		// Only the session file and the index; no temporary files left behind
+		assertEquals(2, mDirectory.list().length);
+	}
+
+	@Test
+	public void partialIndexRecordIsCutOffOnAppend() throws Exception
+	{
+		new SessionArchive(mDirectory).archive(createSession(1300000000000L, 10));
+
+		// A crash part way through appending the next record
+		FileOutputStream out = new FileOutputStream(new File(mDirectory, "index.dat"), true);
+		try {
+			out.write(new byte[SessionSummary.RECORD_SIZE / 2]);
+		} finally {
+			out.close();
+		}
+
+		new SessionArchive(mDirectory).archive(createSession(1300000100000L, 20));
+		new SessionArchive(mDirectory).archive(createSession(1300000200000L, 30));
+
+		List<SessionSummary> summaries = new SessionArchive(mDirectory).getSummaries();
+		assertEquals(3, summaries.size());
+		assertEquals(1300000000000L, summaries.get(0).getStartTime());
+		assertEquals(1300000100000L, summaries.get(1).getStartTime());
+		assertEquals(1300000200000L, summaries.get(2).getStartTime());
+	}
+
+	/** Create a (stopped) session with a number of beats, one a second */
+	private static SessionData createSession(long startTime, int beats)
+	{
+		FakeClock clock = new FakeClock(0, startTime);
+		SessionData session = new SessionData(clock);
+
+		session.start();
+		for (int i = 0; i < beats; i++) {
+			clock.advance(1000);
+			session.addBPM(60);
+			session.addRR(1000);
+			session.addPacketsReceived(1);
+		}
+		session.stop();
+
+		return session;
+	}
+
+}
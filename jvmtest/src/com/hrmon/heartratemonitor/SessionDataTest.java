@@ -0,0 +1,164 @@
+package com.hrmon.heartratemonitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SessionDataTest {
+
+	/** Start of the fake clock (elapsed realtime, and wall clock time) */
+	private static final long START_ELAPSED = 1000000;
+	private static final long START_WALL = 1300000000000L;
+
+	private FakeClock mClock;
+	private SessionData mSession;
+
+	@Before
+	public void setUp()
+	{
+		mClock = new FakeClock(START_ELAPSED, START_WALL);
+		mSession = new SessionData(mClock);
+	}
+
+	@Test
+	public void samplesAreTimestampedByTheSessionClock()
+	{
+		mSession.start();
+		mClock.advance(250);
+		mSession.addBPM(60);
+		mClock.advance(1000);
+		mSession.addRR(1000);
+
+		assertEquals(START_WALL, mSession.getStartTimestamp());
+		assertEquals(START_WALL + 250, (long) mSession.getBPMTimes()[0]);
+		assertEquals(START_WALL + 1250, (long) mSession.getRRTimes()[0]);
+		assertEquals(1250, mSession.getElapsedTime());
+	}
+
+	@Test
+	public void timestampsFollowTheElapsedRealtimeWhenTheWallClockChanges()
+	{
+		final long[] wall = { START_WALL };
+		Clock clock = new Clock() {
+			@Override
+			public long elapsedRealtime()
+			{
+				return mClock.elapsedRealtime();
+			}
+
+			@Override
+			public long currentTimeMillis()
+			{
+				return wall[0];
+			}
+		};
+		SessionData session = new SessionData(clock);
+
+		session.start();
+		session.addBPM(60);
+		// User sets the clock back an hour
+		wall[0] -= 3600000;
+		mClock.advance(1000);
+		session.addBPM(61);
+
+		Long[] times = session.getBPMTimes();
+		assertEquals(1000, times[1] - times[0]);
+	}
+
+	@Test
+	public void sessionsAreTimedByTheirOwnClocks()
+	{
+		FakeClock other = new FakeClock(0, START_WALL + 86400000);
+		SessionData session = new SessionData(other);
+
+		mSession.start();
+		session.start();
+		mClock.advance(500);
+		other.advance(2000);
+		mSession.addBPM(60);
+		session.addBPM(60);
+
+		assertEquals(START_WALL + 500, (long) mSession.getBPMTimes()[0]);
+		assertEquals(START_WALL + 86400000 + 2000, (long) session.getBPMTimes()[0]);
+		assertEquals(500, mSession.getElapsedTime());
+		assertEquals(2000, session.getElapsedTime());
+	}
+
+	@Test
+	public void statisticsCoverTheBeats()
+	{
+		mSession.start();
+		mSession.addBPM(70);
+		mSession.addBPM(50);
+		mSession.addBPM(90);
+
+		assertEquals(3, mSession.getBeatCount());
+		assertEquals(50, mSession.getMinBPM());
+		assertEquals(90, mSession.getMaxBPM());
+		assertEquals(70, mSession.getAvgBPM());
+		assertEquals(90, mSession.getLastBPM());
+	}
+
+	@Test
+	public void packetCountersGiveTheThroughput()
+	{
+		mSession.start();
+		mSession.addPacketsReceived(3);
+		mSession.addPacketsDropped(1);
+
+		assertEquals(4, mSession.getPacketsTotal());
+		assertEquals(75, mSession.getPacketThroughput());
+	}
+
+	@Test
+	public void sessionStopsAtItsTimeLimit()
+	{
+		mSession.start();
+		mSession.addBPM(60);
+		mClock.advance(SessionData.SESSION_TIMELIMIT_MILLISEC + 5000);
+		mSession.addBPM(61);
+
+		assertFalse(mSession.isStarted());
+		assertEquals(1, mSession.getBeatCount());
+		assertEquals(SessionData.SESSION_TIMELIMIT_MILLISEC, mSession.getElapsedTime());
+
+		mClock.advance(60000);
+		assertEquals(SessionData.SESSION_TIMELIMIT_MILLISEC, mSession.getElapsedTime());
+	}
+
+	@Test
+	public void samplesAreIgnoredUntilStarted()
+	{
+		mSession.addBPM(60);
+		mSession.addPacketsReceived(1);
+
+		assertEquals(0, mSession.getBeatCount());
+		assertEquals(0, mSession.getPacketsTotal());
+	}
+
+	@Test
+	public void snapshotSurvivesClear()
+	{
+		mSession.start();
+		mSession.addBPM(60);
+		mSession.addRR(1000);
+		mClock.advance(1000);
+		mSession.stop();
+
+		SessionData snapshot = mSession.snapshot();
+		mSession.clear();
+		mSession.start();
+		mSession.addBPM(80);
+
+		assertEquals(1, snapshot.getBeatCount());
+		assertEquals(60, snapshot.getLastBPM());
+		assertEquals(1000, snapshot.getLastRR());
+		assertEquals(1000, snapshot.getElapsedTime());
+		assertEquals(START_WALL, snapshot.getStartTime());
+		assertEquals(1, mSession.getBeatCount());
+		assertEquals(80, mSession.getLastBPM());
+	}
+
+}
@@ -0,0 +1,338 @@
+package com.hrmon.heartratemonitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import android.os.Looper;
+
+import com.hrmon.heartratemonitor.ConnectionManager.ChannelPeriod;
+
+/**
+ * Drives a session manager with synthetic sensor traffic, through the ANT message
+ * handling of the connection manager, on a fake clock and a main looper with virtual time.
+ */
+public class SessionManagerTest {
+
+	private static final long START_ELAPSED = 1000000;
+	private static final long START_WALL = 1300000000000L;
+
+	/** Heart rate of the sensor (an RR of 1000 ms) */
+	private static final int BPM = 60;
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	private Looper mLooper;
+	private FakeClock mClock;
+	private ConnectionManager mConnection;
+	private SessionData mSession;
+	private SessionArchive mArchive;
+	private JobExecutor mJobs;
+	private SessionManager mManager;
+	private MemoryStore mStore;
+
+	/** Configuration storage in memory */
+	private static class MemoryStore implements ConfigurationStore {
+		Configuration config = Configuration.DEFAULT;
+		int writes = 0;
+
+		@Override
+		public Configuration read()
+		{
+			return config;
+		}
+
+		@Override
+		public boolean write(Configuration config)
+		{
+			this.config = config;
+			writes++;
+			return true;
+		}
+	}
+
+	/** Job holding the worker until released */
+	private static class BlockingJob extends BackgroundJob {
+		final CountDownLatch release = new CountDownLatch(1);
+
+		BlockingJob()
+		{
+			super("Blocking");
+		}
+
+		@Override
+		protected void execute() throws Exception
+		{
+			release.await();
+		}
+	}
+
+	/** Counts the callbacks */
+	private static class CountingCallbacks implements SessionManager.Callbacks {
+		int data = 0;
+		int state = 0;
+
+		@Override
+		public void notifyNewData()
+		{
+			data++;
+		}
+
+		@Override
+		public void notifyStateChanged()
+		{
+			state++;
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception
+	{
+		Looper.prepareMainLooper();
+		mLooper = Looper.myLooper();
+
+		File dir = mFolder.getRoot();
+		Instrumentation instrumentation = new Instrumentation();
+		mClock = new FakeClock(START_ELAPSED, START_WALL);
+		mConnection = new ConnectionManager(instrumentation, mClock);
+		mSession = new SessionData(mClock);
+		mArchive = new SessionArchive(new File(dir, SessionArchive.ARCHIVE_DIR));
+		mJobs = new JobExecutor();
+		mManager = new SessionManager(mClock, mConnection, mSession, mArchive,
+				new DeviceRegistry(new File(dir, DeviceRegistry.REGISTRY_FILE)), mJobs, instrumentation);
+		mStore = new MemoryStore();
+		mManager.loadConfiguration(mStore);
+	}
+
+	@After
+	public void tearDown()
+	{
+		mJobs.shutDown();
+		assertTrue(mJobs.awaitTermination(5000));
+		mLooper.quit();
+	}
+
+	@Test
+	public void beatsAreRecordedAtTheirMessageTimes()
+	{
+		SensorTraffic sensor = new SensorTraffic(mClock, BPM, ChannelPeriod.FULL);
+		mManager.startSession();
+
+		for (int i = 0; i < 40; i++) {
+			mConnection.receiveMessage(sensor.next());
+			long beats = mSession.getBeatCount();
+			if (beats > 0) {
+				// Timed as the message carrying the beat was decoded
+				assertEquals(mClock.now(), (long) mSession.getBPMTimes()[(int) beats - 1], 1000);
+			}
+		}
+
+		assertEquals(sensor.getBeats(), mSession.getBeatCount());
+		assertEquals(BPM, mSession.getLastBPM());
+		assertEquals(sensor.getRR(), mSession.getLastRR());
+		assertEquals(40, mSession.getPacketsReceived());
+		assertEquals(START_WALL, mSession.getStartTimestamp());
+		assertEquals(mClock.elapsedRealtime() - START_ELAPSED, mSession.getElapsedTime());
+	}
+
+	@Test
+	public void droppedMessagesAreCounted()
+	{
+		SensorTraffic sensor = new SensorTraffic(mClock, BPM, ChannelPeriod.FULL);
+		mManager.startSession();
+
+		for (int i = 0; i < 40; i++) {
+			mConnection.receiveMessage(((i % 4) == 3) ? sensor.dropped() : sensor.next());
+		}
+
+		assertEquals(30, mSession.getPacketsReceived());
+		assertEquals(10, mSession.getPacketsDropped());
+		assertEquals(75, mSession.getPacketThroughput());
+	}
+
+	@Test
+	public void subscribersAreNotifiedOnTheLooper()
+	{
+		CountingCallbacks callbacks = new CountingCallbacks();
+		mManager.subscribe(callbacks);
+		SensorTraffic sensor = new SensorTraffic(mClock, BPM, ChannelPeriod.FULL);
+		mManager.startSession();
+
+		for (int i = 0; i < 20; i++) {
+			mConnection.receiveMessage(sensor.next());
+		}
+		assertEquals(0, callbacks.data);
+
+		mLooper.runDue();
+		assertTrue(callbacks.data >= 1);
+		assertEquals(1, callbacks.state);
+		assertEquals(mSession.getBeatCount(), mManager.getMetrics().beatCount);
+	}
+
+	@Test
+	public void bufferedSamplesAreCommittedAfterTheBurst()
+	{
+		mManager.setConfiguration(new Configuration(SessionManager.WILDCARD,
+				Configuration.DEFAULT.getProximityThreshold(), (short) 8, false, ChannelPeriod.FULL,
+				Configuration.DEFAULT.getFastSearchTimeout()));
+		SensorTraffic sensor = new SensorTraffic(mClock, BPM, ChannelPeriod.FULL).withExtendedData(-60);
+		mManager.startSession();
+
+		// The radio delivers bursts of buffered messages at once
+		byte[][] burst = new byte[32][];
+		long firstArrival = 0;
+		int firstBeats = 0;
+		for (int bursts = 0; bursts < 3; bursts++) {
+			for (int i = 0; i < burst.length; i++) {
+				burst[i] = sensor.next();
+			}
+			int committed = mSession.getBeatCount();
+			for (byte[] message : burst) {
+				mConnection.receiveMessage(message);
+			}
+			assertEquals(committed, mSession.getBeatCount());
+
+			long arrival = mClock.now();
+
+			mLooper.idleFor(50);
+			assertEquals(sensor.getBeats(), mSession.getBeatCount());
+			if (bursts == 0) {
+				firstArrival = arrival;
+				firstBeats = mSession.getBPMTimes().length;
+			}
+		}
+
+		// Timed by the RX timestamps, not by the delivery of the burst (the first
+		// burst is back-dated from its last message, which arrived with it)
+		Long[] times = mSession.getBPMTimes();
+		for (int i = 1; i < times.length; i++) {
+			assertEquals(sensor.getRR(), times[i] - times[i - 1], sensor.getPeriodMillisec() + 1);
+		}
+		assertEquals(firstArrival, times[firstBeats - 1], sensor.getPeriodMillisec() + 1);
+		assertEquals(3 * burst.length, mSession.getRSSIs().length);
+		assertEquals(-60, mSession.getLastRSSI());
+	}
+
+	@Test
+	public void configurationChangesAreWrittenOnce()
+	{
+		mManager.setConfiguration(mManager.getConfiguration().withChannelPeriod(ChannelPeriod.HALF));
+		mManager.setConfiguration(mManager.getConfiguration().withChannelPeriod(ChannelPeriod.QUARTER));
+		assertEquals(0, mStore.writes);
+
+		// The delayed save is replaced by the final job (as when the service is destroyed)
+		mJobs.shutDown(mManager.takeFinalJobs());
+		assertTrue(mJobs.awaitTermination(5000));
+		mLooper.idleFor(5000);
+		assertEquals(1, mStore.writes);
+		assertEquals(ChannelPeriod.QUARTER, mStore.config.getChannelPeriod());
+	}
+
+	@Test
+	public void channelIdPairsTheSensor()
+	{
+		mConnection.receiveMessage(SensorTraffic.channelId((short) 4321));
+
+		assertEquals(4321, mManager.getConfiguration().getDeviceNumber());
+		assertEquals(4321, mManager.getDeviceInfo().getDeviceNumber());
+	}
+
+	@Test
+	public void stoppedSessionIsArchivedByTheShutDown()
+	{
+		SensorTraffic sensor = new SensorTraffic(mClock, BPM, ChannelPeriod.FULL);
+		mManager.startSession();
+		for (int i = 0; i < 40; i++) {
+			mConnection.receiveMessage(sensor.next());
+		}
+		mManager.stopSession();
+		mManager.setConfiguration(mManager.getConfiguration().withChannelPeriod(ChannelPeriod.HALF));
+
+		// As when the service is destroyed (the caller does not wait)
+		mJobs.shutDown(mManager.takeFinalJobs());
+		assertTrue(mJobs.awaitTermination(5000));
+
+		assertEquals(1, mArchive.getSummaries().size());
+		assertEquals(1, mStore.writes);
+		assertEquals(ChannelPeriod.HALF, mStore.config.getChannelPeriod());
+	}
+
+	@Test
+	public void refusedArchiveIsRetriedOffTheMainThread()
+	{
+		BlockingJob blocking = fillWorkQueue();
+		recordSession();
+
+		// Refused by the full work queue: held, not written on the main thread
+		assertEquals(0, mArchive.getSummaries().size());
+
+		blocking.release.countDown();
+		waitForWorkQueue();
+		mLooper.idleFor(1000);
+		mJobs.shutDown();
+		assertTrue(mJobs.awaitTermination(5000));
+		assertEquals(1, mArchive.getSummaries().size());
+	}
+
+	@Test
+	public void refusedArchiveIsTakenByTheShutDown()
+	{
+		BlockingJob blocking = fillWorkQueue();
+		recordSession();
+		assertEquals(0, mArchive.getSummaries().size());
+
+		// As when the service is destroyed before the retry
+		mJobs.shutDown(mManager.takeFinalJobs());
+		blocking.release.countDown();
+		assertTrue(mJobs.awaitTermination(5000));
+		mLooper.idleFor(5000);
+		assertEquals(1, mArchive.getSummaries().size());
+	}
+
+	/** Record, and stop, a session of 40 beats */
+	private void recordSession()
+	{
+		SensorTraffic sensor = new SensorTraffic(mClock, BPM, ChannelPeriod.FULL);
+		mManager.startSession();
+		for (int i = 0; i < 40; i++) {
+			mConnection.receiveMessage(sensor.next());
+		}
+		mManager.stopSession();
+	}
+
+	/** Fill the work queue, behind a job holding the worker */
+	private BlockingJob fillWorkQueue()
+	{
+		BlockingJob blocking = new BlockingJob();
+		assertTrue(mJobs.submit(blocking));
+		while (mJobs.submit(new BlockingJob() {
+			@Override
+			protected void execute()
+			{
+			}
+		})) {
+			// Until refused
+		}
+		return blocking;
+	}
+
+	/** Wait for the worker to take the queued jobs */
+	private void waitForWorkQueue()
+	{
+		long deadline = System.currentTimeMillis() + 5000;
+		while ((mJobs.getQueuedCount() > 0) && (System.currentTimeMillis() < deadline)) {
+			Thread.yield();
+		}
+		assertEquals(0, mJobs.getQueuedCount());
+	}
+
+}
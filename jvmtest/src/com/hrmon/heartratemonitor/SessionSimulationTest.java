@@ -0,0 +1,87 @@
+package com.hrmon.heartratemonitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.hrmon.heartratemonitor.ConnectionManager.ChannelPeriod;
+
+/**
+ * Whole sessions, simulated on a fake clock: the time limit cut-off, the statistics
+ * and the memory used by the samples.
+ */
+public class SessionSimulationTest {
+
+	/** Heart rate of the simulations */
+	private static final int BPM = 72;
+
+	/** One message in this many is dropped */
+	private static final int DROP_EVERY = 50;
+
+	/** Heap allowed per sample (bytes) */
+	private static final long MAX_BYTES_PER_SAMPLE = 80;
+
+	@Test
+	public void sessionOfTheTimeLimitKeepsEverySample()
+	{
+		SessionSimulator.Result result = simulate(SessionData.SESSION_TIMELIMIT_HOURS);
+		SessionData session = result.session;
+
+		assertFalse(result.limited);
+		assertTrue(session.isStarted());
+		assertEquals(result.simulatedTime, session.getElapsedTime());
+		assertStatistics(result);
+	}
+
+	@Test
+	public void longerSessionIsCutOffAtTheTimeLimit()
+	{
+		SessionSimulator.Result result = simulate(24);
+		SessionData session = result.session;
+
+		assertTrue(result.limited);
+		assertFalse(session.isStarted());
+		assertEquals(SessionData.SESSION_TIMELIMIT_MILLISEC, session.getElapsedTime());
+		assertTrue(SessionSimulator.lastTime(session) <= result.lastAcceptedTime);
+		assertStatistics(result);
+
+		// Stays frozen at the limit
+		result.clock.advance(3600000);
+		assertEquals(SessionData.SESSION_TIMELIMIT_MILLISEC, session.getElapsedTime());
+	}
+
+	@Test
+	public void samplesUseLittleHeap()
+	{
+		SessionSimulator.Result result = simulate(SessionData.SESSION_TIMELIMIT_HOURS);
+
+		assertTrue(result.toString(), result.samples > 0);
+		assertTrue(result.toString(), result.getBytesPerSample() <= MAX_BYTES_PER_SAMPLE);
+	}
+
+	/** Simulate a session at full rate */
+	private static SessionSimulator.Result simulate(long hours)
+	{
+		return new SessionSimulator(hours * 3600000, BPM, ChannelPeriod.FULL, DROP_EVERY).run();
+	}
+
+	/** Check the statistics of a simulated session */
+	private static void assertStatistics(SessionSimulator.Result result)
+	{
+		SessionData session = result.session;
+
+		assertEquals(SessionSimulator.START_WALL_MILLISEC, session.getStartTimestamp());
+		assertEquals(result.acceptedBeats, session.getBeatCount());
+		assertEquals(BPM, session.getMinBPM());
+		assertEquals(BPM, session.getAvgBPM());
+		assertEquals(BPM, session.getMaxBPM());
+		assertEquals(60000 / BPM, session.getLastRR());
+		assertEquals(SessionSimulator.SIMULATED_RSSI, session.getLastRSSI());
+		assertEquals(result.acceptedMessages, session.getPacketsTotal());
+		assertEquals(result.acceptedMessages / DROP_EVERY, session.getPacketsDropped());
+		assertEquals(100 - (100 / DROP_EVERY), session.getPacketThroughput());
+	}
+
+}
@@ -0,0 +1,186 @@
+package com.hrmon.heartratemonitor;
+
+import com.hrmon.heartratemonitor.ConnectionManager.ChannelPeriod;
+
+/**
+ * Simulation of a whole session on a fake clock, many times faster than real time.
+ *
+ * A steady heart rate is fed into a SessionData as the HRM channel would, message by
+ * message (with a deterministic share of dropped messages). The session is timed by
+ * its own fake clock, so simulations do not affect each other (or anything else).
+ */
+class SessionSimulator {
+
+	/** Start of the simulated clock (elapsed realtime, ms) */
+	static final long START_ELAPSED_MILLISEC = 1000000;
+
+	/** Start of the simulated clock (wall clock time, ms) */
+	static final long START_WALL_MILLISEC = 1300000000000L;
+
+	/** Simulated signal strength (dBm) */
+	static final int SIMULATED_RSSI = -60;
+
+	/** Session length (ms) */
+	private final long mDuration;
+
+	/** Heart rate (BPM) */
+	private final int mBPM;
+
+	/** Channel period profile */
+	private final ChannelPeriod mPeriod;
+
+	/** One message in this many is dropped (0 for none) */
+	private final int mDropEvery;
+
+	/**
+	 * Result of a simulation.
+	 */
+	static class Result {
+
+		/** The simulated session, and its clock */
+		SessionData session;
+		FakeClock clock;
+
+		/** Simulated and real (wall) durations (ms) */
+		long simulatedTime;
+		long realTime;
+
+		/** Messages fed into the session, and the messages and beats within its time limit */
+		long messages;
+		long acceptedMessages;
+		long acceptedBeats;
+
+		/** Flag indicating that messages were sent past the time limit */
+		boolean limited;
+
+		/** Time of the last message within the time limit (session clock timestamp) */
+		long lastAcceptedTime;
+
+		/** Samples kept by the session, and the heap they use (bytes) */
+		long samples;
+		long heapUsed;
+
+		/** Get the heap used per sample (bytes) */
+		long getBytesPerSample()
+		{
+			return (samples > 0) ? (heapUsed / samples) : 0;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("%.1f h simulated in %d ms: %d messages, %d beats, %d samples, %d bytes/sample",
+					simulatedTime / 3600000.0, realTime, messages, acceptedBeats, samples, getBytesPerSample());
+		}
+	}
+
+	/**
+	 * Constructor
+	 * @param duration  the session length (ms)
+	 * @param bpm       the heart rate
+	 * @param period    the channel period profile
+	 * @param dropEvery one message in this many is dropped (0 for none)
+	 */
+	SessionSimulator(long duration, int bpm, ChannelPeriod period, int dropEvery)
+	{
+		mDuration = duration;
+		mBPM = bpm;
+		mPeriod = period;
+		mDropEvery = dropEvery;
+	}
+
+	/**
+	 * Run the simulation.
+	 */
+	Result run()
+	{
+		Result result = new Result();
+		FakeClock clock = new FakeClock(START_ELAPSED_MILLISEC, START_WALL_MILLISEC);
+
+		long heapBefore = usedHeap();
+		long realStart = System.nanoTime();
+
+		SessionData session = new SessionData(clock);
+		session.start();
+		long deadline = START_ELAPSED_MILLISEC + SessionData.SESSION_TIMELIMIT_MILLISEC;
+
+		int rr = 60000 / mBPM;
+		long periodTicks = mPeriod.getPeriod();
+		long nextBeat = START_ELAPSED_MILLISEC + rr;
+		long lastAccepted = START_ELAPSED_MILLISEC;
+
+		for (long i = 1; ; i++) {
+			// Time of the message (from its index, so that the period does not drift)
+			long elapsed = START_ELAPSED_MILLISEC + (i * periodTicks * 1000) / RxTimeline.TICKS_PER_SECOND;
+			if (elapsed > START_ELAPSED_MILLISEC + mDuration) {
+				break;
+			}
+			clock.advance(elapsed - clock.elapsedRealtime());
+			long time = clock.timeOf(elapsed);
+			boolean accepted = elapsed < deadline;
+			result.messages++;
+
+			if ((mDropEvery > 0) && (i % mDropEvery == 0)) {
+				session.addPacketsDropped(1, time);
+			} else {
+				session.addPacketsReceived(1, time);
+				session.addRSSI(SIMULATED_RSSI, time);
+
+				// Beats since the last message
+				while (nextBeat <= elapsed) {
+					long beatTime = clock.timeOf(nextBeat);
+					session.addRR(rr, beatTime);
+					session.addBPM(mBPM, beatTime);
+					if (accepted) {
+						result.acceptedBeats++;
+					}
+					nextBeat += rr;
+				}
+			}
+			if (accepted) {
+				result.acceptedMessages++;
+				lastAccepted = elapsed;
+			} else {
+				result.limited = true;
+			}
+		}
+		result.simulatedTime = clock.elapsedRealtime() - START_ELAPSED_MILLISEC;
+		result.lastAcceptedTime = clock.timeOf(lastAccepted);
+
+		for (int series = 0; series < SampleSource.SERIES_COUNT; series++) {
+			result.samples += session.size(series);
+		}
+		result.realTime = (System.nanoTime() - realStart) / 1000000;
+
+		// The result keeps the session (and its samples) reachable while the heap is measured
+		result.session = session;
+		result.clock = clock;
+		result.heapUsed = usedHeap() - heapBefore;
+
+		return result;
+	}
+
+	/** Get the time of the last sample of a session (0 if none) */
+	static long lastTime(SessionData session)
+	{
+		long last = 0;
+		for (int series = 0; series < SampleSource.SERIES_COUNT; series++) {
+			int size = session.size(series);
+			if (size > 0) {
+				last = Math.max(last, session.getSeries(series).getTime(size - 1));
+			}
+		}
+		return last;
+	}
+
+	/** Get the heap in use, after a collection (bytes) */
+	private static long usedHeap()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
@@ -0,0 +1,446 @@
+package com.hrmon.heartratemonitor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.BroadcastReceiver;
+import android.content.ContextWrapper;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+
+import com.dsi.ant.AntDefine;
+import com.dsi.ant.AntInterface;
+import com.dsi.ant.AntInterfaceIntent;
+import com.dsi.ant.AntMesg;
+import com.hrmon.heartratemonitor.ConnectionManager.ChannelPeriod;
+
+/**
+ * A simulated ANT radio with one heart rate sensor, on the main looper's virtual
+ * time. It answers the commands of the connection manager (through the stand-in
+ * AntInterface), searches for the sensor, and delivers the sensor's traffic
+ * (SensorTraffic) while tracking it. It is also the context the connection
+ * manager is started with, broadcasting to the receivers registered with it.
+ *
+ * The sensor sends a message every channel period, in range or not. A search
+ * runs the configured low priority search, then the high priority one (each in
+ * 2.5 s units; 255 never times out), then reports a search timeout and closes
+ * the channel. Once tracking, GO_TO_SEARCH_MISSES messages missed in a row send
+ * the channel back to search.
+ *
+ * Search model: a high priority search listens in every channel period, and
+ * acquires a sensor in range at its next message; a low priority search listens
+ * in the last period of every LOW_PRIORITY_SCAN_PERIODS, so acquires later but
+ * keeps the receiver off for the rest. The radio on time adds up the periods
+ * listened in while searching.
+ */
+class SimulatedRadio extends ContextWrapper implements AntInterface.Radio {
+
+	/** Device number of the sensor */
+	static final short SENSOR_DEVICE_NUMBER = 1234;
+
+	/** Delay of a command response (ms) */
+	private static final long RESPONSE_DELAY_MILLISEC = 2;
+
+	/** Delay of the reset broadcast after a reset command (ms) */
+	private static final long RESET_DELAY_MILLISEC = 100;
+
+	/** Search timeout unit (ms) */
+	private static final long SEARCH_TIMEOUT_UNIT_MILLISEC = 2500;
+
+	/** Search timeout with no timeout */
+	private static final int NO_SEARCH_TIMEOUT = 255;
+
+	/** A low priority search listens in one channel period of this many */
+	static final int LOW_PRIORITY_SCAN_PERIODS = 8;
+
+	/** Messages missed in a row before a tracking channel goes back to search */
+	static final int GO_TO_SEARCH_MISSES = 8;
+
+	/** Response code of a command in the wrong channel state */
+	private static final byte CHANNEL_IN_WRONG_STATE = 0x15;
+
+	/** State of the channel on the radio */
+	enum ChannelState { UNASSIGNED, ASSIGNED, SEARCHING, TRACKING }
+
+	/** Phase of a search */
+	private enum SearchPhase { LOW_PRIORITY, HIGH_PRIORITY }
+
+	/** Main looper handler: the radio's time, and where it delivers to the app */
+	private final Handler mHandler = new Handler();
+
+	/** Receivers registered with the context */
+	private final Map<BroadcastReceiver, IntentFilter> mReceivers = new LinkedHashMap<BroadcastReceiver, IntentFilter>();
+
+	/** Traffic of the sensor */
+	private final SensorTraffic mSensor;
+
+	/** Channel period of the sensor (1/32768 s, and ms) */
+	private final int mPeriod;
+	private final long mPeriodMillisec;
+
+	/** Looper time of the first message of the sensor (ms) */
+	private final long mStart;
+
+	/** Flag indicating that the sensor is in range */
+	private boolean mInRange = true;
+
+	/** Channel configuration */
+	private ChannelState mState = ChannelState.UNASSIGNED;
+	private short mDeviceNumber = 0;
+	private int mSearchTimeout = 0;
+	private int mLowPrioritySearchTimeout = 0;
+
+	/** Current search: phase, and its looper start time (ms) */
+	private SearchPhase mPhase;
+	private long mPhaseStart;
+
+	/** Messages missed in a row while tracking */
+	private int mMisses = 0;
+
+	/** Commands received */
+	private final List<byte[]> mCommands = new ArrayList<byte[]>();
+
+	/** Looper times the sensor was acquired at (ms) */
+	private final List<Long> mAcquisitions = new ArrayList<Long>();
+
+	/** Time spent (ms): searching at high and low priority, and listening in a low priority search */
+	private long mHighPrioritySearch = 0;
+	private long mLowPrioritySearch = 0;
+	private long mLowPriorityListen = 0;
+
+	/** Searches timed out */
+	private int mSearchTimeouts = 0;
+
+	/**
+	 * Constructor (on the thread of the main looper). The sensor is in range, and
+	 * sends its first message one channel period from now.
+	 * @param clock  the clock moved on by the sensor's messages
+	 * @param bpm    the heart rate of the sensor
+	 * @param period the channel period profile of the sensor
+	 */
+	SimulatedRadio(FakeClock clock, int bpm, ChannelPeriod period)
+	{
+		mSensor = new SensorTraffic(clock, bpm, period).withExtendedData(-60);
+		mPeriod = period.getPeriod();
+		mPeriodMillisec = mSensor.getPeriodMillisec();
+		mStart = mHandler.getLooper().uptimeMillis();
+		mHandler.postAtTime(mSensorMessage, getMessageTime(1));
+	}
+
+	/** Move the sensor in or out of range */
+	void setInRange(boolean inRange)
+	{
+		mInRange = inRange;
+	}
+
+	/** Get the state of the channel */
+	ChannelState getState()
+	{
+		return mState;
+	}
+
+	/** Get the configured search timeouts (2.5 s units): high priority, and low priority */
+	int getSearchTimeout()
+	{
+		return mSearchTimeout;
+	}
+
+	int getLowPrioritySearchTimeout()
+	{
+		return mLowPrioritySearchTimeout;
+	}
+
+	/** Get the commands received with a message ID, in order */
+	List<byte[]> getCommands(byte messageId)
+	{
+		List<byte[]> commands = new ArrayList<byte[]>();
+		for (byte[] command : mCommands) {
+			if (command[AntMesg.MESG_ID_OFFSET] == messageId) {
+				commands.add(command);
+			}
+		}
+		return commands;
+	}
+
+	/** Get the looper times the sensor was acquired at (ms) */
+	List<Long> getAcquisitions()
+	{
+		return mAcquisitions;
+	}
+
+	/** Get the number of searches timed out */
+	int getSearchTimeouts()
+	{
+		return mSearchTimeouts;
+	}
+
+	/** Get the time searched at high priority (ms) */
+	long getHighPrioritySearchMillisec()
+	{
+		return mHighPrioritySearch;
+	}
+
+	/** Get the time searched at low priority (ms) */
+	long getLowPrioritySearchMillisec()
+	{
+		return mLowPrioritySearch;
+	}
+
+	/** Get the time the receiver was on searching (ms) */
+	long getRadioOnMillisec()
+	{
+		return mHighPrioritySearch + mLowPriorityListen;
+	}
+
+	@Override
+	public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter)
+	{
+		mReceivers.put(receiver, filter);
+		return null;
+	}
+
+	@Override
+	public void unregisterReceiver(BroadcastReceiver receiver)
+	{
+		if (mReceivers.remove(receiver) == null) {
+			throw new IllegalArgumentException("Receiver not registered: " + receiver);
+		}
+	}
+
+	@Override
+	public void transmit(byte[] message)
+	{
+		mCommands.add(message);
+
+		byte messageId = message[AntMesg.MESG_ID_OFFSET];
+		byte channel = message[AntMesg.MESG_DATA_OFFSET];
+		switch (messageId) {
+		case AntMesg.MESG_SYSTEM_RESET_ID:
+			mState = ChannelState.UNASSIGNED;
+			post(new Intent(AntInterfaceIntent.ANT_RESET_ACTION), RESET_DELAY_MILLISEC);
+			break;
+		case AntMesg.MESG_ASSIGN_CHANNEL_ID:
+			respond(channel, messageId, checkState(ChannelState.UNASSIGNED, ChannelState.ASSIGNED));
+			break;
+		case AntMesg.MESG_UNASSIGN_CHANNEL_ID:
+			respond(channel, messageId, checkState(ChannelState.ASSIGNED, ChannelState.UNASSIGNED));
+			break;
+		case AntMesg.MESG_CHANNEL_ID_ID:
+			mDeviceNumber = (short) ((message[AntMesg.MESG_DATA_OFFSET + 1] & 0xFF)
+					| ((message[AntMesg.MESG_DATA_OFFSET + 2] & 0xFF) << 8));
+			respond(channel, messageId, AntDefine.RESPONSE_NO_ERROR);
+			break;
+		case AntMesg.MESG_CHANNEL_SEARCH_TIMEOUT_ID:
+			// Applies from the next search
+			mSearchTimeout = message[AntMesg.MESG_DATA_OFFSET + 1] & 0xFF;
+			respond(channel, messageId, AntDefine.RESPONSE_NO_ERROR);
+			break;
+		case AntMesg.MESG_SET_LP_SEARCH_TIMEOUT_ID:
+			mLowPrioritySearchTimeout = message[AntMesg.MESG_DATA_OFFSET + 1] & 0xFF;
+			respond(channel, messageId, AntDefine.RESPONSE_NO_ERROR);
+			break;
+		case AntMesg.MESG_CHANNEL_MESG_PERIOD_ID:
+		case AntMesg.MESG_CHANNEL_RADIO_FREQ_ID:
+		case AntMesg.MESG_PROX_SEARCH_CONFIG_ID:
+			respond(channel, messageId, AntDefine.RESPONSE_NO_ERROR);
+			break;
+		case AntMesg.MESG_OPEN_CHANNEL_ID:
+			byte code = checkState(ChannelState.ASSIGNED, ChannelState.SEARCHING);
+			respond(channel, messageId, code);
+			if (code == AntDefine.RESPONSE_NO_ERROR) {
+				startSearch();
+			}
+			break;
+		case AntMesg.MESG_CLOSE_CHANNEL_ID:
+			if ((mState == ChannelState.SEARCHING) || (mState == ChannelState.TRACKING)) {
+				mState = ChannelState.ASSIGNED;
+				respond(channel, messageId, AntDefine.RESPONSE_NO_ERROR);
+				event(AntDefine.EVENT_CHANNEL_CLOSED);
+			} else {
+				respond(channel, messageId, CHANNEL_IN_WRONG_STATE);
+			}
+			break;
+		case AntMesg.MESG_REQUEST_ID:
+			if ((message[AntMesg.MESG_DATA_OFFSET + 1] == AntMesg.MESG_CHANNEL_ID_ID) && (mState == ChannelState.TRACKING)) {
+				post(SensorTraffic.channelId(SENSOR_DEVICE_NUMBER), RESPONSE_DELAY_MILLISEC);
+			}
+			break;
+		default:
+			// Library configuration, event buffering: no response
+			break;
+		}
+	}
+
+	/** Sends the sensor's message of each channel period, and runs the channel on it */
+	private final Runnable mSensorMessage = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			byte[] message = mInRange ? mSensor.next() : mSensor.dropped();
+
+			switch (mState) {
+			case SEARCHING:
+				search(message);
+				break;
+			case TRACKING:
+				deliver(message);
+				if (mInRange) {
+					mMisses = 0;
+				} else if (++mMisses >= GO_TO_SEARCH_MISSES) {
+					event(AntDefine.EVENT_RX_FAIL_GO_TO_SEARCH);
+					startSearch();
+				}
+				break;
+			default:
+				break;
+			}
+
+			mHandler.postAtTime(this, getMessageTime(mSensor.getMessages() + 1));
+		}
+	};
+
+	/** Start a search, with the configured timeouts */
+	private void startSearch()
+	{
+		mState = ChannelState.SEARCHING;
+		mMisses = 0;
+		startPhase(SearchPhase.LOW_PRIORITY);
+	}
+
+	/** Start a phase of the search, or the next one if its timeout is 0 */
+	private void startPhase(SearchPhase phase)
+	{
+		mPhase = phase;
+		mPhaseStart = mHandler.getLooper().uptimeMillis();
+		if ((phase == SearchPhase.LOW_PRIORITY) && (mLowPrioritySearchTimeout == 0)) {
+			startPhase(SearchPhase.HIGH_PRIORITY);
+		} else if ((phase == SearchPhase.HIGH_PRIORITY) && (mSearchTimeout == 0)) {
+			searchTimeout();
+		}
+	}
+
+	/** Search in a channel period, with the sensor's message of the period */
+	private void search(byte[] message)
+	{
+		long now = mHandler.getLooper().uptimeMillis();
+		boolean isHighPriority = (mPhase == SearchPhase.HIGH_PRIORITY);
+		int timeout = isHighPriority ? mSearchTimeout : mLowPrioritySearchTimeout;
+		if ((timeout != NO_SEARCH_TIMEOUT) && (now - mPhaseStart >= timeout * SEARCH_TIMEOUT_UNIT_MILLISEC)) {
+			if (isHighPriority) {
+				searchTimeout();
+				return;
+			}
+			startPhase(SearchPhase.HIGH_PRIORITY);
+			if (mState != ChannelState.SEARCHING) {
+				return;
+			}
+			isHighPriority = true;
+		}
+
+		boolean isListening = isHighPriority
+				|| ((((now - mPhaseStart) / mPeriodMillisec) % LOW_PRIORITY_SCAN_PERIODS) == LOW_PRIORITY_SCAN_PERIODS - 1);
+		if (isHighPriority) {
+			mHighPrioritySearch += mPeriodMillisec;
+		} else {
+			mLowPrioritySearch += mPeriodMillisec;
+			if (isListening) {
+				mLowPriorityListen += mPeriodMillisec;
+			}
+		}
+
+		boolean isMatch = (mDeviceNumber == 0) || (mDeviceNumber == SENSOR_DEVICE_NUMBER);
+		if (isListening && mInRange && isMatch) {
+			mState = ChannelState.TRACKING;
+			mAcquisitions.add(now);
+			deliver(message);
+		}
+	}
+
+	/** End a search that timed out: the channel closes */
+	private void searchTimeout()
+	{
+		mSearchTimeouts++;
+		mState = ChannelState.ASSIGNED;
+		event(AntDefine.EVENT_RX_SEARCH_TIMEOUT);
+		event(AntDefine.EVENT_CHANNEL_CLOSED);
+	}
+
+	/** Check the channel state of a command, moving to the next state if it is right */
+	private byte checkState(ChannelState required, ChannelState next)
+	{
+		if (mState != required) {
+			return CHANNEL_IN_WRONG_STATE;
+		}
+		mState = next;
+		return AntDefine.RESPONSE_NO_ERROR;
+	}
+
+	/** Send the response to a command */
+	private void respond(byte channel, byte messageId, byte code)
+	{
+		post(new byte[] { 3, AntMesg.MESG_RESPONSE_EVENT_ID, channel, messageId, code }, RESPONSE_DELAY_MILLISEC);
+	}
+
+	/** Send a channel event */
+	private void event(byte code)
+	{
+		post(new byte[] { 3, AntMesg.MESG_RESPONSE_EVENT_ID, ConnectionManager.HRM_CHANNEL, AntMesg.MESG_EVENT_ID, code }, 0);
+	}
+
+	/** Deliver an ANT message to the receivers */
+	private void deliver(byte[] message)
+	{
+		broadcast(toIntent(message));
+	}
+
+	/** Deliver an ANT message to the receivers, after a delay */
+	private void post(byte[] message, long delayMillis)
+	{
+		post(toIntent(message), delayMillis);
+	}
+
+	/** Broadcast an intent to the receivers, after a delay */
+	private void post(final Intent intent, long delayMillis)
+	{
+		mHandler.postDelayed(new Runnable() {
+			@Override
+			public void run()
+			{
+				broadcast(intent);
+			}
+		}, delayMillis);
+	}
+
+	/** Broadcast an intent to the receivers that match it */
+	private void broadcast(Intent intent)
+	{
+		List<BroadcastReceiver> receivers = new ArrayList<BroadcastReceiver>();
+		for (Map.Entry<BroadcastReceiver, IntentFilter> entry : mReceivers.entrySet()) {
+			if (entry.getValue().hasAction(intent.getAction())) {
+				receivers.add(entry.getKey());
+			}
+		}
+		for (BroadcastReceiver receiver : receivers) {
+			receiver.onReceive(this, intent);
+		}
+	}
+
+	/** Get the intent delivering an ANT message */
+	private static Intent toIntent(byte[] message)
+	{
+		Intent intent = new Intent(AntInterfaceIntent.ANT_RX_MESSAGE_ACTION);
+		intent.putExtra(AntInterfaceIntent.ANT_MESSAGE, message);
+		return intent;
+	}
+
+	/** Get the looper time of a message of the sensor (ms) */
+	private long getMessageTime(long message)
+	{
+		return mStart + ((message * mPeriod * 1000) / RxTimeline.TICKS_PER_SECOND);
+	}
+
+}
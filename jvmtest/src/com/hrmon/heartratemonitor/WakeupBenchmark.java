@@ -0,0 +1,192 @@
+package com.hrmon.heartratemonitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import android.os.Looper;
+
+import com.hrmon.heartratemonitor.ConnectionManager.ChannelPeriod;
+
+/**
+ * Main thread wakeups per hour in each channel period profile, with and without
+ * event buffering, from an hour of synthetic sensor traffic replayed through the
+ * connection manager (with a subscribed client, as the activity would be).
+ *
+ * A wakeup is either a delivery from the radio (a message, or a burst of buffered
+ * messages, together with the work it posts for straight away), or a delayed
+ * task run on the main looper (e.g. a batch commit; tasks due together are one wakeup).
+ */
+public class WakeupBenchmark {
+
+	/** Simulated time per run (ms) */
+	private static final long RUN_MILLISEC = 3600000;
+
+	/** Heart rate of the sensor */
+	private static final int BPM = 72;
+
+	/** One message in this many is dropped */
+	private static final int DROP_EVERY = 50;
+
+	/** Messages buffered by the radio per burst, when buffering */
+	private static final short BUFFER_THRESHOLD = 8;
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	/** Result of a run */
+	private static class Result {
+		ChannelPeriod period;
+		boolean isBuffered;
+		long messages;
+		long deliveries;
+		long delayedWakeups;
+		long notifications;
+		int beats;
+		Integer[] rrs;
+
+		long getWakeups()
+		{
+			return deliveries + delayedWakeups;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("%-7s %-10s %6d wakeups/h (%d messages, %d deliveries, %d delayed wakeups, %d client notifications)",
+					period, isBuffered ? "buffered" : "unbuffered", getWakeups(), messages, deliveries,
+					delayedWakeups, notifications);
+		}
+	}
+
+	@Test
+	public void wakeupsPerHour() throws Exception
+	{
+		List<Result> unbuffered = new ArrayList<Result>();
+		List<Result> buffered = new ArrayList<Result>();
+		for (ChannelPeriod period : ChannelPeriod.values()) {
+			unbuffered.add(run(period, false));
+			buffered.add(run(period, true));
+		}
+
+		for (int i = 0; i < unbuffered.size(); i++) {
+			System.out.println(unbuffered.get(i));
+			System.out.println(buffered.get(i));
+		}
+
+		// Wakeups scale with the message rate
+		long full = unbuffered.get(ChannelPeriod.FULL.ordinal()).getWakeups();
+		assertEquals(full / 2.0, unbuffered.get(ChannelPeriod.HALF.ordinal()).getWakeups(), full * 0.05);
+		assertEquals(full / 4.0, unbuffered.get(ChannelPeriod.QUARTER.ordinal()).getWakeups(), full * 0.05);
+
+		for (int i = 0; i < unbuffered.size(); i++) {
+			// Buffering wakes the main thread once per burst (and batch), not per message
+			assertTrue(buffered.get(i).toString(), buffered.get(i).getWakeups() < unbuffered.get(i).getWakeups() / 2);
+
+			// Every beat decoded has its RR, recovered from the previous beat time at the lower rates
+			for (Result result : new Result[] { unbuffered.get(i), buffered.get(i) }) {
+				assertTrue(result.toString(), result.rrs.length >= result.beats - 1);
+				for (int rr : result.rrs) {
+					assertEquals(result.toString(), (60 * 1024 / BPM) * 1000 / 1024, rr);
+				}
+			}
+		}
+	}
+
+	/** Replay an hour of traffic in a channel period profile */
+	private Result run(ChannelPeriod period, boolean isBuffered) throws Exception
+	{
+		Looper.prepareMainLooper();
+		Looper looper = Looper.myLooper();
+		JobExecutor jobs = new JobExecutor();
+
+		try {
+			File dir = mFolder.newFolder();
+			FakeClock clock = new FakeClock(1000000, 1300000000000L);
+			Instrumentation instrumentation = new Instrumentation();
+			ConnectionManager connection = new ConnectionManager(instrumentation, clock);
+			SessionData session = new SessionData(clock);
+			SessionManager manager = new SessionManager(clock, connection, session,
+					new SessionArchive(new File(dir, SessionArchive.ARCHIVE_DIR)),
+					new DeviceRegistry(new File(dir, DeviceRegistry.REGISTRY_FILE)), jobs, instrumentation);
+			manager.setConfiguration(new Configuration(SessionManager.WILDCARD,
+					Configuration.DEFAULT.getProximityThreshold(), isBuffered ? BUFFER_THRESHOLD : 0, false,
+					period, Configuration.DEFAULT.getFastSearchTimeout()));
+
+			final Result result = new Result();
+			result.period = period;
+			result.isBuffered = isBuffered;
+			manager.subscribe(new SessionManager.Callbacks() {
+				@Override
+				public void notifyNewData()
+				{
+					result.notifications++;
+				}
+
+				@Override
+				public void notifyStateChanged()
+				{
+				}
+			});
+
+			// Paired sensor, and a session in progress
+			connection.receiveMessage(SensorTraffic.channelId((short) 1234));
+			manager.startSession();
+			looper.runToEndOfTasks();
+
+			SensorTraffic sensor = new SensorTraffic(clock, BPM, period).withExtendedData(-60);
+			List<byte[]> burst = new ArrayList<byte[]>();
+			long end = clock.elapsedRealtime() + RUN_MILLISEC;
+			while (clock.elapsedRealtime() < end) {
+				long before = clock.elapsedRealtime();
+				burst.add(((sensor.getMessages() + 1) % DROP_EVERY == 0) ? sensor.dropped() : sensor.next());
+				result.delayedWakeups += idleFor(looper, clock.elapsedRealtime() - before);
+
+				if (burst.size() >= (isBuffered ? BUFFER_THRESHOLD : 1)) {
+					for (byte[] message : burst) {
+						connection.receiveMessage(message);
+					}
+					burst.clear();
+					result.deliveries++;
+					looper.runDue();
+				}
+			}
+			result.delayedWakeups += idleFor(looper, 1000);
+
+			result.messages = sensor.getMessages();
+			result.beats = session.getBeatCount();
+			result.rrs = session.getRRs();
+			return result;
+		} finally {
+			jobs.shutDown();
+			looper.quit();
+		}
+	}
+
+	/**
+	 * Move the looper's time forward, running the delayed tasks as they fall due.
+	 * @return the number of wakeups (times at which tasks ran)
+	 */
+	private static int idleFor(Looper looper, long millis)
+	{
+		int wakeups = 0;
+		long end = looper.uptimeMillis() + millis;
+
+		long next;
+		while ((next = looper.getNextTaskTime()) <= end) {
+			looper.idleFor(next - looper.uptimeMillis());
+			wakeups++;
+		}
+		looper.idleFor(end - looper.uptimeMillis());
+
+		return wakeups;
+	}
+
+}
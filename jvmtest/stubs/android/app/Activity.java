@@ -0,0 +1,25 @@
+package android.app;
+
+import android.content.ContextWrapper;
+import android.content.Intent;
+import android.os.Bundle;
+import android.view.View;
+
+/** Compile-time stand-in */
+public class Activity extends ContextWrapper {
+
+	protected void onCreate(Bundle savedInstanceState) {}
+	protected void onStart() {}
+	protected void onResume() {}
+	protected void onPause() {}
+	protected void onStop() {}
+	protected void onDestroy() {}
+	public void onWindowFocusChanged(boolean hasFocus) {}
+	public void onBackPressed() {}
+
+	public void setContentView(int layoutResID) {}
+	public View findViewById(int id) { return null; }
+	public void startActivity(Intent intent) {}
+	public boolean isFinishing() { return false; }
+
+}
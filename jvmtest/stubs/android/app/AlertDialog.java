@@ -0,0 +1,21 @@
+package android.app;
+
+import android.content.Context;
+import android.content.DialogInterface;
+
+/** Compile-time stand-in */
+public class AlertDialog implements DialogInterface {
+
+	public void cancel() {}
+	public void show() {}
+
+	public static class Builder {
+		public Builder(Context context) {}
+		public Builder setMessage(CharSequence message) { return this; }
+		public Builder setCancelable(boolean cancelable) { return this; }
+		public Builder setPositiveButton(CharSequence text, DialogInterface.OnClickListener listener) { return this; }
+		public Builder setNegativeButton(CharSequence text, DialogInterface.OnClickListener listener) { return this; }
+		public AlertDialog create() { return new AlertDialog(); }
+	}
+
+}
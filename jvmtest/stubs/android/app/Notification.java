@@ -0,0 +1,23 @@
+package android.app;
+
+import android.content.Context;
+
+/** Compile-time stand-in */
+public class Notification {
+
+	public static final int FLAG_ONGOING_EVENT = 0x02;
+	public static final int FLAG_ONLY_ALERT_ONCE = 0x08;
+	public static final int FLAG_NO_CLEAR = 0x20;
+
+	public int icon;
+	public CharSequence tickerText;
+	public long when;
+	public int flags;
+	public PendingIntent contentIntent;
+
+	public Notification() {}
+	public Notification(int icon, CharSequence tickerText, long when) {}
+
+	public void setLatestEventInfo(Context context, CharSequence contentTitle, CharSequence contentText, PendingIntent contentIntent) {}
+
+}
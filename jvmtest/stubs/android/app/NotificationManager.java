@@ -0,0 +1,9 @@
+package android.app;
+
+/** Compile-time stand-in */
+public class NotificationManager {
+
+	public void notify(int id, Notification notification) {}
+	public void cancel(int id) {}
+
+}
@@ -0,0 +1,14 @@
+package android.app;
+
+import android.content.Context;
+import android.content.Intent;
+
+/** Compile-time stand-in */
+public final class PendingIntent {
+
+	public static final int FLAG_CANCEL_CURRENT = 1 << 28;
+	public static final int FLAG_UPDATE_CURRENT = 1 << 27;
+
+	public static PendingIntent getActivity(Context context, int requestCode, Intent intent, int flags) { return null; }
+
+}
@@ -0,0 +1,26 @@
+package android.app;
+
+import android.content.ContextWrapper;
+import android.content.Intent;
+import android.os.IBinder;
+
+/** Compile-time stand-in */
+public abstract class Service extends ContextWrapper {
+
+	public static final int START_STICKY = 1;
+	public static final int START_NOT_STICKY = 2;
+
+	public void onCreate() {}
+	public void onStart(Intent intent, int startId) {}
+	public int onStartCommand(Intent intent, int flags, int startId) { return START_STICKY; }
+	public void onDestroy() {}
+	public abstract IBinder onBind(Intent intent);
+	public boolean onUnbind(Intent intent) { return false; }
+	public void onRebind(Intent intent) {}
+
+	public final void startForeground(int id, Notification notification) {}
+	public final void stopForeground(boolean removeNotification) {}
+	public final void stopSelf() {}
+	public final boolean stopSelfResult(int startId) { return false; }
+
+}
@@ -0,0 +1,5 @@
+package android.content;
+
+/** Compile-time stand-in */
+public final class ComponentName {
+}
@@ -0,0 +1,30 @@
+package android.content;
+
+import java.io.File;
+
+import android.content.res.Resources;
+
+/** Compile-time stand-in */
+public abstract class Context {
+
+	public static final int MODE_PRIVATE = 0;
+	public static final int BIND_AUTO_CREATE = 1;
+	public static final String NOTIFICATION_SERVICE = "notification";
+
+	public abstract Context getApplicationContext();
+	public abstract Resources getResources();
+	public abstract ContentResolver getContentResolver();
+	public abstract Object getSystemService(String name);
+	public abstract SharedPreferences getSharedPreferences(String name, int mode);
+	public abstract File getFilesDir();
+	public abstract Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter);
+	public abstract void unregisterReceiver(BroadcastReceiver receiver);
+	public abstract ComponentName startService(Intent service);
+	public abstract boolean stopService(Intent service);
+	public abstract boolean bindService(Intent service, ServiceConnection conn, int flags);
+	public abstract void unbindService(ServiceConnection conn);
+
+	public final String getString(int resId) { return getResources().getString(resId); }
+	public final String getString(int resId, Object... formatArgs) { return getResources().getString(resId, formatArgs); }
+
+}
@@ -0,0 +1,23 @@
+package android.content;
+
+import java.io.File;
+
+import android.content.res.Resources;
+
+/** Compile-time stand-in (a context with no resources, files or services) */
+public class ContextWrapper extends Context {
+
+	public Context getApplicationContext() { return this; }
+	public Resources getResources() { return new Resources(); }
+	public ContentResolver getContentResolver() { return null; }
+	public Object getSystemService(String name) { return null; }
+	public SharedPreferences getSharedPreferences(String name, int mode) { return null; }
+	public File getFilesDir() { return null; }
+	public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) { return null; }
+	public void unregisterReceiver(BroadcastReceiver receiver) {}
+	public ComponentName startService(Intent service) { return null; }
+	public boolean stopService(Intent service) { return false; }
+	public boolean bindService(Intent service, ServiceConnection conn, int flags) { return false; }
+	public void unbindService(ServiceConnection conn) {}
+
+}
@@ -0,0 +1,12 @@
+package android.content;
+
+/** Compile-time stand-in */
+public interface DialogInterface {
+
+	public void cancel();
+
+	public interface OnClickListener {
+		public void onClick(DialogInterface dialog, int which);
+	}
+
+}
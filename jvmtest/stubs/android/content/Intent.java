@@ -0,0 +1,44 @@
+package android.content;
+
+import java.util.HashMap;
+
+/**
+ * JVM stand-in for the Android Intent: keeps its action and extras (so that
+ * broadcasts can be built and handled off-device).
+ */
+public class Intent {
+
+	public static final String ACTION_MAIN = "android.intent.action.MAIN";
+	public static final String ACTION_AIRPLANE_MODE_CHANGED = "android.intent.action.AIRPLANE_MODE";
+	public static final String CATEGORY_HOME = "android.intent.category.HOME";
+	public static final int FLAG_ACTIVITY_SINGLE_TOP = 0x20000000;
+	public static final int FLAG_ACTIVITY_CLEAR_TOP = 0x04000000;
+
+	private String mAction;
+	private final HashMap<String, Object> mExtras = new HashMap<String, Object>();
+
+	public Intent() {}
+	public Intent(String action) { mAction = action; }
+	public Intent(Context packageContext, Class<?> cls) {}
+
+	public String getAction() { return mAction; }
+	public Intent addCategory(String category) { return this; }
+	public Intent setFlags(int flags) { return this; }
+	public Intent addFlags(int flags) { return this; }
+
+	public Intent putExtra(String name, boolean value) { mExtras.put(name, value); return this; }
+	public Intent putExtra(String name, byte[] value) { mExtras.put(name, value); return this; }
+
+	public boolean getBooleanExtra(String name, boolean defaultValue)
+	{
+		Object value = mExtras.get(name);
+		return (value instanceof Boolean) ? (Boolean) value : defaultValue;
+	}
+
+	public byte[] getByteArrayExtra(String name)
+	{
+		Object value = mExtras.get(name);
+		return (value instanceof byte[]) ? (byte[]) value : null;
+	}
+
+}
@@ -0,0 +1,32 @@
+package android.content;
+
+import java.util.ArrayList;
+
+/**
+ * JVM stand-in for the Android IntentFilter: keeps its actions (so that broadcasts
+ * can be matched to receivers off-device).
+ */
+public class IntentFilter {
+
+	private final ArrayList<String> mActions = new ArrayList<String>();
+
+	public IntentFilter() {}
+
+	public IntentFilter(String action)
+	{
+		addAction(action);
+	}
+
+	public final void addAction(String action)
+	{
+		if (!mActions.contains(action)) {
+			mActions.add(action);
+		}
+	}
+
+	public final boolean hasAction(String action)
+	{
+		return (action != null) && mActions.contains(action);
+	}
+
+}
@@ -0,0 +1,11 @@
+package android.content;
+
+import android.os.IBinder;
+
+/** Compile-time stand-in */
+public interface ServiceConnection {
+
+	public void onServiceConnected(ComponentName name, IBinder service);
+	public void onServiceDisconnected(ComponentName name);
+
+}
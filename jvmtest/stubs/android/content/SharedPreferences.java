@@ -0,0 +1,20 @@
+package android.content;
+
+/** Compile-time stand-in */
+public interface SharedPreferences {
+
+	public int getInt(String key, int defValue);
+	public long getLong(String key, long defValue);
+	public boolean getBoolean(String key, boolean defValue);
+	public String getString(String key, String defValue);
+	public Editor edit();
+
+	public interface Editor {
+		public Editor putInt(String key, int value);
+		public Editor putLong(String key, long value);
+		public Editor putBoolean(String key, boolean value);
+		public Editor putString(String key, String value);
+		public boolean commit();
+	}
+
+}
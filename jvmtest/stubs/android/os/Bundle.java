@@ -0,0 +1,5 @@
+package android.os;
+
+/** Compile-time stand-in */
+public class Bundle {
+}
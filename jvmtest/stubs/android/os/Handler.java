@@ -0,0 +1,56 @@
+package android.os;
+
+/**
+ * JVM stand-in for the Android Handler: posts runnables to the queue of a {@link Looper}.
+ */
+public class Handler {
+
+	/** Looper the runnables are posted to */
+	private final Looper mLooper;
+
+	/** Constructor (for the looper of the calling thread) */
+	public Handler()
+	{
+		this(Looper.myLooper());
+	}
+
+	/** Constructor */
+	public Handler(Looper looper)
+	{
+		if (looper == null) {
+			throw new RuntimeException("Can't create handler inside thread that has not called Looper.prepare()");
+		}
+		mLooper = looper;
+	}
+
+	/** Get the looper */
+	public final Looper getLooper()
+	{
+		return mLooper;
+	}
+
+	/** Run a runnable on the looper thread */
+	public final boolean post(Runnable r)
+	{
+		return postDelayed(r, 0);
+	}
+
+	/** Run a runnable on the looper thread, after a delay (ms) */
+	public final boolean postDelayed(Runnable r, long delayMillis)
+	{
+		return mLooper.enqueue(this, r, mLooper.uptimeMillis() + Math.max(delayMillis, 0));
+	}
+
+	/** Run a runnable on the looper thread, at a time (the looper's virtual time, ms) */
+	public final boolean postAtTime(Runnable r, long uptimeMillis)
+	{
+		return mLooper.enqueue(this, r, uptimeMillis);
+	}
+
+	/** Remove the pending posts of a runnable */
+	public final void removeCallbacks(Runnable r)
+	{
+		mLooper.remove(this, r);
+	}
+
+}
@@ -0,0 +1,6 @@
+package android.os;
+
+/** Compile-time stand-in */
+public interface IInterface {
+	public IBinder asBinder();
+}
@@ -0,0 +1,205 @@
+package android.os;
+
+import java.util.ArrayList;
+
+/**
+ * JVM stand-in for the Android Looper: a queue of runnables per thread, run in
+ * time order when the test runs the queue.
+ *
+ * Time is virtual: it starts at 0 and only moves forward as the queue is run
+ * (runDue, idleFor, runToEndOfTasks), so delayed work runs without waiting.
+ */
+public final class Looper {
+
+	/** Looper of each thread */
+	private static final ThreadLocal<Looper> sThreadLocal = new ThreadLocal<Looper>();
+
+	/** Main looper */
+	private static volatile Looper sMainLooper;
+
+	/** A queued runnable */
+	private static class Task {
+		final Handler handler;
+		final Runnable runnable;
+		final long when;
+		final long sequence;
+
+		Task(Handler handler, Runnable runnable, long when, long sequence)
+		{
+			this.handler = handler;
+			this.runnable = runnable;
+			this.when = when;
+			this.sequence = sequence;
+		}
+	}
+
+	/** Thread of the looper */
+	private final Thread mThread = Thread.currentThread();
+
+	/** Queued runnables (any thread may post) */
+	private final ArrayList<Task> mTasks = new ArrayList<Task>();
+
+	/** Virtual time (ms) */
+	private long mTime = 0;
+
+	/** Sequence number of the next task (keeps tasks due at the same time in order) */
+	private long mSequence = 0;
+
+	private Looper()
+	{
+	}
+
+	/** Prepare a looper for the calling thread */
+	public static void prepare()
+	{
+		if (sThreadLocal.get() != null) {
+			throw new RuntimeException("Only one Looper may be created per thread");
+		}
+		sThreadLocal.set(new Looper());
+	}
+
+	/** Prepare a looper for the calling thread, as the main looper */
+	public static void prepareMainLooper()
+	{
+		prepare();
+		sMainLooper = myLooper();
+	}
+
+	/** Get the looper of the calling thread (null if none) */
+	public static Looper myLooper()
+	{
+		return sThreadLocal.get();
+	}
+
+	/** Get the main looper */
+	public static Looper getMainLooper()
+	{
+		return sMainLooper;
+	}
+
+	/** Get the thread of the looper */
+	public Thread getThread()
+	{
+		return mThread;
+	}
+
+	/** Discard the queued runnables, and detach the looper from its thread */
+	public void quit()
+	{
+		synchronized (mTasks) {
+			mTasks.clear();
+		}
+		if (sThreadLocal.get() == this) {
+			sThreadLocal.remove();
+		}
+		if (sMainLooper == this) {
+			sMainLooper = null;
+		}
+	}
+
+	/** Get the virtual time (ms) */
+	public long uptimeMillis()
+	{
+		synchronized (mTasks) {
+			return mTime;
+		}
+	}
+
+	/** Get the number of queued runnables */
+	public int getQueuedCount()
+	{
+		synchronized (mTasks) {
+			return mTasks.size();
+		}
+	}
+
+	/** Get the time the next runnable is due (the virtual time, ms; Long.MAX_VALUE if none) */
+	public long getNextTaskTime()
+	{
+		long next = Long.MAX_VALUE;
+		synchronized (mTasks) {
+			for (Task task : mTasks) {
+				next = Math.min(next, task.when);
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * Run the runnables due now (including any they post for now).
+	 * @return the number of runnables run
+	 */
+	public int runDue()
+	{
+		return runUntil(uptimeMillis());
+	}
+
+	/**
+	 * Move the virtual time forward, running the runnables as they fall due.
+	 * @return the number of runnables run
+	 */
+	public int idleFor(long millis)
+	{
+		return runUntil(uptimeMillis() + millis);
+	}
+
+	/**
+	 * Run all queued runnables (including delayed ones, and any they post),
+	 * moving the virtual time forward to each.
+	 * @return the number of runnables run
+	 */
+	public int runToEndOfTasks()
+	{
+		return runUntil(Long.MAX_VALUE);
+	}
+
+	boolean enqueue(Handler handler, Runnable runnable, long when)
+	{
+		synchronized (mTasks) {
+			mTasks.add(new Task(handler, runnable, when, mSequence++));
+		}
+		return true;
+	}
+
+	void remove(Handler handler, Runnable runnable)
+	{
+		synchronized (mTasks) {
+			for (int i = mTasks.size() - 1; i >= 0; i--) {
+				Task task = mTasks.get(i);
+				if ((task.handler == handler) && (task.runnable == runnable)) {
+					mTasks.remove(i);
+				}
+			}
+		}
+	}
+
+	/** Run the runnables due up to a time, then move the virtual time to it */
+	private int runUntil(long time)
+	{
+		int count = 0;
+
+		while (true) {
+			Task next = null;
+			synchronized (mTasks) {
+				for (Task task : mTasks) {
+					if ((task.when <= time) && ((next == null) || (task.when < next.when)
+							|| ((task.when == next.when) && (task.sequence < next.sequence)))) {
+						next = task;
+					}
+				}
+				if (next == null) {
+					if (time != Long.MAX_VALUE) {
+						mTime = Math.max(mTime, time);
+					}
+					return count;
+				}
+				mTasks.remove(next);
+				mTime = Math.max(mTime, next.when);
+			}
+
+			next.runnable.run();
+			count++;
+		}
+	}
+
+}
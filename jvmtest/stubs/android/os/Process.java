@@ -0,0 +1,15 @@
+package android.os;
+
+/**
+ * JVM stand-in for the Android Process (thread priorities are left to the JVM).
+ */
+public class Process {
+
+	public static final int THREAD_PRIORITY_DEFAULT = 0;
+	public static final int THREAD_PRIORITY_BACKGROUND = 10;
+
+	public static void setThreadPriority(int priority)
+	{
+	}
+
+}
@@ -0,0 +1,27 @@
+package android.os;
+
+/**
+ * JVM stand-in for the Android SystemClock (monotonic; "boot" is when the class is loaded).
+ */
+public final class SystemClock {
+
+	/** Time of the "boot" (ns) */
+	private static final long BOOT_NANOS = System.nanoTime();
+
+	private SystemClock()
+	{
+	}
+
+	/** Time since boot, including sleep (ms) */
+	public static long elapsedRealtime()
+	{
+		return (System.nanoTime() - BOOT_NANOS) / 1000000;
+	}
+
+	/** Time since boot, not counting sleep (ms) */
+	public static long uptimeMillis()
+	{
+		return elapsedRealtime();
+	}
+
+}
@@ -0,0 +1,16 @@
+package android.provider;
+
+import android.content.ContentResolver;
+
+/** Compile-time stand-in */
+public final class Settings {
+
+	public static final class System {
+		public static final String AIRPLANE_MODE_ON = "airplane_mode_on";
+		public static final String AIRPLANE_MODE_RADIOS = "airplane_mode_radios";
+
+		public static String getString(ContentResolver resolver, String name) { return null; }
+		public static int getInt(ContentResolver resolver, String name, int def) { return def; }
+	}
+
+}
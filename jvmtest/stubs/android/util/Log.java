@@ -0,0 +1,79 @@
+package android.util;
+
+/**
+ * JVM stand-in for the Android Log: writes to the standard error stream.
+ * Only warnings and errors are written, unless the system property
+ * "android.log.level" is set lower (e.g. to 3 for debug).
+ */
+public final class Log {
+
+	public static final int VERBOSE = 2;
+	public static final int DEBUG = 3;
+	public static final int INFO = 4;
+	public static final int WARN = 5;
+	public static final int ERROR = 6;
+
+	/** Lowest priority written */
+	private static final int LEVEL = Integer.getInteger("android.log.level", WARN);
+
+	/** Priority letters (by priority) */
+	private static final String LETTERS = "??VDIWE";
+
+	private Log()
+	{
+	}
+
+	public static boolean isLoggable(String tag, int level)
+	{
+		return level >= LEVEL;
+	}
+
+	public static int v(String tag, String msg)
+	{
+		return println(VERBOSE, tag, msg, null);
+	}
+
+	public static int d(String tag, String msg)
+	{
+		return println(DEBUG, tag, msg, null);
+	}
+
+	public static int i(String tag, String msg)
+	{
+		return println(INFO, tag, msg, null);
+	}
+
+	public static int w(String tag, String msg)
+	{
+		return println(WARN, tag, msg, null);
+	}
+
+	public static int w(String tag, String msg, Throwable tr)
+	{
+		return println(WARN, tag, msg, tr);
+	}
+
+	public static int e(String tag, String msg)
+	{
+		return println(ERROR, tag, msg, null);
+	}
+
+	public static int e(String tag, String msg, Throwable tr)
+	{
+		return println(ERROR, tag, msg, tr);
+	}
+
+	private static int println(int priority, String tag, String msg, Throwable tr)
+	{
+		if (priority < LEVEL) {
+			return 0;
+		}
+
+		System.err.println(LETTERS.charAt(priority) + "/" + tag + ": " + msg);
+		if (tr != null) {
+			tr.printStackTrace();
+		}
+		return msg.length();
+	}
+
+}
@@ -0,0 +1,22 @@
+package android.view;
+
+/** Compile-time stand-in */
+public class View {
+
+	public static final int VISIBLE = 0;
+
+	public interface OnClickListener {
+		public void onClick(View v);
+	}
+
+	public interface OnLongClickListener {
+		public boolean onLongClick(View v);
+	}
+
+	public int getId() { return 0; }
+	public boolean isShown() { return false; }
+	public View findViewById(int id) { return null; }
+	public void setOnClickListener(OnClickListener l) {}
+	public void setOnLongClickListener(OnLongClickListener l) {}
+
+}
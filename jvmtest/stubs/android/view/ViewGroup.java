@@ -0,0 +1,9 @@
+package android.view;
+
+/** Compile-time stand-in */
+public abstract class ViewGroup extends View {
+
+	public int indexOfChild(View child) { return -1; }
+	public View getChildAt(int index) { return null; }
+
+}
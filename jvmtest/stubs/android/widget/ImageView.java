@@ -0,0 +1,10 @@
+package android.widget;
+
+import android.view.View;
+
+/** Compile-time stand-in */
+public class ImageView extends View {
+
+	public void setImageResource(int resId) {}
+
+}
@@ -0,0 +1,11 @@
+package android.widget;
+
+import android.view.View;
+
+/** Compile-time stand-in */
+public class TextView extends View {
+
+	public CharSequence getText() { return ""; }
+	public final void setText(CharSequence text) {}
+
+}
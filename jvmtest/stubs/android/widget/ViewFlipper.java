@@ -0,0 +1,14 @@
+package android.widget;
+
+import android.content.Context;
+import android.view.ViewGroup;
+
+/** Compile-time stand-in */
+public class ViewFlipper extends ViewGroup {
+
+	public int getDisplayedChild() { return 0; }
+	public void setDisplayedChild(int whichChild) {}
+	public void setInAnimation(Context context, int resourceID) {}
+	public void setOutAnimation(Context context, int resourceID) {}
+
+}
@@ -0,0 +1,181 @@
+package com.dsi.ant;
+
+import android.content.Context;
+
+import com.dsi.ant.exception.AntInterfaceException;
+import com.dsi.ant.exception.AntServiceNotConnectedException;
+
+/**
+ * JVM stand-in for the ANT library's interface to the ANT Radio Service (built
+ * ahead of antlib, which needs the service).
+ *
+ * With no radio plugged in, the service never connects and every command fails,
+ * as antlib does off-device. With one, the service is connected, ANT is enabled
+ * and the interface claimed, and each command is sent to the radio as its ANT
+ * message (the radio answers with broadcasts to the app's receivers).
+ */
+public class AntInterface {
+
+	/** A simulated ANT radio */
+	public interface Radio {
+		/** Handle a command: an ANT message (length, message ID, then the data) */
+		void transmit(byte[] message);
+	}
+
+	public interface ServiceListener {
+		void onServiceConnected();
+		void onServiceDisconnected();
+	}
+
+	/** Radio the commands are sent to (null if none) */
+	private static volatile Radio sRadio;
+
+	/** Plug in the radio (null to unplug it) */
+	public static void setRadio(Radio radio)
+	{
+		sRadio = radio;
+	}
+
+	public static AntInterface getInstance(Context context, ServiceListener listener)
+	{
+		AntInterface antInterface = new AntInterface();
+		antInterface.initService(context, listener);
+		return antInterface;
+	}
+
+	public static void goToMarket(Context context) {}
+	public static void goToMarket(Context context, String search) {}
+
+	public static boolean hasAntSupport(Context context)
+	{
+		return sRadio != null;
+	}
+
+	public boolean initService(Context context, ServiceListener listener)
+	{
+		return sRadio != null;
+	}
+
+	public void releaseService() {}
+
+	public boolean isServiceConnected()
+	{
+		return sRadio != null;
+	}
+
+	public boolean destroy()
+	{
+		return true;
+	}
+
+	public void enable() throws AntInterfaceException { getRadio(); }
+	public void disable() throws AntInterfaceException { getRadio(); }
+	public boolean isEnabled() throws AntInterfaceException { getRadio(); return true; }
+
+	public boolean claimInterface() throws AntInterfaceException { getRadio(); return true; }
+	public boolean releaseInterface() throws AntInterfaceException { getRadio(); return true; }
+	public boolean requestForceClaimInterface(String appName) throws AntInterfaceException { getRadio(); return true; }
+	public boolean stopRequestForceClaimInterface() throws AntInterfaceException { getRadio(); return true; }
+	public boolean hasClaimedInterface() throws AntInterfaceException { getRadio(); return true; }
+
+	public void ANTTxMessage(byte[] message) throws AntInterfaceException
+	{
+		getRadio().transmit(message.clone());
+	}
+
+	public void ANTUnassignChannel(byte channel) throws AntInterfaceException
+	{
+		send(AntMesg.MESG_UNASSIGN_CHANNEL_ID, channel);
+	}
+
+	public void ANTAssignChannel(byte channel, byte channelType, byte networkNumber) throws AntInterfaceException
+	{
+		send(AntMesg.MESG_ASSIGN_CHANNEL_ID, channel, channelType, networkNumber);
+	}
+
+	public void ANTSetChannelId(byte channel, short deviceNumber, byte deviceType, byte txType) throws AntInterfaceException
+	{
+		send(AntMesg.MESG_CHANNEL_ID_ID, channel, (byte) deviceNumber, (byte) (deviceNumber >> 8), deviceType, txType);
+	}
+
+	public void ANTSetChannelPeriod(byte channel, short period) throws AntInterfaceException
+	{
+		send(AntMesg.MESG_CHANNEL_MESG_PERIOD_ID, channel, (byte) period, (byte) (period >> 8));
+	}
+
+	public void ANTSetChannelSearchTimeout(byte channel, byte searchTimeout) throws AntInterfaceException
+	{
+		send(AntMesg.MESG_CHANNEL_SEARCH_TIMEOUT_ID, channel, searchTimeout);
+	}
+
+	public void ANTSetChannelRFFreq(byte channel, byte radioFrequency) throws AntInterfaceException
+	{
+		send(AntMesg.MESG_CHANNEL_RADIO_FREQ_ID, channel, radioFrequency);
+	}
+
+	public void ANTSetLowPriorityChannelSearchTimeout(byte channel, byte searchTimeout) throws AntInterfaceException
+	{
+		send(AntMesg.MESG_SET_LP_SEARCH_TIMEOUT_ID, channel, searchTimeout);
+	}
+
+	public void ANTSetProximitySearch(byte channel, byte searchThreshold) throws AntInterfaceException
+	{
+		send(AntMesg.MESG_PROX_SEARCH_CONFIG_ID, channel, searchThreshold);
+	}
+
+	public void ANTResetSystem() throws AntInterfaceException
+	{
+		send(AntMesg.MESG_SYSTEM_RESET_ID, (byte) 0);
+	}
+
+	public void ANTOpenChannel(byte channel) throws AntInterfaceException
+	{
+		send(AntMesg.MESG_OPEN_CHANNEL_ID, channel);
+	}
+
+	public void ANTCloseChannel(byte channel) throws AntInterfaceException
+	{
+		send(AntMesg.MESG_CLOSE_CHANNEL_ID, channel);
+	}
+
+	public void ANTRequestMessage(byte channel, byte messageId) throws AntInterfaceException
+	{
+		send(AntMesg.MESG_REQUEST_ID, channel, messageId);
+	}
+
+	public void ANTConfigEventBuffering(short screenOnFlushTimerInterval, short screenOnFlushBufferThreshold,
+			short screenOffFlushTimerInterval, short screenOffFlushBufferThreshold) throws AntInterfaceException
+	{
+		send(AntMesg.MESG_EVENT_BUFFERING_CONFIG_ID, (byte) 0,
+				(byte) screenOnFlushTimerInterval, (byte) (screenOnFlushTimerInterval >> 8),
+				(byte) screenOnFlushBufferThreshold, (byte) (screenOnFlushBufferThreshold >> 8),
+				(byte) screenOffFlushTimerInterval, (byte) (screenOffFlushTimerInterval >> 8),
+				(byte) screenOffFlushBufferThreshold, (byte) (screenOffFlushBufferThreshold >> 8));
+	}
+
+	public void ANTDisableEventBuffering() throws AntInterfaceException
+	{
+		ANTConfigEventBuffering((short) 0xFFFF, (short) 0, (short) 0xFFFF, (short) 0);
+	}
+
+	/** Get the radio, if the service is connected */
+	private static Radio getRadio() throws AntServiceNotConnectedException
+	{
+		Radio radio = sRadio;
+		if (radio == null) {
+			throw new AntServiceNotConnectedException();
+		}
+		return radio;
+	}
+
+	/** Send a command to the radio */
+	private static void send(byte messageId, byte... data) throws AntInterfaceException
+	{
+		byte[] message = new byte[data.length + 2];
+		message[AntMesg.MESG_SIZE_OFFSET] = (byte) data.length;
+		message[AntMesg.MESG_ID_OFFSET] = messageId;
+		System.arraycopy(data, 0, message, AntMesg.MESG_DATA_OFFSET, data.length);
+		getRadio().transmit(message);
+	}
+
+}
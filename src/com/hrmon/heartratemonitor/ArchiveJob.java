@@ -0,0 +1,35 @@
+package com.hrmon.heartratemonitor;
+
+import java.io.IOException;
+
+/**
+ * Background job writing a completed session to the archive.
+ */
+class ArchiveJob extends BackgroundJob {
+
+	/** Archive */
+	private final SessionArchive mArchive;
+
+	/** Session to archive (a stopped snapshot) */
+	private final SessionData mSession;
+
+	/**
+	 * Constructor
+	 */
+	ArchiveJob(SessionArchive archive, SessionData session)
+	{
+		super("Archive " + session.getStartTimestamp());
+
+		mArchive = archive;
+		mSession = session;
+	}
+
+	@Override
+	protected void execute() throws Exception
+	{
+		if ((mArchive.archive(mSession) == null) && (mSession.getBeatCount() > 0)) {
+			throw new IOException("Could not archive session " + mSession.getStartTimestamp());
+		}
+	}
+
+}
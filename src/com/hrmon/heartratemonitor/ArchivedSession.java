@@ -0,0 +1,245 @@
+package com.hrmon.heartratemonitor;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read-only view of an archived session.
+ *
+ * Samples are decoded from the session file a page at a time, on demand, and
+ * the decoded pages are kept in an LRU cache bounded by size, so that memory
+ * use does not depend on the length of the session.
+ */
+public class ArchivedSession implements SampleSource {
+
+	/** Number of samples in a page */
+	static final int PAGE_SAMPLES = 1024;
+
+	/** Approximate heap cost of a decoded sample (boxed time and value) */
+	private static final int DECODED_SAMPLE_SIZE = 40;
+
+	/** Default page cache size (bytes) */
+	public static final long DEFAULT_CACHE_BYTES = 1024 * 1024;
+
+	/** Summary of the session */
+	private final SessionSummary mSummary;
+
+	/** Session file */
+	private final FileInputStream mStream;
+	private final FileChannel mChannel;
+
+	/** Sample count of each series */
+	private final int[] mCounts = new int[SERIES_COUNT];
+
+	/** File offset of each series */
+	private final long[] mOffsets = new long[SERIES_COUNT];
+
+	/** Page read buffer */
+	private final ByteBuffer mBuffer = ByteBuffer.allocate(PAGE_SAMPLES * SessionArchive.SAMPLE_SIZE);
+
+	/** Decoded pages (least recently used first) */
+	private final LinkedHashMap<Long, TimestampedArray<Integer>> mPages =
+			new LinkedHashMap<Long, TimestampedArray<Integer>>(16, 0.75f, true);
+
+	/** Page cache budget and usage (bytes) */
+	private final long mCacheLimit;
+	private long mCacheSize = 0;
+
+	/**
+	 * Constructor
+	 */
+	ArchivedSession(SessionSummary summary, File file, long cacheLimit) throws IOException
+	{
+		mSummary = summary;
+		mCacheLimit = cacheLimit;
+		mStream = new FileInputStream(file);
+		mChannel = mStream.getChannel();
+
+		try {
+			ByteBuffer header = ByteBuffer.allocate(SessionArchive.HEADER_SIZE);
+			read(header, 0);
+
+			if ((header.getInt() != SessionArchive.MAGIC) || (header.getInt() != SessionArchive.VERSION)) {
+				throw new IOException("Unrecognised session file");
+			}
+
+			// Start time and duration are kept in the summary
+			header.getLong();
+			header.getLong();
+
+			long offset = SessionArchive.HEADER_SIZE;
+			for (int i = 0; i < SERIES_COUNT; i++) {
+				mCounts[i] = header.getInt();
+				mOffsets[i] = offset;
+				offset += (long) mCounts[i] * SessionArchive.SAMPLE_SIZE;
+			}
+		} catch (IOException e) {
+			mStream.close();
+			throw e;
+		}
+	}
+
+	/** Get the summary */
+	public SessionSummary getSummary()
+	{
+		return mSummary;
+	}
+
+	/** Get the starting wall clock time */
+	@Override
+	public long getStartTime()
+	{
+		return mSummary.getStartTime();
+	}
+
+	/** Get the duration */
+	@Override
+	public long getDuration()
+	{
+		return mSummary.getDuration();
+	}
+
+	/** Get the number of samples in a series */
+	@Override
+	public int size(int series)
+	{
+		return mCounts[series];
+	}
+
+	/** Get the time of a sample */
+	public synchronized long getTime(int series, int index) throws IOException
+	{
+		if (index < mCounts[series]) {
+			return getPage(series, index / PAGE_SAMPLES).getTime(index % PAGE_SAMPLES);
+		}
+
+		return 0;
+	}
+
+	/** Get the value of a sample */
+	public synchronized int get(int series, int index) throws IOException
+	{
+		if (index < mCounts[series]) {
+			return getPage(series, index / PAGE_SAMPLES).get(index % PAGE_SAMPLES);
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Find the index of the first sample at or after a time.
+	 * @return the index, or the series size if there is none
+	 */
+	public synchronized int indexOf(int series, long time) throws IOException
+	{
+		int low = 0;
+		int high = mCounts[series];
+
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (getTime(series, mid) < time) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		return low;
+	}
+
+	/**
+	 * Stream the samples of a series within a time range through a visitor.
+	 * @param from    start time (inclusive)
+	 * @param to      end time (exclusive)
+	 */
+	public synchronized void visit(int series, long from, long to, SampleVisitor visitor) throws IOException
+	{
+		int count = mCounts[series];
+
+		for (int index = indexOf(series, from); index < count; ) {
+			TimestampedArray<Integer> page = getPage(series, index / PAGE_SAMPLES);
+			int pageSize = page.size();
+
+			for (int i = index % PAGE_SAMPLES; i < pageSize; i++, index++) {
+				long time = page.getTime(i);
+				if (time >= to) {
+					return;
+				}
+				visitor.visit(time, page.get(i));
+			}
+		}
+	}
+
+	/** Stream all samples of a series through a visitor */
+	@Override
+	public void visit(int series, SampleVisitor visitor) throws IOException
+	{
+		visit(series, Long.MIN_VALUE, Long.MAX_VALUE, visitor);
+	}
+
+	/** Close the session file and release the cached pages */
+	public synchronized void close() throws IOException
+	{
+		mPages.clear();
+		mCacheSize = 0;
+		mStream.close();
+	}
+
+	/** Get a decoded page, reading it from the file if not cached */
+	private TimestampedArray<Integer> getPage(int series, int page) throws IOException
+	{
+		Long key = ((long) series << 32) | page;
+		TimestampedArray<Integer> result = mPages.get(key);
+
+		if (result != null) {
+			return result;
+		}
+
+		int first = page * PAGE_SAMPLES;
+		int samples = Math.min(PAGE_SAMPLES, mCounts[series] - first);
+
+		mBuffer.clear();
+		mBuffer.limit(samples * SessionArchive.SAMPLE_SIZE);
+		read(mBuffer, mOffsets[series] + (long) first * SessionArchive.SAMPLE_SIZE);
+
+		result = new TimestampedArray<Integer>();
+		for (int i = 0; i < samples; i++) {
+			long time = mBuffer.getLong();
+			result.add(mBuffer.getInt(), time);
+		}
+
+		// Make room for the new page
+		long pageSize = (long) samples * DECODED_SAMPLE_SIZE;
+		Iterator<Map.Entry<Long, TimestampedArray<Integer>>> eldest = mPages.entrySet().iterator();
+		while ((mCacheSize + pageSize > mCacheLimit) && eldest.hasNext()) {
+			mCacheSize -= (long) eldest.next().getValue().size() * DECODED_SAMPLE_SIZE;
+			eldest.remove();
+		}
+
+		mPages.put(key, result);
+		mCacheSize += pageSize;
+
+		return result;
+	}
+
+	/** Fill a buffer from the session file, starting at a position */
+	private void read(ByteBuffer buffer, long position) throws IOException
+	{
+		while (buffer.hasRemaining()) {
+			int read = mChannel.read(buffer, position);
+			if (read < 0) {
+				throw new EOFException();
+			}
+			position += read;
+		}
+		buffer.flip();
+	}
+
+}
@@ -0,0 +1,163 @@
+package com.hrmon.heartratemonitor;
+
+/**
+ * A unit of heavy work (e.g. export, archiving) run by the {@link JobExecutor}.
+ *
+ * Jobs report their progress and check for cancellation as they go; the
+ * listener is always called on the thread that created the executor.
+ */
+public abstract class BackgroundJob {
+
+	/**
+	 * The possible job states.
+	 */
+	public enum JobState
+	{
+		/** Waiting in the work queue */
+		QUEUED,
+
+		/** Running on the worker thread */
+		RUNNING,
+
+		/** Completed successfully */
+		FINISHED,
+
+		/** Completed with an error */
+		FAILED,
+
+		/** Cancelled before completion */
+		CANCELLED
+	}
+
+	/**
+	 * Defines the interface needed to work with all call backs this class makes
+	 */
+	public interface Listener
+	{
+		public void notifyJobProgress(BackgroundJob job);
+		public void notifyJobFinished(BackgroundJob job);
+	}
+
+	/** Job name (for logging) */
+	private final String mName;
+
+	/** Current state */
+	private volatile JobState mState = JobState.QUEUED;
+
+	/** Current progress (percent) */
+	private volatile int mProgress = 0;
+
+	/** Cancellation request flag */
+	private volatile boolean mCancelled = false;
+
+	/** Failure cause */
+	private volatile Exception mError;
+
+	/** Listener */
+	private volatile Listener mListener;
+
+	/** Executor running this job */
+	private JobExecutor mExecutor;
+
+	/**
+	 * Constructor
+	 */
+	protected BackgroundJob(String name)
+	{
+		mName = name;
+	}
+
+	public void setListener(Listener listener)
+	{
+		mListener = listener;
+	}
+
+	Listener getListener()
+	{
+		return mListener;
+	}
+
+	/** Get the job name */
+	public String getName()
+	{
+		return mName;
+	}
+
+	/** Get the current state */
+	public JobState getState()
+	{
+		return mState;
+	}
+
+	/** Get the current progress (percent) */
+	public int getProgress()
+	{
+		return mProgress;
+	}
+
+	/** Get the failure cause, if the job failed */
+	public Exception getError()
+	{
+		return mError;
+	}
+
+	/** Request cancellation of the job */
+	public void cancel()
+	{
+		mCancelled = true;
+	}
+
+	/** Check if cancellation has been requested */
+	public boolean isCancelled()
+	{
+		return mCancelled;
+	}
+
+	/**
+	 * Report progress (called from the worker thread).
+	 * Listeners are only notified when the percentage changes.
+	 */
+	protected void setProgress(long done, long total)
+	{
+		int progress = (total > 0) ? (int) ((100 * done) / total) : 0;
+
+		if (progress != mProgress) {
+			mProgress = progress;
+			mExecutor.postProgress(this);
+		}
+	}
+
+	/** Do the work (called from the worker thread) */
+	protected abstract void execute() throws Exception;
+
+	/** Run the job on the worker thread */
+	void run(JobExecutor executor)
+	{
+		mExecutor = executor;
+
+		if (mCancelled) {
+			mState = JobState.CANCELLED;
+			return;
+		}
+
+		mState = JobState.RUNNING;
+
+		try {
+			execute();
+			mState = mCancelled ? JobState.CANCELLED : JobState.FINISHED;
+			if (mState == JobState.FINISHED) {
+				mProgress = 100;
+			}
+		} catch (Exception e) {
+			mError = e;
+			mState = mCancelled ? JobState.CANCELLED : JobState.FAILED;
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return mName + " (" + mState + ", " + mProgress + "%)";
+	}
+
+}
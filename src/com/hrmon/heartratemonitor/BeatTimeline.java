@@ -0,0 +1,112 @@
+package com.hrmon.heartratemonitor;
+
+/**
+ * Reconstructs the time of each heart beat from the sensor's beat times
+ * (16 bit, 1/1024 s), so that the beat series does not depend on when the
+ * messages carrying the beats arrived or were handled.
+ *
+ * The beat clock is anchored to the time of the first beat's message, then
+ * the beat times are accumulated (accounting for rollover every 64 s). The
+ * anchor is moved back whenever a beat would otherwise be timed after the
+ * message reporting it, so it converges on the least delayed message.
+ * The reconstructed times never decrease.
+ */
+class BeatTimeline {
+
+	/** Beat time ticks per second */
+	static final int TICKS_PER_SECOND = 1024;
+
+	/** Beat time range (ticks) */
+	private static final long BEAT_TIME_RANGE = 0x10000;
+
+	/** Maximum lag of a beat behind its message before the timeline is re-anchored (ms) */
+	private static final long MAX_LAG_MILLISEC = 5000;
+
+	/** Flag indicating that the timeline is anchored */
+	private boolean mAnchored = false;
+
+	/** Anchor (ms) */
+	private long mAnchorTime;
+
+	/** Ticks accumulated since the anchor */
+	private long mTicks;
+
+	/** Last beat time (ticks) and the time of its message (ms) */
+	private int mLastBeatTime;
+	private long mLastMessageTime;
+
+	/** Last reconstructed beat time (ms) */
+	private long mLastTime;
+
+	/**
+	 * Get the time of a new beat.
+	 * @param beatTime      the beat time reported by the sensor (ticks)
+	 * @param messageTime   the time of the message reporting the beat (ms)
+	 * @return the beat time (ms, in the time base of messageTime)
+	 */
+	long toTime(int beatTime, long messageTime)
+	{
+		beatTime &= 0xFFFF;
+
+		if (!mAnchored) {
+			anchor(beatTime, messageTime);
+			mLastTime = messageTime;
+			return messageTime;
+		}
+
+		// Resolve rollover: add the whole ranges elapsed on the message clock (e.g. over a dropout)
+		long delta = (beatTime - mLastBeatTime) & 0xFFFF;
+		long elapsed = ((messageTime - mLastMessageTime) * TICKS_PER_SECOND) / 1000;
+		while ((elapsed - delta) > (BEAT_TIME_RANGE / 2)) {
+			delta += BEAT_TIME_RANGE;
+		}
+
+		mTicks += delta;
+		mLastBeatTime = beatTime;
+		mLastMessageTime = messageTime;
+
+		long time = mAnchorTime + ((mTicks * 1000) / TICKS_PER_SECOND);
+
+		if (time > messageTime) {
+			// Cannot have been reported before it happened; move the anchor back
+			mAnchorTime -= (time - messageTime);
+			time = messageTime;
+		} else if ((messageTime - time) > MAX_LAG_MILLISEC) {
+			// Lost track of the beat clock (e.g. sensor reset)
+			anchor(beatTime, messageTime);
+			time = messageTime;
+		}
+
+		// Keep the series monotonic
+		if (time < mLastTime) {
+			time = mLastTime;
+		}
+		mLastTime = time;
+
+		return time;
+	}
+
+	/** Move the timeline by an offset (ms), as the message times were (e.g. back-dated) */
+	void shift(long offset)
+	{
+		mAnchorTime += offset;
+		mLastMessageTime += offset;
+		mLastTime += offset;
+	}
+
+	/** Forget the anchor (e.g. when the channel is opened) */
+	void reset()
+	{
+		mAnchored = false;
+	}
+
+	private void anchor(int beatTime, long messageTime)
+	{
+		mAnchored = true;
+		mAnchorTime = messageTime;
+		mTicks = 0;
+		mLastBeatTime = beatTime;
+		mLastMessageTime = messageTime;
+	}
+
+}
@@ -0,0 +1,86 @@
+package com.hrmon.heartratemonitor;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Per-channel packet accounting from ANT+ channel data and events.
+ *
+ * Received and dropped packets are accumulated until taken by the consumer
+ * (i.e. they count packets since the last take); search timeouts and returns
+ * to search are cumulative. All counters are lock free.
+ */
+public class ChannelCounters {
+
+	/** Number of ANT channels */
+	public static final int MAX_CHANNELS = 8;
+
+	/** Packets received since the last take */
+	private final AtomicIntegerArray mReceived = new AtomicIntegerArray(MAX_CHANNELS);
+
+	/** Packets dropped (EVENT_RX_FAIL) since the last take */
+	private final AtomicIntegerArray mDropped = new AtomicIntegerArray(MAX_CHANNELS);
+
+	/** Search timeouts (EVENT_RX_SEARCH_TIMEOUT) */
+	private final AtomicIntegerArray mSearchTimeouts = new AtomicIntegerArray(MAX_CHANNELS);
+
+	/** Returns to search after losing the device (EVENT_RX_FAIL_GO_TO_SEARCH) */
+	private final AtomicIntegerArray mGoToSearch = new AtomicIntegerArray(MAX_CHANNELS);
+
+	public void addReceived(byte channel)
+	{
+		if (isValid(channel)) {
+			mReceived.incrementAndGet(channel);
+		}
+	}
+
+	public void addDropped(byte channel)
+	{
+		if (isValid(channel)) {
+			mDropped.incrementAndGet(channel);
+		}
+	}
+
+	public void addSearchTimeout(byte channel)
+	{
+		if (isValid(channel)) {
+			mSearchTimeouts.incrementAndGet(channel);
+		}
+	}
+
+	public void addGoToSearch(byte channel)
+	{
+		if (isValid(channel)) {
+			mGoToSearch.incrementAndGet(channel);
+		}
+	}
+
+	/** Take (get and reset) the packets received on a channel */
+	public int takeReceived(byte channel)
+	{
+		return isValid(channel) ? mReceived.getAndSet(channel, 0) : 0;
+	}
+
+	/** Take (get and reset) the packets dropped on a channel */
+	public int takeDropped(byte channel)
+	{
+		return isValid(channel) ? mDropped.getAndSet(channel, 0) : 0;
+	}
+
+	/** Get the number of search timeouts on a channel */
+	public int getSearchTimeouts(byte channel)
+	{
+		return isValid(channel) ? mSearchTimeouts.get(channel) : 0;
+	}
+
+	/** Get the number of returns to search on a channel */
+	public int getGoToSearch(byte channel)
+	{
+		return isValid(channel) ? mGoToSearch.get(channel) : 0;
+	}
+
+	private static boolean isValid(byte channel)
+	{
+		return (channel >= 0) && (channel < MAX_CHANNELS);
+	}
+
+}
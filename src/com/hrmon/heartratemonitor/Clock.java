@@ -0,0 +1,60 @@
+package com.hrmon.heartratemonitor;
+
+import android.os.SystemClock;
+
+/**
+ * Source of the current time, so that session timing can be replaced (e.g. off-device).
+ *
+ * A clock also gives the timestamps of the session samples: wall clock times that
+ * follow the elapsed realtime from when the first timestamp was taken, so that they
+ * stay consistent even if the user changes the system clock.
+ */
+public abstract class Clock {
+
+	/** Offset of the timestamps from the elapsed realtime (ms), taken on first use */
+	private volatile long mTimestampOffset;
+	private volatile boolean mHasTimestampOffset = false;
+
+	/** Time since boot, including sleep (ms) */
+	public abstract long elapsedRealtime();
+
+	/** Wall clock time (ms) */
+	public abstract long currentTimeMillis();
+
+	/** Get the current timestamp */
+	public long now()
+	{
+		return timeOf(elapsedRealtime());
+	}
+
+	/** Get the timestamp of an elapsed realtime */
+	public long timeOf(long elapsedRealtime)
+	{
+		if (!mHasTimestampOffset) {
+			synchronized (this) {
+				if (!mHasTimestampOffset) {
+					mTimestampOffset = currentTimeMillis() - elapsedRealtime();
+					mHasTimestampOffset = true;
+				}
+			}
+		}
+
+		return mTimestampOffset + elapsedRealtime;
+	}
+
+	/** The system clock */
+	public static final Clock SYSTEM = new Clock() {
+		@Override
+		public long elapsedRealtime()
+		{
+			return SystemClock.elapsedRealtime();
+		}
+
+		@Override
+		public long currentTimeMillis()
+		{
+			return System.currentTimeMillis();
+		}
+	};
+
+}
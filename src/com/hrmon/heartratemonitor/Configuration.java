@@ -0,0 +1,176 @@
+package com.hrmon.heartratemonitor;
+
+import com.hrmon.heartratemonitor.ConnectionManager.ChannelPeriod;
+
+import android.content.SharedPreferences;
+
+/**
+ * Application configuration (ANT+ pairing and channel settings).
+ *
+ * A configuration is never modified: changes make a new one, which replaces
+ * the current one as a whole. It is read from and written to the shared preferences.
+ */
+public class Configuration {
+
+	/** Shared preferences keys */
+	private static final String KEY_DEVICE_NUMBER = "DeviceNumberHRM";
+	private static final String KEY_PROXIMITY_THRESHOLD = "ProximityThreshold";
+	private static final String KEY_BUFFER_THRESHOLD = "BufferThreshold";
+	private static final String KEY_RX_TIMESTAMPS = "RxTimestamps";
+	private static final String KEY_CHANNEL_PERIOD = "ChannelPeriod";
+	private static final String KEY_FAST_SEARCH_TIMEOUT = "FastSearchTimeout";
+
+	/** The default proximity search bin. */
+	private static final byte DEFAULT_BIN = 7;
+
+	/** The default event buffering buffer threshold. */
+	private static final short DEFAULT_BUFFER_THRESHOLD = 0;
+
+	/** The default RX timestamps mode (off: messages are timed when handled). */
+	private static final boolean DEFAULT_RX_TIMESTAMPS = false;
+
+	/** The default channel period profile. */
+	private static final ChannelPeriod DEFAULT_CHANNEL_PERIOD = ChannelPeriod.FULL;
+
+	/** The default high priority search time after a connect (s). */
+	private static final int DEFAULT_FAST_SEARCH_TIMEOUT = 10;
+
+	/** The default configuration (not paired). */
+	public static final Configuration DEFAULT = new Configuration(SessionManager.WILDCARD, DEFAULT_BIN,
+			DEFAULT_BUFFER_THRESHOLD, DEFAULT_RX_TIMESTAMPS, DEFAULT_CHANNEL_PERIOD, DEFAULT_FAST_SEARCH_TIMEOUT);
+
+	/** Paired HRM device number (WILDCARD if not paired) */
+	private final short mDeviceNumber;
+
+	/** Proximity search bin */
+	private final byte mProximityThreshold;
+
+	/** Event buffering buffer threshold (0 for no buffering) */
+	private final short mBufferThreshold;
+
+	/** RX timestamps mode */
+	private final boolean mRxTimestamps;
+
+	/** Channel period profile */
+	private final ChannelPeriod mChannelPeriod;
+
+	/** High priority search time after a connect (s) */
+	private final int mFastSearchTimeout;
+
+	/**
+	 * Constructor
+	 */
+	public Configuration(short deviceNumber, byte proximityThreshold, short bufferThreshold,
+			boolean rxTimestamps, ChannelPeriod channelPeriod, int fastSearchTimeout)
+	{
+		mDeviceNumber = deviceNumber;
+		mProximityThreshold = proximityThreshold;
+		mBufferThreshold = bufferThreshold;
+		mRxTimestamps = rxTimestamps;
+		mChannelPeriod = channelPeriod;
+		mFastSearchTimeout = fastSearchTimeout;
+	}
+
+	/**
+	 * Read a configuration from the shared preferences (defaults for any missing setting).
+	 */
+	public static Configuration read(SharedPreferences settings)
+	{
+		return new Configuration(
+				(short) settings.getInt(KEY_DEVICE_NUMBER, DEFAULT.mDeviceNumber),
+				(byte) settings.getInt(KEY_PROXIMITY_THRESHOLD, DEFAULT.mProximityThreshold),
+				(short) settings.getInt(KEY_BUFFER_THRESHOLD, DEFAULT.mBufferThreshold),
+				settings.getBoolean(KEY_RX_TIMESTAMPS, DEFAULT.mRxTimestamps),
+				ChannelPeriod.of(settings.getInt(KEY_CHANNEL_PERIOD, DEFAULT.mChannelPeriod.getPeriod())),
+				settings.getInt(KEY_FAST_SEARCH_TIMEOUT, DEFAULT.mFastSearchTimeout));
+	}
+
+	/**
+	 * Write the configuration to the shared preferences.
+	 * @return false if it could not be written
+	 */
+	public boolean write(SharedPreferences settings)
+	{
+		SharedPreferences.Editor editor = settings.edit();
+		editor.putInt(KEY_DEVICE_NUMBER, mDeviceNumber);
+		editor.putInt(KEY_PROXIMITY_THRESHOLD, mProximityThreshold);
+		editor.putInt(KEY_BUFFER_THRESHOLD, mBufferThreshold);
+		editor.putBoolean(KEY_RX_TIMESTAMPS, mRxTimestamps);
+		editor.putInt(KEY_CHANNEL_PERIOD, mChannelPeriod.getPeriod());
+		editor.putInt(KEY_FAST_SEARCH_TIMEOUT, mFastSearchTimeout);
+		return editor.commit();
+	}
+
+	/** Copy with another paired device number */
+	public Configuration withDeviceNumber(short deviceNumber)
+	{
+		return new Configuration(deviceNumber, mProximityThreshold, mBufferThreshold, mRxTimestamps, mChannelPeriod, mFastSearchTimeout);
+	}
+
+	/** Copy with another channel period profile */
+	public Configuration withChannelPeriod(ChannelPeriod channelPeriod)
+	{
+		return new Configuration(mDeviceNumber, mProximityThreshold, mBufferThreshold, mRxTimestamps, channelPeriod, mFastSearchTimeout);
+	}
+
+	/** Get the paired HRM device number */
+	public short getDeviceNumber()
+	{
+		return mDeviceNumber;
+	}
+
+	/** Get the proximity search bin */
+	public byte getProximityThreshold()
+	{
+		return mProximityThreshold;
+	}
+
+	/** Get the event buffering buffer threshold */
+	public short getBufferThreshold()
+	{
+		return mBufferThreshold;
+	}
+
+	/** Get the RX timestamps mode */
+	public boolean getRxTimestamps()
+	{
+		return mRxTimestamps;
+	}
+
+	/** Get the channel period profile */
+	public ChannelPeriod getChannelPeriod()
+	{
+		return mChannelPeriod;
+	}
+
+	/** Get the high priority search time after a connect (s) */
+	public int getFastSearchTimeout()
+	{
+		return mFastSearchTimeout;
+	}
+
+	/** Check if two configurations hold the same settings */
+	@Override
+	public boolean equals(Object o)
+	{
+		if (!(o instanceof Configuration)) {
+			return false;
+		}
+
+		Configuration other = (Configuration) o;
+		return (mDeviceNumber == other.mDeviceNumber)
+				&& (mProximityThreshold == other.mProximityThreshold)
+				&& (mBufferThreshold == other.mBufferThreshold)
+				&& (mRxTimestamps == other.mRxTimestamps)
+				&& (mChannelPeriod == other.mChannelPeriod)
+				&& (mFastSearchTimeout == other.mFastSearchTimeout);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return ((((mDeviceNumber * 31 + mProximityThreshold) * 31 + mBufferThreshold) * 31
+				+ (mRxTimestamps ? 1 : 0)) * 31 + mChannelPeriod.hashCode()) * 31 + mFastSearchTimeout;
+	}
+
+}
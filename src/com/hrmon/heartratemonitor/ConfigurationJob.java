@@ -0,0 +1,32 @@
+package com.hrmon.heartratemonitor;
+
+import java.io.IOException;
+
+/**
+ * Background job writing the configuration to its storage.
+ */
+class ConfigurationJob extends BackgroundJob {
+
+	/** Manager holding the configuration */
+	private final SessionManager mManager;
+
+	/**
+	 * Constructor
+	 */
+	ConfigurationJob(SessionManager manager)
+	{
+		super("Save configuration");
+
+		mManager = manager;
+	}
+
+	@Override
+	protected void execute() throws Exception
+	{
+		// Writes the latest configuration, so a late job never overwrites a newer one
+		if (!mManager.writeConfiguration()) {
+			throw new IOException("Could not save the configuration");
+		}
+	}
+
+}
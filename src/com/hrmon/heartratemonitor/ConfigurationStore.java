@@ -0,0 +1,19 @@
+package com.hrmon.heartratemonitor;
+
+/**
+ * Persistent storage of the configuration.
+ */
+public interface ConfigurationStore {
+
+	/**
+	 * Read the stored configuration (defaults for any missing setting).
+	 */
+	public Configuration read();
+
+	/**
+	 * Store a configuration.
+	 * @return false if it could not be stored
+	 */
+	public boolean write(Configuration config);
+
+}
@@ -21,6 +21,7 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.os.Handler;
 import android.provider.Settings;
 import android.util.Log;
 
@@ -45,8 +46,10 @@ public class ConnectionManager {
         public void notifyNewRRData();
         public void notifyNewBPMData();
         public void notifyNewRSSIData(byte channel);
+        public void notifyPacketStatsChanged(byte channel);
         public void notifyChannelStateChanged(byte channel);
         public void notifyChannelDataChanged(byte channel);
+        public void notifyDeviceInfoChanged(byte channel);
     }
 	
 	/** The Log Tag. */
@@ -79,8 +82,44 @@ public class ConnectionManager {
     /** ANT+ device type for an HRM */
     private static final byte HRM_DEVICE_TYPE = 0x78;
     
-    /** ANT+ channel period for an HRM */
-    private static final short HRM_PERIOD = 8070;
+    /**
+     * The HRM channel period (message rate) profiles: power vs. latency.
+     */
+    public enum ChannelPeriod
+    {
+       /** Full rate (8070/32768 s, ~4.06 Hz). */
+       FULL((short) 8070),
+       
+       /** Half rate (16140/32768 s, ~2.03 Hz). */
+       HALF((short) 16140),
+       
+       /** Quarter rate (32280/32768 s, ~1.02 Hz). */
+       QUARTER((short) 32280);
+       
+       private final short mPeriod;
+       
+       private ChannelPeriod(short period)
+       {
+          mPeriod = period;
+       }
+       
+       /** Get the channel period (1/32768 s) */
+       public short getPeriod()
+       {
+          return mPeriod;
+       }
+       
+       /** Get the profile of a channel period (FULL if none matches) */
+       public static ChannelPeriod of(int period)
+       {
+          for (ChannelPeriod profile : values()) {
+             if (profile.mPeriod == period) {
+                return profile;
+             }
+          }
+          return FULL;
+       }
+    }
     
     /** ANT+ lib config flag for extended data with the Channel ID. */
     public static final byte LC_CHANID = (byte) 0x80;
@@ -140,7 +179,7 @@ public class ConnectionManager {
        /** Channel was explicitly closed or has not been opened */
        CLOSED,
        
-       /** User has requested we open the channel, but we are waiting for a reset */
+       /** User has requested we open the channel; waiting for a reset, or being configured */
        PENDING_OPEN,
        
        /** Channel is opened, but we have not received any data yet */
@@ -156,8 +195,142 @@ public class ConnectionManager {
        OFFLINE
     }
 
+    /** Events driving the channel state machine */
+    public enum ChannelEvent
+    {
+       /** Opening the channel was requested (by the user or by reacquisition) */
+       OPEN_REQUESTED,
+       
+       /** The channel configuration completed and the channel is open */
+       CONFIGURED,
+       
+       /** The channel configuration was refused by ANT */
+       CONFIG_FAILED,
+       
+       /** Data was received from the device */
+       DATA_RECEIVED,
+       
+       /** The device was lost and the channel went back to search */
+       SIGNAL_LOST,
+       
+       /** The channel timed out searching (and was closed by ANT) */
+       SEARCH_TIMEOUT,
+       
+       /** The channel stayed too long in a transient state */
+       TIMEOUT,
+       
+       /** Closing the channel was requested */
+       CLOSE_REQUESTED,
+       
+       /** The channel was lost with the radio (disabled, reset, airplane mode, error recovery) */
+       RADIO_LOST
+    }
+    
+    /** Channel state transitions: TRANSITIONS[state][event] is the next state (null: event ignored) */
+    private static final ChannelStates[][] TRANSITIONS =
+          new ChannelStates[ChannelStates.values().length][ChannelEvent.values().length];
+    
+    static
+    {
+       allow(ChannelStates.CLOSED, ChannelEvent.OPEN_REQUESTED, ChannelStates.PENDING_OPEN);
+       allow(ChannelStates.OFFLINE, ChannelEvent.OPEN_REQUESTED, ChannelStates.PENDING_OPEN);
+       allow(ChannelStates.PENDING_OPEN, ChannelEvent.OPEN_REQUESTED, ChannelStates.PENDING_OPEN);
+       allow(ChannelStates.PENDING_OPEN, ChannelEvent.CONFIGURED, ChannelStates.SEARCHING);
+       allow(ChannelStates.PENDING_OPEN, ChannelEvent.CONFIG_FAILED, ChannelStates.OFFLINE);
+       allow(ChannelStates.PENDING_OPEN, ChannelEvent.TIMEOUT, ChannelStates.OFFLINE);
+       allow(ChannelStates.PENDING_OPEN, ChannelEvent.SEARCH_TIMEOUT, ChannelStates.OFFLINE);
+       allow(ChannelStates.SEARCHING, ChannelEvent.DATA_RECEIVED, ChannelStates.TRACKING_DATA);
+       allow(ChannelStates.SEARCHING, ChannelEvent.SEARCH_TIMEOUT, ChannelStates.OFFLINE);
+       allow(ChannelStates.SEARCHING, ChannelEvent.TIMEOUT, ChannelStates.OFFLINE);
+       allow(ChannelStates.TRACKING_STATUS, ChannelEvent.DATA_RECEIVED, ChannelStates.TRACKING_DATA);
+       allow(ChannelStates.TRACKING_STATUS, ChannelEvent.SIGNAL_LOST, ChannelStates.SEARCHING);
+       allow(ChannelStates.TRACKING_STATUS, ChannelEvent.SEARCH_TIMEOUT, ChannelStates.OFFLINE);
+       allow(ChannelStates.TRACKING_DATA, ChannelEvent.DATA_RECEIVED, ChannelStates.TRACKING_DATA);
+       allow(ChannelStates.TRACKING_DATA, ChannelEvent.SIGNAL_LOST, ChannelStates.SEARCHING);
+       allow(ChannelStates.TRACKING_DATA, ChannelEvent.SEARCH_TIMEOUT, ChannelStates.OFFLINE);
+       for (ChannelStates state : ChannelStates.values())
+       {
+          if (state != ChannelStates.CLOSED)
+          {
+             allow(state, ChannelEvent.CLOSE_REQUESTED, ChannelStates.CLOSED);
+             allow(state, ChannelEvent.RADIO_LOST, ChannelStates.CLOSED);
+          }
+       }
+    }
+    
+    private static void allow(ChannelStates state, ChannelEvent event, ChannelStates next)
+    {
+       TRANSITIONS[state.ordinal()][event.ordinal()] = next;
+    }
+    
+    /** Maximum time to reset and configure the channel (ms) */
+    private static final long PENDING_OPEN_TIMEOUT_MILLISEC = 10000;
+    
+    /** Time to keep searching after ANT's own search timeout should have ended the search (ms) */
+    private static final long SEARCHING_TIMEOUT_MARGIN_MILLISEC = 15000;
+    
+    /** ANT's search timeout unit (ms) */
+    private static final long SEARCH_TIMEOUT_UNIT_MILLISEC = 2500;
+    
+    /** First reacquisition delay (ms); doubled on each further attempt */
+    private static final long REACQUIRE_DELAY_MILLISEC = 1000;
+    
+    /** Maximum number of consecutive reacquisition attempts */
+    private static final int MAX_REACQUIRE_ATTEMPTS = 5;
+    
     /** Current state of the HRM channel */
     private ChannelStates mHrmState = ChannelStates.CLOSED;
+    
+    /** Time the current state was entered */
+    private long mStateEnterTime = Instrumentation.now();
+    
+    /** Number of transitions between each pair of states ([from][to]) */
+    private final int[][] mTransitionCounts = new int[ChannelStates.values().length][ChannelStates.values().length];
+    
+    /** Time spent in each state, per visit */
+    private final LatencyHistogram[] mStateTimes = new LatencyHistogram[ChannelStates.values().length];
+    
+    /** Flag indicating that the channel should be reacquired if the device is lost */
+    private boolean mReacquire = false;
+    
+    /** Number of reacquisition attempts since the device was last tracked */
+    private int mReacquireAttempts = 0;
+    
+    /** Flag indicating that a reacquisition attempt has been scheduled */
+    private boolean mReacquirePending = false;
+    
+    /** First wait for the device number after requesting it (ms); doubled on each retry */
+    private static final long ID_REQUEST_TIMEOUT_MILLISEC = 1000;
+    
+    /** Maximum doubling of the device number request timeout (to 16 s) */
+    private static final int MAX_ID_REQUEST_BACKOFF = 4;
+    
+    /** Flag indicating that a device number request is in flight (or about to be sent) */
+    private boolean mIdRequestPending = false;
+    
+    /** Number of device number requests sent since the last response */
+    private int mIdRequestAttempts = 0;
+    
+    /** Handler for the state timeouts and reacquisition (on the creating thread) */
+    private final Handler mHandler = new Handler();
+    
+    /** HRM channel configuration steps, in order, by the response completing each */
+    private static final byte[] CONFIG_STEPS = {
+        AntMesg.MESG_ASSIGN_CHANNEL_ID,
+        AntMesg.MESG_CHANNEL_ID_ID,
+        AntMesg.MESG_CHANNEL_MESG_PERIOD_ID,
+        AntMesg.MESG_CHANNEL_RADIO_FREQ_ID,
+        AntMesg.MESG_CHANNEL_SEARCH_TIMEOUT_ID,
+        AntMesg.MESG_SET_LP_SEARCH_TIMEOUT_ID,
+        AntMesg.MESG_PROX_SEARCH_CONFIG_ID,
+        AntMesg.MESG_OPEN_CHANNEL_ID
+    };
+    
+    /** Value of mConfigStep when the channel is not being configured */
+    private static final int NOT_CONFIGURING = -1;
+    
+    /** Configuration step awaiting its response */
+    private int mConfigStep = NOT_CONFIGURING;
 
     /** HRM Sensor Data Class */
     private class HRMData {
@@ -169,27 +342,45 @@ public class ConnectionManager {
     	public int HardwareVersion;
     	public int SoftwareVersion;
     	public int ModelNumber;
+    	// Pages received (DeviceInfo.PAGE_ flags)
+    	public int Pages;
     	// Default Data
-        public int CurrentBeatCount;
         public int PreviousBeatCount;
-        public int CurrentBeatTime;
         public int PreviousBeatTime;
-        public int RR;
-        public int BPM;
-        public int RSSI;
-        // Stats
-        public int PacketsReceived;
-        public int PacketsDropped;
     }
     
     private HRMData mHRMData;
     
-    /** Flag indicating that opening of the HRM channel was deferred */
-    private boolean mDeferredHrmStart = false;
+    /** The latest decoded HRM message (or dropped message event). */
+    private final HRMFrame mFrame = new HRMFrame();
+    
+    /** Per-channel packet accounting. */
+    private final ChannelCounters mCounters = new ChannelCounters();
+    
+    /** Flag indicating that HRM messages are timed by their RX timestamps. */
+    private boolean mRxTimestamps = false;
+    
+    /** Radio clock of the HRM channel (RX timestamps). */
+    private final RxTimeline mRxTimeline = new RxTimeline();
+    
+    /** Beat clock of the HRM sensor (beat times). */
+    private final BeatTimeline mBeatTimeline = new BeatTimeline();
+    
+    /** HRM channel periods missed since the last received message. */
+    private int mMissedPeriods = 0;
+    
+    /** Flag indicating that the radio has tracked data since it was last reset or failed */
+    private boolean mRadioVerified = false;
     
     /** Devices must be within this bin to be found during (proximity) search. */
     private byte mProximityThreshold;
     
+    /** High priority search time after a connect (s), before falling back to background search; 0 to always search in background */
+    private int mFastSearchTimeout;
+    
+    /** Low priority (background) search timeout, in ANT's 2.5 s units (30 s) */
+    private static final byte BACKGROUND_SEARCH_TIMEOUT = 12;
+    
     /** Channel Configuration Class */
     private class ChannelConfiguration {
         public short deviceNumber;
@@ -198,9 +389,15 @@ public class ConnectionManager {
         public short period;
         public byte freq;
         public byte proxSearch;
+        // Search timeouts, in ANT's 2.5 s units (0 disables that search)
+        public byte searchTimeout;
+        public byte lpSearchTimeout;
+        // High priority search, switched to background search once the device is found
+        public boolean isFastSearch = false;
 
-        public boolean isInitializing = false;
         public boolean isDeinitializing = false;
+        // Configuration sent in one go (fast reconnect), rather than command by command
+        public boolean isPipelined = false;
     }
     
     private ChannelConfiguration mChannelConfig;
@@ -209,6 +406,9 @@ public class ConnectionManager {
     /** Data buffered for event buffering before flush. */
     private short mBufferThreshold;
     
+    /** HRM channel period profile. */
+    private ChannelPeriod mChannelPeriod = ChannelPeriod.FULL;
+    
 	/** Indicates if the application controls the ANT+ interface. */
 	private boolean mClaimedAntInterface;
 	
@@ -218,15 +418,26 @@ public class ConnectionManager {
     /** Callback sink. */
     private Callbacks mCallbackSink;
     
+    /** Data path instrumentation. */
+    private final Instrumentation mInstrumentation;
+    
+    /** Clock timing the HRM messages. */
+    private final Clock mClock;
+    
 	/**
-	 * Default constructor.
+	 * Constructor.
 	 */
-	ConnectionManager() {
+	ConnectionManager(Instrumentation instrumentation, Clock clock) {
 		Log.d(TAG, "ConnectionManager: entering Constructor");
 		
+		mInstrumentation = instrumentation;
+		mClock = clock;
+		
 		// Initial states
-		mDeferredHrmStart = false;
         mHrmState = ChannelStates.CLOSED;
+        for (int i = 0; i < mStateTimes.length; i++) {
+            mStateTimes[i] = new LatencyHistogram();
+        }
         mHRMData = new HRMData();
         mChannelConfig = new ChannelConfiguration();
 		
@@ -325,8 +536,39 @@ public class ConnectionManager {
 
     public void setDeviceNumberHRM(short deviceNumberHRM)
     {
+        if(deviceNumberHRM != mHRMData.DeviceNumber)
+        {
+            // Paged data of another device
+            mHRMData.Pages = 0;
+        }
         this.mHRMData.DeviceNumber = deviceNumberHRM;
     }
+    
+    /** Get the metadata of the HRM device, as received so far (with no history) */
+    public DeviceInfo getDeviceInfo()
+    {
+        return new DeviceInfo(mHRMData.DeviceNumber & 0xFFFF, mHRMData.Pages, mHRMData.OperatingTime,
+                mHRMData.ManufacturerID, mHRMData.SerialNumber,
+                mHRMData.HardwareVersion, mHRMData.SoftwareVersion, mHRMData.ModelNumber,
+                0, 0, 0, 0);
+    }
+    
+    /** Fill in the metadata of the HRM device from a previous connection, if it has not been received */
+    public void setDeviceInfo(DeviceInfo device)
+    {
+        if((device.getDeviceNumber() != (mHRMData.DeviceNumber & 0xFFFF)) || (mHRMData.Pages != 0))
+        {
+            return;
+        }
+        
+        mHRMData.Pages = device.getPages();
+        mHRMData.OperatingTime = device.getOperatingTime();
+        mHRMData.ManufacturerID = device.getManufacturerID();
+        mHRMData.SerialNumber = device.getSerialNumber();
+        mHRMData.HardwareVersion = device.getHardwareVersion();
+        mHRMData.SoftwareVersion = device.getSoftwareVersion();
+        mHRMData.ModelNumber = device.getModelNumber();
+    }
 
     public byte getProximityThreshold()
     {
@@ -338,6 +580,17 @@ public class ConnectionManager {
         this.mProximityThreshold = proximityThreshold;
     }
 
+    public int getFastSearchTimeout()
+    {
+        return mFastSearchTimeout;
+    }
+
+    /** Set the high priority search time after a connect, in seconds (0 to always search in background) */
+    public void setFastSearchTimeout(int fastSearchTimeout)
+    {
+        this.mFastSearchTimeout = fastSearchTimeout;
+    }
+
     public short getBufferThreshold()
     {
         return mBufferThreshold;
@@ -348,6 +601,17 @@ public class ConnectionManager {
         this.mBufferThreshold = bufferThreshold;
     }
     
+    public ChannelPeriod getChannelPeriod()
+    {
+        return mChannelPeriod;
+    }
+
+    /** Set the HRM channel period profile (applied by setAntConfiguration) */
+    public void setChannelPeriod(ChannelPeriod channelPeriod)
+    {
+        this.mChannelPeriod = channelPeriod;
+    }
+    
     public HRMPageState getStateHRM()
     {
         return mStateHRM;
@@ -358,33 +622,82 @@ public class ConnectionManager {
         return mHrmState;
     }
 
+    public boolean getRxTimestamps()
+    {
+        return mRxTimestamps;
+    }
+
+    /** Enable/disable RX timestamps (applied when the channel is next opened) */
+    public void setRxTimestamps(boolean rxTimestamps)
+    {
+        this.mRxTimestamps = rxTimestamps;
+    }
+    
     public int getBPM()
     {
-        return mHRMData.BPM;
+        return mFrame.BPM;
     }
     
     public int getRR()
     {
-        return mHRMData.RR;
+        return mFrame.RR;
     }
     
     public int getRSSI()
     {
-    	return mHRMData.RSSI;
+    	return mFrame.RSSI;
     }
     
-    public int getPacketsReceived()
+    /** Get the latest decoded HRM message */
+    HRMFrame getFrame()
+    {
+    	return mFrame;
+    }
+    
+    /**
+     * Settle the timing of the first batch of HRM messages since the channel was
+     * opened (or the radio clock was lost), once the batch has been handled: it is
+     * anchored on its last message's arrival, rather than on its first.
+     * @return the time to back-date the samples of the batch by (ms)
+     */
+    long settleTimeline()
     {
-    	int result = mHRMData.PacketsReceived;
-    	mHRMData.PacketsReceived = 0;
-    	return result;
+    	long backdate = mRxTimeline.settle();
+    	if (backdate > 0) {
+    		mFrame.Time -= backdate;
+    		mFrame.BeatEventTime -= backdate;
+    		mBeatTimeline.shift(-backdate);
+    	}
+    	return backdate;
     }
     
-    public int getPacketsDropped()
+    /** Check if the radio buffers messages (event buffering is on) */
+    public boolean isBuffering()
     {
-    	int result = mHRMData.PacketsDropped;
-    	mHRMData.PacketsDropped = 0;
-    	return result;
+    	return mBufferThreshold > 0;
+    }
+    
+    /** Check if HRM messages are timed by their RX timestamps (always so when buffering) */
+    public boolean isTimestamping()
+    {
+    	return mRxTimestamps || isBuffering();
+    }
+    
+    /** Take the HRM packets received since the last call */
+    public int takePacketsReceived()
+    {
+    	return mCounters.takeReceived(HRM_CHANNEL);
+    }
+    
+    /** Take the HRM packets dropped since the last call */
+    public int takePacketsDropped()
+    {
+    	return mCounters.takeDropped(HRM_CHANNEL);
+    }
+    
+    public ChannelCounters getCounters()
+    {
+    	return mCounters;
     }
 
     public String getAntStateText()
@@ -475,6 +788,12 @@ public class ConnectionManager {
      */
     public void shutDown()
     {
+        mHandler.removeCallbacks(mStateTimeout);
+        mHandler.removeCallbacks(mReacquireChannel);
+        mReacquirePending = false;
+        cancelIdRequest();
+        Log.i(TAG, dumpTransitions());
+        
         try
         {
             mContext.unregisterReceiver(mAntStatusReceiver);
@@ -594,6 +913,21 @@ public class ConnectionManager {
                 {
                     Log.e(TAG, "Could not configure event buffering", e);
                 }
+                
+                // Channel period of an open HRM channel (otherwise applied when it is opened)
+                if(isChannelOpen(HRM_CHANNEL) && (mHrmState != ChannelStates.PENDING_OPEN) && !isConfiguring() && (mChannelConfig.period != mChannelPeriod.getPeriod()))
+                {
+                    try
+                    {
+                        mAntReceiver.ANTSetChannelPeriod(HRM_CHANNEL, mChannelPeriod.getPeriod());
+                        mChannelConfig.period = mChannelPeriod.getPeriod();
+                        mRxTimeline.reset();
+                    }
+                    catch(AntInterfaceException e)
+                    {
+                        Log.e(TAG, "Could not set the channel period", e);
+                    }
+                }
             }
             else
             {
@@ -610,6 +944,7 @@ public class ConnectionManager {
      */
     private void antError()
     {
+        mRadioVerified = false;
         mAntStateText = mContext.getString(R.string.ANT_Error);
         if(mCallbackSink != null)
             mCallbackSink.errorCallback();
@@ -622,31 +957,113 @@ public class ConnectionManager {
      */
     public void openChannel(byte channel, boolean deferToNextReset)
     {
+        // Keep the service running while the channel is in use (it stops itself when idle)
         Log.i(TAG, "Starting service.");
         mContext.startService(new Intent(mContext, HeartRateMonitorService.class));
+        mConfigStep = NOT_CONFIGURING;
+        transition(ChannelEvent.OPEN_REQUESTED);
         if (!deferToNextReset)
         {
-        	mChannelConfig.deviceNumber = mHRMData.DeviceNumber;
-        	mChannelConfig.deviceType = HRM_DEVICE_TYPE;
-        	mChannelConfig.TransmissionType = 0; // Set to 0 for wild card search
-        	mChannelConfig.period = HRM_PERIOD;
-        	mChannelConfig.freq = 57; // 2457Mhz (ANT+ frequency)
-        	mChannelConfig.proxSearch = mProximityThreshold;
-            mHrmState = ChannelStates.PENDING_OPEN;
-
-            if(mCallbackSink != null)
-                mCallbackSink.notifyChannelStateChanged(channel);
+        	configureChannel();
             // Configure and open channel
             antChannelSetup(
                     (byte) 0x01, // Network: 1 (ANT+)
                     channel // channelConfig[channel] holds all the required info
                     );
         }
-        else
+        // Otherwise, PENDING_OPEN and not configuring: opened on the next ANT_RESET
+    }
+    
+    /**
+     * Reopens the HRM channel without an ANT reset, sending the whole channel
+     * configuration in one go. Only possible when the radio is known to be good
+     * (it has tracked data since it was last reset, and is still enabled and
+     * claimed) and the paired device number is cached.
+     * @param channel The channel to reopen.
+     * @return true if the channel is being reopened, false if it needs the full
+     *         (reset) open path
+     */
+    public boolean reopenChannel(byte channel)
+    {
+        if (!mRadioVerified || mAntResetSent || !mServiceConnected || !mClaimedAntInterface || !isEnabled()
+                || (mHRMData.DeviceNumber == WILDCARD) || isConfiguring() || mChannelConfig.isDeinitializing)
+        {
+            return false;
+        }
+        
+        Log.i(TAG, "Starting service.");
+        mContext.startService(new Intent(mContext, HeartRateMonitorService.class));
+        
+        configureChannel();
+        transition(ChannelEvent.OPEN_REQUESTED);
+        
+        mChannelConfig.isDeinitializing = false;
+        mChannelConfig.isPipelined = true;
+        try
+        {
+            // Same configuration steps as antChannelSetup, without waiting for each response
+            antLibConfig(isTimestamping() ? (byte) (LC_RSSI | LC_TIMESTAMP) : LC_RSSI);
+            mConfigStep = nextConfigStep(NOT_CONFIGURING);
+            for (int step = mConfigStep; step != NOT_CONFIGURING; step = nextConfigStep(step))
+            {
+                sendConfigStep((byte) 0x01, channel, step);
+            }
+        }
+        catch (AntInterfaceException e)
         {
-            mDeferredHrmStart = true;
-            mHrmState = ChannelStates.PENDING_OPEN;
+            Log.w(TAG, "reopenChannel: could not reopen channel " + channel + ".");
+            mConfigStep = NOT_CONFIGURING;
+            mChannelConfig.isPipelined = false;
+            mRadioVerified = false;
+            return false;
         }
+        
+        return true;
+    }
+    
+    /** Set up the HRM channel configuration for opening */
+    private void configureChannel()
+    {
+    	mChannelConfig.deviceNumber = mHRMData.DeviceNumber;
+    	mChannelConfig.deviceType = HRM_DEVICE_TYPE;
+    	mChannelConfig.TransmissionType = 0; // Set to 0 for wild card search
+    	mChannelConfig.period = mChannelPeriod.getPeriod();
+    	mRxTimeline.reset();
+    	mBeatTimeline.reset();
+    	mMissedPeriods = 0;
+    	mChannelConfig.freq = 57; // 2457Mhz (ANT+ frequency)
+    	mChannelConfig.proxSearch = mProximityThreshold;
+    	
+    	// Search fast on a connect; in background when reacquiring, or when a fast search failed
+    	mChannelConfig.isFastSearch = (mFastSearchTimeout > 0) && !mReacquire && (mReacquireAttempts == 0);
+    	if(mChannelConfig.isFastSearch)
+    	{
+    		// Round up to ANT's 2.5 s units, capped below 255 (infinite)
+    		mChannelConfig.searchTimeout = (byte) Math.min((mFastSearchTimeout * 2 + 4) / 5, 254);
+    		mChannelConfig.lpSearchTimeout = 0;
+    	}
+    	else
+    	{
+    		mChannelConfig.searchTimeout = 0;
+    		mChannelConfig.lpSearchTimeout = BACKGROUND_SEARCH_TIMEOUT;
+    	}
+    }
+    
+    /** Switch the open HRM channel from high priority to background search, for a later dropout */
+    private void useBackgroundSearch()
+    {
+    	mChannelConfig.isFastSearch = false;
+    	mChannelConfig.searchTimeout = 0;
+    	mChannelConfig.lpSearchTimeout = BACKGROUND_SEARCH_TIMEOUT;
+    	try
+    	{
+    		mAntReceiver.ANTSetLowPriorityChannelSearchTimeout(HRM_CHANNEL, mChannelConfig.lpSearchTimeout);
+    		mAntReceiver.ANTSetChannelSearchTimeout(HRM_CHANNEL, mChannelConfig.searchTimeout);
+    	}
+    	catch(AntInterfaceException e)
+    	{
+    		Log.e(TAG, "Could not set the background search", e);
+    	}
     }
     
     /**
@@ -655,13 +1072,19 @@ public class ConnectionManager {
      */
     public void closeChannel(byte channel)
     {
-    	mChannelConfig.isInitializing = false;
+        transition(ChannelEvent.CLOSE_REQUESTED);
+        antCloseChannel(channel);
+    }
+    
+    /**
+     * Closes a channel on the radio (it is unassigned once closed).
+     */
+    private void antCloseChannel(byte channel)
+    {
+    	mConfigStep = NOT_CONFIGURING;
+    	mChannelConfig.isPipelined = false;
     	mChannelConfig.isDeinitializing = true;
 
-        mHrmState = ChannelStates.CLOSED;
-
-        if(mCallbackSink != null)
-            mCallbackSink.notifyChannelStateChanged(channel);
         try
         {
            mAntReceiver.ANTCloseChannel(channel);
@@ -672,11 +1095,6 @@ public class ConnectionManager {
            Log.w(TAG, "closeChannel: could not cleanly close channel " + channel + ".");
            antError();
         }
-        if((mHrmState == ChannelStates.CLOSED || mHrmState == ChannelStates.OFFLINE))
-        {
-            Log.i(TAG, "Stopping service.");
-            mContext.stopService(new Intent(mContext, HeartRateMonitorService.class));
-        }
     }
     
     /**
@@ -684,14 +1102,8 @@ public class ConnectionManager {
      */
     public void clearChannelStates()
     {
-        Log.i(TAG, "Stopping service.");
-        mContext.stopService(new Intent(mContext, HeartRateMonitorService.class));
-        mHrmState = ChannelStates.CLOSED;
-        if(mCallbackSink != null)
-        {
-			// TODO: Remove all calls to notifyChannelStateChanged(byte) ... don't need other (non-HR) channels
-            mCallbackSink.notifyChannelStateChanged(HRM_CHANNEL);
-        }
+        mConfigStep = NOT_CONFIGURING;
+        transition(ChannelEvent.RADIO_LOST);
     }
     
     /** check to see if a channel is open */
@@ -716,12 +1128,10 @@ public class ConnectionManager {
             Log.e(TAG, "requestReset: Could not reset ANT", e);
             mAntResetSent = false;
             //Cancel pending channel open requests
-            if(mDeferredHrmStart)
+            if(mHrmState == ChannelStates.PENDING_OPEN)
             {
-                mDeferredHrmStart = false;
-                mHrmState = ChannelStates.CLOSED;
-                if(mCallbackSink != null)
-                    mCallbackSink.notifyChannelStateChanged(HRM_CHANNEL);
+                mConfigStep = NOT_CONFIGURING;
+                transition(ChannelEvent.RADIO_LOST);
             }
         }
     }
@@ -818,38 +1228,30 @@ public class ConnectionManager {
           else if (ANTAction.equals(AntInterfaceIntent.ANT_DISABLED_ACTION)) 
           {
              Log.i(TAG, "onReceive: ANT DISABLED");
-             mHrmState = ChannelStates.CLOSED;
              mAntStateText = mContext.getString(R.string.ANT_Disabled);
              
              mEnabling = false;
              mDisabling = false;
              
+             mConfigStep = NOT_CONFIGURING;
+             transition(ChannelEvent.RADIO_LOST);
              if(mCallbackSink != null)
              {
-                 mCallbackSink.notifyChannelStateChanged(HRM_CHANNEL);
                  mCallbackSink.notifyAntStateChanged();
              }
-             Log.i(TAG, "Stopping service.");
-             mContext.stopService(new Intent(mContext, HeartRateMonitorService.class));
           }
           else if (ANTAction.equals(AntInterfaceIntent.ANT_RESET_ACTION))
           {
              Log.d(TAG, "onReceive: ANT RESET");
              
-             Log.i(TAG, "Stopping service.");
-             mContext.stopService(new Intent(mContext, HeartRateMonitorService.class));
-             
              if(false == mAntResetSent)
              {
                 //Someone else triggered an ANT reset
                 Log.d(TAG, "onReceive: ANT RESET: Resetting state");
+                mRadioVerified = false;
                 
-                if(mHrmState != ChannelStates.CLOSED)
-                {
-                   mHrmState = ChannelStates.CLOSED;
-                   if(mCallbackSink != null)
-                       mCallbackSink.notifyChannelStateChanged(HRM_CHANNEL);
-                }
+                mConfigStep = NOT_CONFIGURING;
+                transition(ChannelEvent.RADIO_LOST);
              }
              else
              {
@@ -857,11 +1259,10 @@ public class ConnectionManager {
                 //Reconfigure event buffering
                 setAntConfiguration();
                 //Check if opening a channel was deferred, if so open it now.
-                if(mDeferredHrmStart)
+                if((mHrmState == ChannelStates.PENDING_OPEN) && !isConfiguring())
                 {
 					// TODO: Simplify openChannel to only open HR settings; no need for non-HR channels
                     openChannel(HRM_CHANNEL, false);
-                    mDeferredHrmStart = false;
                 }
              }
           }
@@ -890,9 +1291,6 @@ public class ConnectionManager {
                          // ...and we had control before that.  
                          Log.i(TAG, "onReceive: ANT Interface released");
                          
-                         Log.i(TAG, "Stopping service.");
-                         mContext.stopService(new Intent(mContext, HeartRateMonitorService.class));
-
                          receiveAntRxMessages(false);
                          
                          mAntStateText = mContext.getString(R.string.ANT_In_Use);
@@ -911,15 +1309,12 @@ public class ConnectionManager {
               Log.i(TAG, "onReceive: AIR_PLANE_MODE_CHANGED");
               if(isAirPlaneModeOn())
               {
-                  mHrmState = ChannelStates.CLOSED;
                   mAntStateText = mContext.getString(R.string.ANT_Airplane_Mode);
                   
-                  Log.i(TAG, "Stopping service.");
-                  mContext.stopService(new Intent(mContext, HeartRateMonitorService.class));
-                  
+                  mConfigStep = NOT_CONFIGURING;
+                  transition(ChannelEvent.RADIO_LOST);
                   if(mCallbackSink != null)
                   {
-                      mCallbackSink.notifyChannelStateChanged(HRM_CHANNEL);
                       mCallbackSink.notifyAntStateChanged();
                   }
               }
@@ -950,6 +1345,17 @@ public class ConnectionManager {
         return hexString.toString();
     }
     
+    /**
+     * Handle an ANT message as if it had been received from the radio
+     * (e.g. to replay recorded or synthetic traffic off-device).
+     */
+    void receiveMessage(byte[] ANTRxMessage)
+    {
+        Intent intent = new Intent(AntInterfaceIntent.ANT_RX_MESSAGE_ACTION);
+        intent.putExtra(AntInterfaceIntent.ANT_MESSAGE, ANTRxMessage);
+        mAntMessageReceiver.onReceive(mContext, intent);
+    }
+    
     /** Receives all of the ANT message intents and dispatches to the proper handler. */
     private final BroadcastReceiver mAntMessageReceiver = new BroadcastReceiver() 
     {      
@@ -957,6 +1363,8 @@ public class ConnectionManager {
 
        public void onReceive(Context context, Intent intent) 
        {
+          long start = Instrumentation.now();
+          
           mContext = context;
           String ANTAction = intent.getAction();
 
@@ -964,6 +1372,7 @@ public class ConnectionManager {
           if (ANTAction.equals(AntInterfaceIntent.ANT_RX_MESSAGE_ACTION)) 
           {
              Log.d(TAG, "onReceive: ANT RX MESSAGE");
+             mInstrumentation.count(Instrumentation.Counter.RX_MESSAGES);
 
              byte[] ANTRxMessage = intent.getByteArrayExtra(AntInterfaceIntent.ANT_MESSAGE);
 
@@ -976,12 +1385,16 @@ public class ConnectionManager {
                  case AntMesg.MESG_BROADCAST_DATA_ID:
                  case AntMesg.MESG_ACKNOWLEDGED_DATA_ID:
                      byte channelNum = ANTRxMessage[AntMesg.MESG_DATA_OFFSET];
+                     
+                     // ANT received a message in the designated channel period
+                     mCounters.addReceived(channelNum);
+                     
                      if(channelNum == HRM_CHANNEL) {
                          antDecodeHRM(ANTRxMessage);
                      }
                      
-                     // ANT received a message in the designated channel period
-                     mHRMData.PacketsReceived++;
+                     if(mCallbackSink != null)
+                         mCallbackSink.notifyPacketStatsChanged(channelNum);
                      
                      break;
                  case AntMesg.MESG_BURST_DATA_ID:
@@ -996,6 +1409,12 @@ public class ConnectionManager {
                      if(ANTRxMessage[AntMesg.MESG_DATA_OFFSET] == HRM_CHANNEL) {   //Switch on channel number
                          Log.i(TAG, "onRecieve: Received HRM device number");
                          mHRMData.DeviceNumber = deviceNum;
+                         // The serial number includes the device number, unknown when page 2 was decoded
+                         mHRMData.SerialNumber = (mHRMData.SerialNumber & 0xFFFF0000) | (deviceNum & 0xFFFF);
+                         cancelIdRequest();
+                         
+                         if(mCallbackSink != null)
+                             mCallbackSink.notifyDeviceInfoChanged(HRM_CHANNEL);
                      }
                      break;
                  case AntMesg.MESG_VERSION_ID:
@@ -1012,6 +1431,8 @@ public class ConnectionManager {
                      break;
              }
           }
+          
+          mInstrumentation.record(Instrumentation.Stage.RX_RECEIVE, start);
        }
        
        /**
@@ -1028,7 +1449,9 @@ public class ConnectionManager {
            if ((ANTRxMessage[AntMesg.MESG_DATA_OFFSET + 1] == AntMesg.MESG_EVENT_ID) && (ANTRxMessage[AntMesg.MESG_DATA_OFFSET + 2] == AntDefine.EVENT_RX_SEARCH_TIMEOUT))
            {
                // A channel timed out searching, unassign it
-               mChannelConfig.isInitializing = false;
+               mCounters.addSearchTimeout(channelNumber);
+               mConfigStep = NOT_CONFIGURING;
+               mChannelConfig.isPipelined = false;
                mChannelConfig.isDeinitializing = false;
 
                if(channelNumber == HRM_CHANNEL) {
@@ -1036,9 +1459,7 @@ public class ConnectionManager {
                    {
                        Log.i(TAG, "responseEventHandler: Received search timeout on HRM channel");
 
-                       mHrmState = ChannelStates.OFFLINE;
-                       if(mCallbackSink != null)
-                           mCallbackSink.notifyChannelStateChanged(HRM_CHANNEL);
+                       transition(ChannelEvent.SEARCH_TIMEOUT);
                        mAntReceiver.ANTUnassignChannel(HRM_CHANNEL);
                    }
                    catch(AntInterfaceException e)
@@ -1046,119 +1467,78 @@ public class ConnectionManager {
                        antError();
                    }
                }
-               if((mHrmState == ChannelStates.CLOSED || mHrmState == ChannelStates.OFFLINE))
-               {
-                   Log.i(TAG, "Stopping service.");
-                   mContext.stopService(new Intent(mContext, HeartRateMonitorService.class));
-               }
            }
            
            if ((ANTRxMessage[AntMesg.MESG_DATA_OFFSET + 1] == AntMesg.MESG_EVENT_ID) && (ANTRxMessage[AntMesg.MESG_DATA_OFFSET + 2] == AntDefine.EVENT_RX_FAIL)) {
         	   // ANT failed to receive a message in the designated channel period
-        	   mHRMData.PacketsDropped++;
+        	   mCounters.addDropped(channelNumber);
+        	   
+        	   if(channelNumber == HRM_CHANNEL) {
+        		   mMissedPeriods++;
+        		   mFrame.RxTimestamp = HRMFrame.NO_TIMESTAMP;
+        		   if(isTimestamping() && (mFrame.Time != 0)) {
+        			   // Events carry no timestamp; expected time of the missed message
+        			   mFrame.Time += periodToMillisec(mChannelConfig.period);
+        		   } else {
+        			   mFrame.Time = mClock.now();
+        		   }
+        	   }
+        	   
+        	   if(mCallbackSink != null)
+        		   mCallbackSink.notifyPacketStatsChanged(channelNumber);
            }
            
-           if (mChannelConfig.isInitializing)
+           if ((ANTRxMessage[AntMesg.MESG_DATA_OFFSET + 1] == AntMesg.MESG_EVENT_ID) && (ANTRxMessage[AntMesg.MESG_DATA_OFFSET + 2] == AntDefine.EVENT_RX_FAIL_GO_TO_SEARCH)) {
+        	   // ANT lost the device and returned to search
+        	   mCounters.addGoToSearch(channelNumber);
+        	   
+        	   if(channelNumber == HRM_CHANNEL) {
+        		   transition(ChannelEvent.SIGNAL_LOST);
+        	   }
+           }
+           
+           if (isConfiguring() && (ANTRxMessage[AntMesg.MESG_DATA_OFFSET + 1] != AntMesg.MESG_EVENT_ID))
            {
+               // Response to a channel configuration step
                if (ANTRxMessage[AntMesg.MESG_DATA_OFFSET + 2] != 0) // Error response
                {
                    Log.e(TAG, String.format("Error code(%#02x) on message ID(%#02x) on channel %d", ANTRxMessage[AntMesg.MESG_DATA_OFFSET + 2], ANTRxMessage[AntMesg.MESG_DATA_OFFSET + 1], channelNumber));
+                   
+                   boolean wasPipelined = mChannelConfig.isPipelined;
+                   mConfigStep = NOT_CONFIGURING;
+                   mChannelConfig.isPipelined = false;
+                   mRadioVerified = false;
+                   if (wasPipelined)
+                   {
+                       // Fall back to the full (reset) open path
+                       openChannel(HRM_CHANNEL, true);
+                       requestReset();
+                   }
+                   else
+                   {
+                       transition(ChannelEvent.CONFIG_FAILED);
+                   }
                }
-               else
+               else if (ANTRxMessage[AntMesg.MESG_DATA_OFFSET + 1] == CONFIG_STEPS[mConfigStep])
                {
-                   switch (ANTRxMessage[AntMesg.MESG_DATA_OFFSET + 1]) // Switch on Message ID
+                   mConfigStep = nextConfigStep(mConfigStep);
+                   if (mConfigStep == NOT_CONFIGURING)
+                   {
+                       // Channel opened
+                       mChannelConfig.isPipelined = false;
+                       transition(ChannelEvent.CONFIGURED);
+                   }
+                   else if (!mChannelConfig.isPipelined)
                    {
-                       case AntMesg.MESG_ASSIGN_CHANNEL_ID:
-                           try
-                           {
-                               mAntReceiver.ANTSetChannelId(channelNumber, mChannelConfig.deviceNumber, mChannelConfig.deviceType, mChannelConfig.TransmissionType);
-                           }
-                           catch (AntInterfaceException e)
-                           {
-                               antError();
-                           }
-                           break;
-                       case AntMesg.MESG_CHANNEL_ID_ID:
-                           try
-                           {
-                               mAntReceiver.ANTSetChannelPeriod(channelNumber, mChannelConfig.period);
-                           }
-                           catch (AntInterfaceException e)
-                           {
-                               antError();
-                           }
-                           break;
-                       case AntMesg.MESG_CHANNEL_MESG_PERIOD_ID:
-                           try
-                           {
-                               mAntReceiver.ANTSetChannelRFFreq(channelNumber, mChannelConfig.freq);
-                           }
-                           catch (AntInterfaceException e)
-                           {
-                               antError();
-                           }
-                           break;
-                       case AntMesg.MESG_CHANNEL_RADIO_FREQ_ID:
-                           try
-                           {
-                               mAntReceiver.ANTSetChannelSearchTimeout(channelNumber, HRM_CHANNEL); // Disable high priority search
-                           }
-                           catch (AntInterfaceException e)
-                           {
-                               antError();
-                           }
-                           break;
-                       case AntMesg.MESG_CHANNEL_SEARCH_TIMEOUT_ID:
-                           try
-                           {
-                               mAntReceiver.ANTSetLowPriorityChannelSearchTimeout(channelNumber,(byte) 12); // Set search timeout to 30 seconds (low priority search)
-                           }
-                           catch (AntInterfaceException e)
-                           {
-                               antError();
-                           }
-                           break;
-                       case AntMesg.MESG_SET_LP_SEARCH_TIMEOUT_ID:
-                           if (mChannelConfig.deviceNumber == WILDCARD)
-                           {
-                               try
-                               {
-                                   mAntReceiver.ANTSetProximitySearch(channelNumber, mChannelConfig.proxSearch);   // Configure proximity search, if using wild card search
-                               }
-                               catch (AntInterfaceException e)
-                               {
-                                   antError();
-                               }
-                           }
-                           else
-                           {
-                               try
-                               {
-                                   mAntReceiver.ANTOpenChannel(channelNumber);
-                               }
-                               catch (AntInterfaceException e)
-                               {
-                                   antError();
-                               }
-                           }
-                           break;
-                       case AntMesg.MESG_PROX_SEARCH_CONFIG_ID:
-                           try
-                           {
-                               mAntReceiver.ANTOpenChannel(channelNumber);
-                           }
-                           catch (AntInterfaceException e)
-                           {
-                               antError();
-                           }
-                           break;
-                       case AntMesg.MESG_OPEN_CHANNEL_ID:
-                    	   mChannelConfig.isInitializing = false;
-                           if(channelNumber == HRM_CHANNEL) {
-                               mHrmState = ChannelStates.SEARCHING;
-                               if(mCallbackSink != null)
-                                   mCallbackSink.notifyChannelStateChanged(HRM_CHANNEL);
-                           }
+                       // Next step (already sent if pipelined)
+                       try
+                       {
+                           sendConfigStep((byte) 0x01, channelNumber, mConfigStep);
+                       }
+                       catch (AntInterfaceException e)
+                       {
+                           antError();
+                       }
                    }
                }
            }
@@ -1187,36 +1567,29 @@ public class ConnectionManager {
         *
         * @param ANTRxMessage the received ANT message.
         */
+       @SuppressWarnings("fallthrough")
        private void antDecodeHRM(byte[] ANTRxMessage)
        {
+    	   long start = Instrumentation.now();
+    	   mInstrumentation.count(Instrumentation.Counter.RX_BROADCASTS);
+    	   
     	   Log.d(TAG, "antDecodeHRM start");
           
     	   Log.d(TAG, "antDecodeHRM: Received broadcast");
          
-    	   if(mHrmState != ChannelStates.CLOSED)
-    	   {
-    		   Log.d(TAG, "antDecodeHRM: Tracking data");
+    	   // Tracking data (ignored if the channel has been closed)
+    	   transition(ChannelEvent.DATA_RECEIVED);
 
-    		   mHrmState = ChannelStates.TRACKING_DATA;
-    		   if(mCallbackSink != null)
-    			   mCallbackSink.notifyChannelStateChanged(HRM_CHANNEL);
-    	   }
-
-    	   if(mHRMData.DeviceNumber == WILDCARD)
+    	   if((mHRMData.DeviceNumber == WILDCARD) && !mIdRequestPending)
     	   {
-    		   try
-    		   {
-    			   Log.i(TAG, "antDecodeHRM: Requesting device number");
-    			   mAntReceiver.ANTRequestMessage(HRM_CHANNEL, AntMesg.MESG_CHANNEL_ID_ID);
-    		   }
-    		   catch(AntInterfaceException e)
-    		   {
-    			   antError();
-    		   }
+    		   // Request the device number once, outside the decode path (retried by mRequestChannelId)
+    		   mIdRequestPending = true;
+    		   mHandler.post(mRequestChannelId);
     	   }
 
     	   // Monitor page toggle bit
-    	   byte currentPage = (byte) ANTRxMessage[PKT_PAGE];
+    	   byte currentPage = ANTRxMessage[PKT_PAGE];
+    	   mFrame.PreviousBeatTime = HRMFrame.NO_BEAT_TIME;
     	   switch (mStateHRM) {
     	   case PAGE_INIT:
     		   mStateHRM = HRMPageState.PAGE_STD;
@@ -1228,6 +1601,9 @@ public class ConnectionManager {
     		   // Intentionally fall through into PAGE_EXT if the page has changed
     		   mStateHRM = HRMPageState.PAGE_EXT;
     	   case PAGE_EXT:
+    		   int pages = mHRMData.Pages;
+    		   int serialNumber = mHRMData.SerialNumber;
+    		   int product = (mHRMData.HardwareVersion << 16) | (mHRMData.SoftwareVersion << 8) | mHRMData.ModelNumber;
     		   switch (currentPage & ~PKT_TOGGLE_MASK) {
     		   case 1:
     			   // Decode the cumulative operating time
@@ -1235,33 +1611,45 @@ public class ConnectionManager {
     			   mHRMData.OperatingTime |= (ANTRxMessage[PKT_PAYLOAD + 2] & 0xFF) << 8;
     			   mHRMData.OperatingTime |= (ANTRxMessage[PKT_PAYLOAD + 3] & 0xFF) << 16;
     			   mHRMData.OperatingTime *= 2;
+    			   mHRMData.Pages |= DeviceInfo.PAGE_OPERATING_TIME;
     			   break;
     		   case 2:
     			   // Decode the Manufacturer ID
     			   mHRMData.ManufacturerID = ANTRxMessage[PKT_PAYLOAD + 1];
     			   // Decode the 4-byte Serial Number
-    			   mHRMData.SerialNumber = mHRMData.DeviceNumber;
+    			   mHRMData.SerialNumber = mHRMData.DeviceNumber & 0xFFFF;
     			   mHRMData.SerialNumber |= (ANTRxMessage[PKT_PAYLOAD + 2] & 0xFF) << 16;
     			   mHRMData.SerialNumber |= (ANTRxMessage[PKT_PAYLOAD + 3] & 0xFF) << 24;
+    			   mHRMData.Pages |= DeviceInfo.PAGE_MANUFACTURER;
     			   break;
     		   case 3:
     			   // Decode the Hardware Version, Software Version and Model Number
     			   mHRMData.HardwareVersion = (ANTRxMessage[PKT_PAYLOAD + 1] & 0xFF);
     			   mHRMData.SoftwareVersion = (ANTRxMessage[PKT_PAYLOAD + 2] & 0xFF);
     			   mHRMData.ModelNumber = (ANTRxMessage[PKT_PAYLOAD + 3] & 0xFF);
+    			   mHRMData.Pages |= DeviceInfo.PAGE_PRODUCT;
     			   break;
     		   case 4:
     			   // Decode the previous heart beat measurement time
-//    			   mHRMData.PreviousBeatTime = (ANTRxMessage[PKT_PAYLOAD + 2] & 0xFF);
-//    			   mHRMData.PreviousBeatTime |= (ANTRxMessage[PKT_PAYLOAD + 3] & 0xFF) << 8;
+    			   mFrame.PreviousBeatTime = (ANTRxMessage[PKT_PAYLOAD + 2] & 0xFF);
+    			   mFrame.PreviousBeatTime |= (ANTRxMessage[PKT_PAYLOAD + 3] & 0xFF) << 8;
     			   break;
     		   }
+    		   
+    		   // New metadata (not the running operating time)
+    		   if((mHRMData.Pages != pages) || (mHRMData.SerialNumber != serialNumber)
+    				   || (((mHRMData.HardwareVersion << 16) | (mHRMData.SoftwareVersion << 8) | mHRMData.ModelNumber) != product)) {
+    			   if(mCallbackSink != null)
+    				   mCallbackSink.notifyDeviceInfoChanged(HRM_CHANNEL);
+    		   }
     		   break;
     	   }
     	   
     	   mLastPage = currentPage;
     	   
     	   antDecodeDefaultHRM(ANTRxMessage);
+    	   
+    	   mInstrumentation.record(Instrumentation.Stage.DECODE, start);
              
     	   Log.d(TAG, "antDecodeHRM end");
        	}
@@ -1275,45 +1663,44 @@ public class ConnectionManager {
        	private void antDecodeDefaultHRM(byte[] ANTRxMessage)
        	{
        		// Decode the beat time
-       		mHRMData.CurrentBeatTime = (ANTRxMessage[PKT_PAYLOAD + 4] & 0xFF);
-       		mHRMData.CurrentBeatTime |= (ANTRxMessage[PKT_PAYLOAD + 5] & 0xFF) << 8;
+       		mFrame.BeatTime = (ANTRxMessage[PKT_PAYLOAD + 4] & 0xFF);
+       		mFrame.BeatTime |= (ANTRxMessage[PKT_PAYLOAD + 5] & 0xFF) << 8;
            
        		// Decode the beat count
-       		mHRMData.CurrentBeatCount = (ANTRxMessage[PKT_PAYLOAD + 6] & 0xFF);
+       		mFrame.BeatCount = (ANTRxMessage[PKT_PAYLOAD + 6] & 0xFF);
            
        		// Heart rate            
-       		mHRMData.BPM = (ANTRxMessage[PKT_PAYLOAD + 7] & 0xFF);
+       		mFrame.BPM = (ANTRxMessage[PKT_PAYLOAD + 7] & 0xFF);
        		
+       		// Time the message, then decode any extended data
+       		mFrame.Time = mClock.now();
+       		mFrame.RxTimestamp = HRMFrame.NO_TIMESTAMP;
        		if (ANTRxMessage[PKT_LENGTH] > (PKT_EXT - 1)) {
-       			// Extended data exists in packet
-       			// Extract RSSI from packet
-       			mHRMData.RSSI = ANTRxMessage[PKT_EXT + 2];
-       			
-       			// Callback to notify arrival of new RSSI data
-           		if(mCallbackSink != null) {
-           			mCallbackSink.notifyNewRSSIData(HRM_CHANNEL);
-           		}
+       			antDecodeExtendedData(ANTRxMessage);
        		}
+       		mMissedPeriods = 0;
        		
-       		if (mHRMData.CurrentBeatCount != mHRMData.PreviousBeatCount) {
-       			// New beat has arrived
+       		if (mFrame.BeatCount != mHRMData.PreviousBeatCount) {
+       			// New beat has arrived; time it by the sensor's beat clock
+       			mInstrumentation.count(Instrumentation.Counter.BEATS);
+       			mFrame.BeatEventTime = mBeatTimeline.toTime(mFrame.BeatTime, mFrame.Time);
        			
            		// Callback to notify arrival of new BPM data
            		if(mCallbackSink != null) {
            			mCallbackSink.notifyNewBPMData();
            		}
            		
-       			if (((mHRMData.PreviousBeatCount + 1) & 0xFF) == mHRMData.CurrentBeatCount) {
+       			boolean isConsecutive = (((mHRMData.PreviousBeatCount + 1) & 0xFF) == mFrame.BeatCount);
+       			if (isConsecutive || (mFrame.PreviousBeatTime != HRMFrame.NO_BEAT_TIME)) {
 		   			// Confirmed one beat between intervals, accommodating for byte overflow, (can now obtain RR)
+       				// or the sensor sent the previous beat time (page 4), recovering RR when beats were missed
+       				// (more likely at the lower message rates)
 		   			// RR interval
-       				if (mHRMData.CurrentBeatTime > mHRMData.PreviousBeatTime) {
-       					mHRMData.RR = (mHRMData.CurrentBeatTime - mHRMData.PreviousBeatTime);
-       				} else {
-       					// Overflow condition
-       					mHRMData.RR = (mHRMData.CurrentBeatTime + (0xFFFF - mHRMData.PreviousBeatTime));
-       				}
+       				int previousBeatTime = isConsecutive ? mHRMData.PreviousBeatTime : mFrame.PreviousBeatTime;
+       				// (beat time rolls over at 0x10000)
+       				mFrame.RR = (mFrame.BeatTime - previousBeatTime) & 0xFFFF;
        				// Convert result from 1/1024sec into milliseconds
-		       		mHRMData.RR = (int)((mHRMData.RR * 1000) / 1024);
+		       		mFrame.RR = (mFrame.RR * 1000) / 1024;
 		       		
 		       		// Callback to notify arrival of new RR data
 		       		if(mCallbackSink != null) {
@@ -1323,11 +1710,332 @@ public class ConnectionManager {
        		}
        		
        		// Update the previous beat count and beat time
-       		mHRMData.PreviousBeatCount = mHRMData.CurrentBeatCount;
-       		mHRMData.PreviousBeatTime = mHRMData.CurrentBeatTime;
+       		mHRMData.PreviousBeatCount = mFrame.BeatCount;
+       		mHRMData.PreviousBeatTime = mFrame.BeatTime;
+       	}
+       	
+       	/**
+       	 * Decode the extended data (flag byte, then channel ID, RSSI and RX timestamp, as flagged).
+       	 *
+       	 * @param ANTRxMessage the received ANT message.
+       	 */
+       	private void antDecodeExtendedData(byte[] ANTRxMessage)
+       	{
+       		byte flags = ANTRxMessage[PKT_EXT];
+       		int offset = PKT_EXT + 1;
+       		
+       		if ((flags & LC_CHANID) != 0) {
+       			// Skip the channel ID (device number, device type, transmission type)
+       			offset += 4;
+       		}
+       		
+       		boolean hasRSSI = false;
+       		if (((flags & LC_RSSI) != 0) && (offset + 3 <= ANTRxMessage.length)) {
+       			// Extract RSSI from packet (after the measurement type)
+       			mFrame.RSSI = ANTRxMessage[offset + 1];
+       			hasRSSI = true;
+       			offset += 3;
+       		}
+       		
+       		if (((flags & LC_TIMESTAMP) != 0) && (offset + 2 <= ANTRxMessage.length) && isTimestamping()) {
+       			// Time the message by the radio clock, not by its (possibly buffered) delivery
+       			int timestamp = (ANTRxMessage[offset] & 0xFF) | ((ANTRxMessage[offset + 1] & 0xFF) << 8);
+       			long time = mRxTimeline.toTime(timestamp, mClock.elapsedRealtime(), mMissedPeriods, mChannelConfig.period & 0xFFFF);
+       			mFrame.RxTimestamp = timestamp;
+       			mFrame.Time = mClock.timeOf(time);
+       		}
+       		
+       		// Callback to notify arrival of new RSSI data
+       		if(hasRSSI && (mCallbackSink != null)) {
+       			mCallbackSink.notifyNewRSSIData(HRM_CHANNEL);
+       		}
        	}
     };
     
+    /** Convert a channel period (1/32768 s) to milliseconds */
+    private static long periodToMillisec(short period)
+    {
+    	return ((period & 0xFFFF) * 1000L) / RxTimeline.TICKS_PER_SECOND;
+    }
+    
+    /** Check if the channel is being configured */
+    private boolean isConfiguring()
+    {
+        return mConfigStep != NOT_CONFIGURING;
+    }
+    
+    /**
+     * Get the configuration step following a step.
+     * @param step the step (NOT_CONFIGURING for the first step)
+     * @return the next step needed for the current configuration, or NOT_CONFIGURING after the last
+     */
+    private int nextConfigStep(int step)
+    {
+        for (int next = step + 1; next < CONFIG_STEPS.length; next++)
+        {
+            // Proximity search only applies to wild card search
+            if ((CONFIG_STEPS[next] != AntMesg.MESG_PROX_SEARCH_CONFIG_ID) || (mChannelConfig.deviceNumber == WILDCARD))
+            {
+                return next;
+            }
+        }
+        return NOT_CONFIGURING;
+    }
+    
+    /**
+     * Send the command of a configuration step.
+     * @param networkNumber the network number
+     * @param channel the channel number
+     * @param step the configuration step
+     */
+    private void sendConfigStep(byte networkNumber, byte channel, int step) throws AntInterfaceException
+    {
+        switch (CONFIG_STEPS[step])
+        {
+            case AntMesg.MESG_ASSIGN_CHANNEL_ID:
+                mAntReceiver.ANTAssignChannel(channel, AntDefine.PARAMETER_RX_NOT_TX, networkNumber);  // Assign as slave channel on selected network (0 = public, 1 = ANT+, 2 = ANTFS)
+                break;
+            case AntMesg.MESG_CHANNEL_ID_ID:
+                mAntReceiver.ANTSetChannelId(channel, mChannelConfig.deviceNumber, mChannelConfig.deviceType, mChannelConfig.TransmissionType);
+                break;
+            case AntMesg.MESG_CHANNEL_MESG_PERIOD_ID:
+                mAntReceiver.ANTSetChannelPeriod(channel, mChannelConfig.period);
+                break;
+            case AntMesg.MESG_CHANNEL_RADIO_FREQ_ID:
+                mAntReceiver.ANTSetChannelRFFreq(channel, mChannelConfig.freq);
+                break;
+            case AntMesg.MESG_CHANNEL_SEARCH_TIMEOUT_ID:
+                mAntReceiver.ANTSetChannelSearchTimeout(channel, mChannelConfig.searchTimeout); // High priority search (0 disables it)
+                break;
+            case AntMesg.MESG_SET_LP_SEARCH_TIMEOUT_ID:
+                mAntReceiver.ANTSetLowPriorityChannelSearchTimeout(channel, mChannelConfig.lpSearchTimeout); // Low priority search (0 disables it)
+                break;
+            case AntMesg.MESG_PROX_SEARCH_CONFIG_ID:
+                mAntReceiver.ANTSetProximitySearch(channel, mChannelConfig.proxSearch);   // Configure proximity search, if using wild card search
+                break;
+            case AntMesg.MESG_OPEN_CHANNEL_ID:
+                mAntReceiver.ANTOpenChannel(channel);
+                break;
+        }
+    }
+    
+    /**
+     * Apply an event to the HRM channel state machine.
+     * @param event the event
+     * @return true if the event was handled (not ignored in the current state)
+     */
+    private boolean transition(ChannelEvent event)
+    {
+        ChannelStates previous = mHrmState;
+        ChannelStates next = TRANSITIONS[previous.ordinal()][event.ordinal()];
+        
+        if (next == null)
+        {
+            Log.d(TAG, "transition: " + event + " ignored in " + previous);
+            return false;
+        }
+        if (next == previous)
+        {
+            return true;
+        }
+        
+        // Time and count the transition
+        long now = Instrumentation.now();
+        mStateTimes[previous.ordinal()].record(now - mStateEnterTime);
+        mTransitionCounts[previous.ordinal()][next.ordinal()]++;
+        mStateEnterTime = now;
+        
+        Log.i(TAG, "transition: " + previous + " -> " + next + " on " + event);
+        mHrmState = next;
+        enterState(next, event);
+        
+        if(mCallbackSink != null)
+            mCallbackSink.notifyChannelStateChanged(HRM_CHANNEL);
+        
+        return true;
+    }
+    
+    /** Entry actions of the HRM channel states: timeouts and reacquisition */
+    private void enterState(ChannelStates state, ChannelEvent event)
+    {
+        mHandler.removeCallbacks(mStateTimeout);
+        mHandler.removeCallbacks(mReacquireChannel);
+        mReacquirePending = false;
+        
+        switch (state)
+        {
+            case PENDING_OPEN:
+                mHandler.postDelayed(mStateTimeout, PENDING_OPEN_TIMEOUT_MILLISEC);
+                break;
+            case SEARCHING:
+                mHandler.postDelayed(mStateTimeout, getSearchingTimeout());
+                break;
+            case TRACKING_DATA:
+                // The radio works, and the device should be reacquired if lost
+                mRadioVerified = true;
+                mReacquire = true;
+                mReacquireAttempts = 0;
+                if (mChannelConfig.isFastSearch)
+                {
+                    useBackgroundSearch();
+                }
+                break;
+            case OFFLINE:
+                // Reacquire a lost device, retry a failed open, or follow a failed fast search with a background one
+                if ((mReacquire || (event == ChannelEvent.TIMEOUT) || (event == ChannelEvent.CONFIG_FAILED)
+                        || ((event == ChannelEvent.SEARCH_TIMEOUT) && mChannelConfig.isFastSearch))
+                        && (mReacquireAttempts < MAX_REACQUIRE_ATTEMPTS))
+                {
+                    long delay = REACQUIRE_DELAY_MILLISEC << mReacquireAttempts;
+                    Log.i(TAG, "Reacquiring in " + delay + " ms");
+                    mReacquirePending = true;
+                    mHandler.postDelayed(mReacquireChannel, delay);
+                }
+                break;
+            case CLOSED:
+                mReacquire = false;
+                mReacquireAttempts = 0;
+                cancelIdRequest();
+                break;
+        }
+    }
+    
+    /**
+     * Get the maximum time to search, before giving up on ANT's own search timeout:
+     * the configured high priority then low priority searches, plus a margin (ms).
+     */
+    private long getSearchingTimeout()
+    {
+        int units = (mChannelConfig.searchTimeout & 0xFF) + (mChannelConfig.lpSearchTimeout & 0xFF);
+        return (units * SEARCH_TIMEOUT_UNIT_MILLISEC) + SEARCHING_TIMEOUT_MARGIN_MILLISEC;
+    }
+    
+    /** Leaves a state that lasted too long */
+    private final Runnable mStateTimeout = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            Log.w(TAG, "Timed out in " + mHrmState);
+            
+            if (mHrmState == ChannelStates.SEARCHING)
+            {
+                antCloseChannel(HRM_CHANNEL);
+            }
+            else
+            {
+                // Stuck reset or configuration; reset on the next attempt
+                mConfigStep = NOT_CONFIGURING;
+                mChannelConfig.isPipelined = false;
+                mRadioVerified = false;
+            }
+            transition(ChannelEvent.TIMEOUT);
+        }
+    };
+    
+    /** Attempts to reacquire the device */
+    private final Runnable mReacquireChannel = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            mReacquirePending = false;
+            if (mHrmState != ChannelStates.OFFLINE)
+            {
+                return;
+            }
+            
+            mReacquireAttempts++;
+            Log.i(TAG, "Reacquiring (attempt " + mReacquireAttempts + ")");
+            if (!reopenChannel(HRM_CHANNEL))
+            {
+                openChannel(HRM_CHANNEL, true);
+                requestReset();
+            }
+        }
+    };
+    
+    /** Requests the device number of the tracked device, then retries until it is received */
+    private final Runnable mRequestChannelId = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            if ((mHRMData.DeviceNumber != WILDCARD) || (mHrmState != ChannelStates.TRACKING_DATA))
+            {
+                // Known, or no device to ask (requested again on the next broadcast)
+                cancelIdRequest();
+                return;
+            }
+            
+            try
+            {
+                Log.i(TAG, "Requesting device number (attempt " + (mIdRequestAttempts + 1) + ")");
+                mAntReceiver.ANTRequestMessage(HRM_CHANNEL, AntMesg.MESG_CHANNEL_ID_ID);
+            }
+            catch(AntInterfaceException e)
+            {
+                cancelIdRequest();
+                antError();
+                return;
+            }
+            
+            // Retry if no response arrives in time
+            long timeout = ID_REQUEST_TIMEOUT_MILLISEC << Math.min(mIdRequestAttempts, MAX_ID_REQUEST_BACKOFF);
+            mIdRequestAttempts++;
+            mHandler.postDelayed(this, timeout);
+        }
+    };
+    
+    /** Cancel an in-flight device number request */
+    private void cancelIdRequest()
+    {
+        mHandler.removeCallbacks(mRequestChannelId);
+        mIdRequestPending = false;
+        mIdRequestAttempts = 0;
+    }
+    
+    /** Check if the channel is offline, waiting to be reacquired */
+    public boolean isReacquiring()
+    {
+        return mReacquirePending;
+    }
+    
+    /** Get the number of transitions from a state to another */
+    public int getTransitionCount(ChannelStates from, ChannelStates to)
+    {
+        return mTransitionCounts[from.ordinal()][to.ordinal()];
+    }
+    
+    /** Get the histogram of the time spent in a state */
+    public LatencyHistogram getStateTime(ChannelStates state)
+    {
+        return mStateTimes[state.ordinal()];
+    }
+    
+    /** Get a readable summary of the channel state transitions */
+    public String dumpTransitions()
+    {
+        StringBuilder out = new StringBuilder();
+        
+        for (ChannelStates from : ChannelStates.values())
+        {
+            out.append(from).append(": ");
+            mStateTimes[from.ordinal()].dump(out);
+            for (ChannelStates to : ChannelStates.values())
+            {
+                int count = mTransitionCounts[from.ordinal()][to.ordinal()];
+                if (count > 0)
+                {
+                    out.append(", -> ").append(to).append(' ').append(count);
+                }
+            }
+            out.append('\n');
+        }
+        
+        return out.toString();
+    }
+    
     /**
      * ANT Lib Config to enable extended data
      *
@@ -1340,7 +2048,7 @@ public class ConnectionManager {
     	enableExt[0] = (byte) 2;			// Length
     	enableExt[1] = (byte) 0x6e;			// Message ID
     	enableExt[2] = (byte) 0;			// Filler
-    	enableExt[3] = (byte) libConfig;	// Lib Config value
+    	enableExt[3] = libConfig;			// Lib Config value
     	
     	mAntReceiver.ANTTxMessage(enableExt);
     }
@@ -1362,14 +2070,15 @@ public class ConnectionManager {
     {
        try
        {
-    	   mChannelConfig.isInitializing = true;
            mChannelConfig.isDeinitializing = false;
+           mChannelConfig.isPipelined = false;
 
-           // Configure ANT+ to send extended data with RSSI
-           antLibConfig(LC_RSSI);
+           // Configure ANT+ to send extended data with RSSI (and RX timestamps, to time messages by the radio clock)
+           antLibConfig(isTimestamping() ? (byte) (LC_RSSI | LC_TIMESTAMP) : LC_RSSI);
            
-           mAntReceiver.ANTAssignChannel(channel, AntDefine.PARAMETER_RX_NOT_TX, networkNumber);  // Assign as slave channel on selected network (0 = public, 1 = ANT+, 2 = ANTFS)
-           // The rest of the channel configuration will occur after the response is received (in responseEventHandler)
+           mConfigStep = nextConfigStep(NOT_CONFIGURING);
+           sendConfigStep(networkNumber, channel, mConfigStep);
+           // The rest of the channel configuration will occur after each response is received (in responseEventHandler)
        }
        catch(AntInterfaceException aie)
        {
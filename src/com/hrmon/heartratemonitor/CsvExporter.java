@@ -0,0 +1,50 @@
+package com.hrmon.heartratemonitor;
+
+import java.io.IOException;
+
+/**
+ * Exports all series of a session as comma separated values.
+ * Each line holds the series name, the sample time (ms) and the sample value.
+ */
+class CsvExporter extends SessionExporter {
+
+	/** Series names (by series identifier) */
+	private static final String[] SERIES_NAMES = {
+		"rr", "bpm", "rssi", "received", "dropped"
+	};
+
+	/** Series written */
+	private static final int[] SERIES = {
+		SampleSource.SERIES_RR, SampleSource.SERIES_BPM, SampleSource.SERIES_RSSI,
+		SampleSource.SERIES_RECEIVED_PACKETS, SampleSource.SERIES_DROPPED_PACKETS
+	};
+
+	@Override
+	int[] getSeries()
+	{
+		return SERIES;
+	}
+
+	@Override
+	void write(SampleSource source, final ExportWriter out) throws IOException
+	{
+		out.putAscii("series,time,value\n");
+
+		for (int series : SERIES) {
+			final String prefix = SERIES_NAMES[series] + ",";
+
+			source.visit(series, new SampleVisitor() {
+				@Override
+				public void visit(long time, int value) throws IOException
+				{
+					out.putAscii(prefix);
+					out.putDecimal(time);
+					out.putByte(',');
+					out.putDecimal(value);
+					out.putByte('\n');
+				}
+			});
+		}
+	}
+
+}
@@ -0,0 +1,249 @@
+package com.hrmon.heartratemonitor;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * What is known about an HRM sensor, as stored in the device registry:
+ * the metadata of its background pages and its connection history.
+ */
+public class DeviceInfo {
+
+	/** Size of a device record in the registry file (bytes) */
+	public static final int RECORD_SIZE = 52;
+
+	/** Metadata page flags (set once the page has been received) */
+	public static final int PAGE_OPERATING_TIME = 1 << 1;
+	public static final int PAGE_MANUFACTURER = 1 << 2;
+	public static final int PAGE_PRODUCT = 1 << 3;
+
+	/** Weight of the newest acquisition in the typical acquisition time (1/n) */
+	private static final int ACQUISITION_WEIGHT = 4;
+
+	/** Device number (also identifies the device) */
+	private final int mDeviceNumber;
+
+	/** Metadata pages received (PAGE_ flags) */
+	private final int mPages;
+
+	/** Cumulative operating time (s) */
+	private final int mOperatingTime;
+
+	/** Manufacturer ID */
+	private final int mManufacturerID;
+
+	/** Serial number */
+	private final int mSerialNumber;
+
+	/** Hardware version */
+	private final int mHardwareVersion;
+
+	/** Software version */
+	private final int mSoftwareVersion;
+
+	/** Model number */
+	private final int mModelNumber;
+
+	/** Wall clock time the device was last seen (ms), or 0 if never */
+	private final long mLastSeen;
+
+	/** RSSI when the device was last seen (dBm) */
+	private final int mLastRSSI;
+
+	/** Typical time from a connect request to tracking data (ms) */
+	private final int mAcquisitionTime;
+
+	/** Number of acquisitions */
+	private final int mAcquisitions;
+
+	/**
+	 * Constructor
+	 */
+	public DeviceInfo(int deviceNumber, int pages, int operatingTime, int manufacturerID, int serialNumber,
+			int hardwareVersion, int softwareVersion, int modelNumber,
+			long lastSeen, int lastRSSI, int acquisitionTime, int acquisitions)
+	{
+		mDeviceNumber = deviceNumber;
+		mPages = pages;
+		mOperatingTime = operatingTime;
+		mManufacturerID = manufacturerID;
+		mSerialNumber = serialNumber;
+		mHardwareVersion = hardwareVersion;
+		mSoftwareVersion = softwareVersion;
+		mModelNumber = modelNumber;
+		mLastSeen = lastSeen;
+		mLastRSSI = lastRSSI;
+		mAcquisitionTime = acquisitionTime;
+		mAcquisitions = acquisitions;
+	}
+
+	/**
+	 * Constructor for a device with no metadata or history.
+	 */
+	public DeviceInfo(int deviceNumber)
+	{
+		this(deviceNumber, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+	}
+
+	/**
+	 * Copy with the metadata of another record (the pages it has received), keeping the history.
+	 */
+	public DeviceInfo withMetadata(DeviceInfo source)
+	{
+		int pages = mPages | source.mPages;
+		boolean hasTime = (source.mPages & PAGE_OPERATING_TIME) != 0;
+		boolean hasManufacturer = (source.mPages & PAGE_MANUFACTURER) != 0;
+		boolean hasProduct = (source.mPages & PAGE_PRODUCT) != 0;
+
+		return new DeviceInfo(mDeviceNumber, pages,
+				hasTime ? source.mOperatingTime : mOperatingTime,
+				hasManufacturer ? source.mManufacturerID : mManufacturerID,
+				hasManufacturer ? source.mSerialNumber : mSerialNumber,
+				hasProduct ? source.mHardwareVersion : mHardwareVersion,
+				hasProduct ? source.mSoftwareVersion : mSoftwareVersion,
+				hasProduct ? source.mModelNumber : mModelNumber,
+				mLastSeen, mLastRSSI, mAcquisitionTime, mAcquisitions);
+	}
+
+	/**
+	 * Copy with an acquisition added to the typical acquisition time.
+	 * @param time the time from the connect request to tracking data (ms)
+	 */
+	public DeviceInfo withAcquisition(int time)
+	{
+		int typical = (mAcquisitions == 0) ? time : (mAcquisitionTime * (ACQUISITION_WEIGHT - 1) + time) / ACQUISITION_WEIGHT;
+
+		return new DeviceInfo(mDeviceNumber, mPages, mOperatingTime, mManufacturerID, mSerialNumber,
+				mHardwareVersion, mSoftwareVersion, mModelNumber,
+				mLastSeen, mLastRSSI, typical, mAcquisitions + 1);
+	}
+
+	/**
+	 * Copy with the device last seen at a time.
+	 * @param time the wall clock time (ms)
+	 * @param rssi the last RSSI (dBm)
+	 */
+	public DeviceInfo withLastSeen(long time, int rssi)
+	{
+		return new DeviceInfo(mDeviceNumber, mPages, mOperatingTime, mManufacturerID, mSerialNumber,
+				mHardwareVersion, mSoftwareVersion, mModelNumber,
+				time, rssi, mAcquisitionTime, mAcquisitions);
+	}
+
+	/** Get the device number */
+	public int getDeviceNumber()
+	{
+		return mDeviceNumber;
+	}
+
+	/** Get the metadata pages received (PAGE_ flags) */
+	public int getPages()
+	{
+		return mPages;
+	}
+
+	/** Check if a metadata page has been received */
+	public boolean hasPage(int page)
+	{
+		return (mPages & page) != 0;
+	}
+
+	/** Get the cumulative operating time (s) */
+	public int getOperatingTime()
+	{
+		return mOperatingTime;
+	}
+
+	/** Get the manufacturer ID */
+	public int getManufacturerID()
+	{
+		return mManufacturerID;
+	}
+
+	/** Get the serial number */
+	public int getSerialNumber()
+	{
+		return mSerialNumber;
+	}
+
+	/** Get the hardware version */
+	public int getHardwareVersion()
+	{
+		return mHardwareVersion;
+	}
+
+	/** Get the software version */
+	public int getSoftwareVersion()
+	{
+		return mSoftwareVersion;
+	}
+
+	/** Get the model number */
+	public int getModelNumber()
+	{
+		return mModelNumber;
+	}
+
+	/** Get the wall clock time the device was last seen (0 if never) */
+	public long getLastSeen()
+	{
+		return mLastSeen;
+	}
+
+	/** Get the RSSI when the device was last seen */
+	public int getLastRSSI()
+	{
+		return mLastRSSI;
+	}
+
+	/** Get the typical acquisition time (ms) */
+	public int getAcquisitionTime()
+	{
+		return mAcquisitionTime;
+	}
+
+	/** Get the number of acquisitions */
+	public int getAcquisitions()
+	{
+		return mAcquisitions;
+	}
+
+	/** Write the device as a fixed size record */
+	void write(DataOutput out) throws IOException
+	{
+		out.writeInt(mDeviceNumber);
+		out.writeInt(mPages);
+		out.writeInt(mOperatingTime);
+		out.writeInt(mManufacturerID);
+		out.writeInt(mSerialNumber);
+		out.writeInt(mHardwareVersion);
+		out.writeInt(mSoftwareVersion);
+		out.writeInt(mModelNumber);
+		out.writeLong(mLastSeen);
+		out.writeInt(mLastRSSI);
+		out.writeInt(mAcquisitionTime);
+		out.writeInt(mAcquisitions);
+	}
+
+	/** Read a device from a fixed size record */
+	static DeviceInfo read(DataInput in) throws IOException
+	{
+		int deviceNumber = in.readInt();
+		int pages = in.readInt();
+		int operatingTime = in.readInt();
+		int manufacturerID = in.readInt();
+		int serialNumber = in.readInt();
+		int hardwareVersion = in.readInt();
+		int softwareVersion = in.readInt();
+		int modelNumber = in.readInt();
+		long lastSeen = in.readLong();
+		int lastRSSI = in.readInt();
+		int acquisitionTime = in.readInt();
+		int acquisitions = in.readInt();
+
+		return new DeviceInfo(deviceNumber, pages, operatingTime, manufacturerID, serialNumber,
+				hardwareVersion, softwareVersion, modelNumber, lastSeen, lastRSSI, acquisitionTime, acquisitions);
+	}
+
+}
@@ -0,0 +1,217 @@
+package com.hrmon.heartratemonitor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import android.util.Log;
+
+/**
+ * Persistent registry of the HRM sensors seen, keyed by device number.
+ *
+ * The registry is a single file of fixed size records, loaded into memory in the
+ * background when the service starts (or on first use, if that comes first) and
+ * rewritten as a whole when saved (it holds a handful of devices). The file is
+ * only read and written outside the lock, so the main thread never waits on it.
+ */
+public class DeviceRegistry {
+
+	private static final String TAG = "HRMon - Registry";
+
+	/** Registry filename */
+	public static final String REGISTRY_FILE = "devices.dat";
+
+	/** File format identifier ("HRMD") */
+	static final int MAGIC = 0x48524D44;
+
+	/** File format version */
+	static final int VERSION = 1;
+
+	/** Size of the registry file header (bytes) */
+	private static final int HEADER_SIZE = 8;
+
+	/** Registry file */
+	private final File mFile;
+
+	/** Devices by device number (null until loaded) */
+	private HashMap<Integer, DeviceInfo> mDevices;
+
+	/** Flag indicating changes not yet saved */
+	private boolean mDirty = false;
+
+	/** Lock held while saving, so that saves are written in the order they were taken */
+	private final Object mSaveLock = new Object();
+
+	/**
+	 * Constructor
+	 */
+	public DeviceRegistry(File file)
+	{
+		mFile = file;
+	}
+
+	/**
+	 * Get a device.
+	 * @return the device, or null if it has never been seen
+	 */
+	public synchronized DeviceInfo get(int deviceNumber)
+	{
+		return getDevices().get(deviceNumber);
+	}
+
+	/**
+	 * Get all known devices.
+	 */
+	public synchronized List<DeviceInfo> getAll()
+	{
+		return new ArrayList<DeviceInfo>(getDevices().values());
+	}
+
+	/**
+	 * Add or replace a device.
+	 */
+	public synchronized void put(DeviceInfo device)
+	{
+		getDevices().put(device.getDeviceNumber(), device);
+		mDirty = true;
+	}
+
+	/**
+	 * Check if there are changes to save.
+	 */
+	public synchronized boolean isDirty()
+	{
+		return mDirty;
+	}
+
+	/**
+	 * Load the registry, if not yet loaded (from a background job).
+	 */
+	public void load()
+	{
+		synchronized (this) {
+			if (mDevices != null) {
+				return;
+			}
+		}
+
+		HashMap<Integer, DeviceInfo> devices = read();
+
+		synchronized (this) {
+			if (mDevices == null) {
+				mDevices = devices;
+			}
+		}
+	}
+
+	/**
+	 * Save the registry, if it has changed (from a background job).
+	 * The devices are copied under the lock, and written outside it.
+	 * @return false if it could not be saved
+	 */
+	public boolean save()
+	{
+		synchronized (mSaveLock) {
+			ArrayList<DeviceInfo> devices;
+			synchronized (this) {
+				if (!mDirty) {
+					return true;
+				}
+				devices = new ArrayList<DeviceInfo>(mDevices.values());
+				mDirty = false;
+			}
+
+			if (!write(devices)) {
+				// Keep the changes for the next save
+				synchronized (this) {
+					mDirty = true;
+				}
+				return false;
+			}
+
+			return true;
+		}
+	}
+
+	/** Get the devices, loading them now if the background load has not been done */
+	private HashMap<Integer, DeviceInfo> getDevices()
+	{
+		if (mDevices == null) {
+			mDevices = read();
+		}
+
+		return mDevices;
+	}
+
+	/** Write the registry file */
+	private boolean write(List<DeviceInfo> devices)
+	{
+		// Write a new file, then replace the old one, so a failed write leaves the registry intact
+		File temp = new File(mFile.getPath() + ".tmp");
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				for (DeviceInfo device : devices) {
+					device.write(out);
+				}
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "save: Could not write registry", e);
+			return false;
+		}
+
+		if (!temp.renameTo(mFile)) {
+			Log.e(TAG, "save: Could not replace registry");
+			return false;
+		}
+
+		return true;
+	}
+
+	/** Read the registry file */
+	private HashMap<Integer, DeviceInfo> read()
+	{
+		HashMap<Integer, DeviceInfo> devices = new HashMap<Integer, DeviceInfo>();
+
+		if (!mFile.exists()) {
+			return devices;
+		}
+
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+			try {
+				if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+					Log.e(TAG, "read: Unrecognised registry file");
+					return devices;
+				}
+
+				long records = (mFile.length() - HEADER_SIZE) / DeviceInfo.RECORD_SIZE;
+				for (long i = 0; i < records; i++) {
+					DeviceInfo device = DeviceInfo.read(in);
+					devices.put(device.getDeviceNumber(), device);
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "read: Could not read registry", e);
+		}
+
+		Log.i(TAG, "read: " + devices.size() + " known devices");
+
+		return devices;
+	}
+
+}
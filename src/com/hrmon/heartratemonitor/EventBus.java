@@ -0,0 +1,478 @@
+package com.hrmon.heartratemonitor;
+
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.os.Handler;
+
+/**
+ * Publish/subscribe bus for session events (decoded samples, data and state changes).
+ *
+ * Events are written into a preallocated ring; each consumer reads them with its
+ * own cursor, on its own handler's thread, and has a bounded queue (up to the ring
+ * capacity) with a policy for when it falls behind. Events a consumer does not get
+ * are counted as dropped.
+ *
+ * The single producer writes an event into its slot as a sequence lock: the slot
+ * sequence is set to -1, then the fields are written, then the sequence is set to
+ * that of the event, before the cursor is advanced. A reader checks the slot
+ * sequence, copies the fields, then checks the sequence again; if it changed, the
+ * copy may mix two events and is discarded. The fields are volatile too, so that
+ * the copy can neither see a field before the first sequence write, nor be read
+ * after the second sequence check (which plain fields would allow).
+ */
+public class EventBus {
+
+	/** Event types */
+	public enum Type {
+		/** A sample committed to the session data (series, time, value) */
+		SAMPLE,
+		/** New data is available */
+		DATA,
+		/** The state has changed */
+		STATE
+	}
+
+	/** Policies for a consumer that falls behind */
+	public enum Policy {
+		/** The producer waits (up to MAX_BLOCK_NANOS per event) for space in the queue, then drops the oldest */
+		BLOCK,
+		/** The oldest events are dropped */
+		DROP_OLDEST,
+		/** Only the latest event of each type (and sample series) is delivered */
+		COALESCE_LATEST
+	}
+
+	/** Default ring capacity (events) */
+	public static final int DEFAULT_CAPACITY = 256;
+
+	/** Longest wait of the producer for a BLOCK consumer, per event (ns); keeps the decode path within its budget */
+	public static final long MAX_BLOCK_NANOS = 2000000;
+
+	/** Number of coalescing keys (type and sample series) */
+	private static final int KEY_COUNT = Type.values().length * SampleSource.SERIES_COUNT;
+
+	/**
+	 * A bus event.
+	 * Events passed to a listener are reused; copy any field needed after onEvent returns.
+	 */
+	public static class Event {
+
+		/** Sequence number of the event in the slot (-1 while it is being written) */
+		private volatile long mSequence = -1;
+
+		/** Event fields (volatile, so that they are ordered with the sequence; see the class comment) */
+		private volatile Type mType;
+		private volatile int mSeries;
+		private volatile long mTime;
+		private volatile int mValue;
+
+		/** Get the sequence number */
+		public long getSequence()
+		{
+			return mSequence;
+		}
+
+		/** Get the type */
+		public Type getType()
+		{
+			return mType;
+		}
+
+		/** Get the sample series (SAMPLE events) */
+		public int getSeries()
+		{
+			return mSeries;
+		}
+
+		/** Get the time (session timestamp, ms; see {@link Clock#now()}) */
+		public long getTime()
+		{
+			return mTime;
+		}
+
+		/** Get the value */
+		public int getValue()
+		{
+			return mValue;
+		}
+	}
+
+	/**
+	 * Defines the interface of a consumer of the bus
+	 */
+	public interface Listener
+	{
+		public void onEvent(Event event);
+	}
+
+	/**
+	 * A subscription to the bus: the cursor of one listener.
+	 */
+	public class Consumer implements Runnable {
+
+		/** Listener */
+		private final Listener mListener;
+
+		/** Handler of the consumer thread */
+		private final Handler mHandler;
+
+		/** Policy when the consumer falls behind */
+		private final Policy mPolicy;
+
+		/** Queue bound: events published but not yet read (at most the ring capacity) */
+		private final int mLimit;
+
+		/** Sequence number of the next event to read */
+		private volatile long mNext;
+
+		/** Sequence number of the latest event of each coalescing key, in the batch being delivered */
+		private final long[] mLatest;
+
+		/** Copy of the event being delivered */
+		private final Event mEvent = new Event();
+
+		/** Flag indicating that a delivery has been posted */
+		private final AtomicBoolean mScheduled = new AtomicBoolean(false);
+
+		/** Flag indicating that the consumer has unsubscribed */
+		private volatile boolean mClosed = false;
+
+		/** Number of events not delivered (dropped, or coalesced) */
+		private volatile long mDropped = 0;
+
+		/** Largest number of events pending on a delivery */
+		private volatile long mMaxLag = 0;
+
+		/** Time the producer spent waiting for the consumer (ns), and the waits that timed out */
+		private volatile long mBlockedTime = 0;
+		private volatile long mBlockTimeouts = 0;
+
+		/**
+		 * Constructor
+		 */
+		private Consumer(Listener listener, Handler handler, Policy policy, int limit, long next)
+		{
+			mListener = listener;
+			mHandler = handler;
+			mPolicy = policy;
+			mLimit = Math.max(1, Math.min(limit, mRing.length));
+			mNext = next;
+			mLatest = (policy == Policy.COALESCE_LATEST) ? new long[KEY_COUNT] : null;
+		}
+
+		/** Get the policy */
+		public Policy getPolicy()
+		{
+			return mPolicy;
+		}
+
+		/** Get the number of events not delivered (dropped, or coalesced) */
+		public long getDropped()
+		{
+			return mDropped;
+		}
+
+		/** Get the number of events published but not yet read */
+		public long getLag()
+		{
+			return Math.max(mCursor - mNext + 1, 0);
+		}
+
+		/** Get the largest number of events pending on a delivery */
+		public long getMaxLag()
+		{
+			return mMaxLag;
+		}
+
+		/** Get the time the producer spent waiting for the consumer (ns) */
+		public long getBlockedTime()
+		{
+			return mBlockedTime;
+		}
+
+		/** Get the number of producer waits that timed out */
+		public long getBlockTimeouts()
+		{
+			return mBlockTimeouts;
+		}
+
+		/** Post a delivery, unless one is already pending (called by the producer) */
+		private void signal()
+		{
+			if (mScheduled.compareAndSet(false, true)) {
+				mHandler.post(this);
+			}
+		}
+
+		/**
+		 * Wait for space in the queue of a BLOCK consumer before publishing an event (called by the producer).
+		 * Never waits for a consumer on the producer thread, which could not make space.
+		 */
+		private void awaitSpace(long sequence)
+		{
+			if ((sequence - mNext < mLimit) || (mHandler.getLooper().getThread() == Thread.currentThread())) {
+				return;
+			}
+
+			long start = System.nanoTime();
+			long remaining = MAX_BLOCK_NANOS;
+			synchronized (this) {
+				while (!mClosed && (sequence - mNext >= mLimit)) {
+					if (remaining <= 0) {
+						// Give up; the consumer drops its oldest events
+						mBlockTimeouts++;
+						break;
+					}
+					try {
+						wait(remaining / 1000000, (int) (remaining % 1000000));
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+					remaining = MAX_BLOCK_NANOS - (System.nanoTime() - start);
+				}
+			}
+			mBlockedTime += System.nanoTime() - start;
+		}
+
+		/** Deliver the events published since the last delivery */
+		@Override
+		public void run()
+		{
+			mScheduled.set(false);
+
+			long available = mCursor;
+			if (available - mNext + 1 > mMaxLag) {
+				mMaxLag = available - mNext + 1;
+			}
+
+			while (!mClosed && (mNext <= available)) {
+				// Over the queue bound (or lapped by the producer): skip to the oldest event kept
+				int limit = (mPolicy == Policy.COALESCE_LATEST) ? mRing.length : mLimit;
+				if (available - mNext >= limit) {
+					long oldest = available - limit + 1;
+					mDropped += oldest - mNext;
+					mNext = oldest;
+				}
+
+				if (!((mPolicy == Policy.COALESCE_LATEST) ? deliverLatest(available) : deliver(available))) {
+					// Overwritten while reading; catch up with the producer
+					available = mCursor;
+				}
+			}
+		}
+
+		/**
+		 * Deliver the events up to a sequence number, in order.
+		 * @return false if an event was overwritten before it was read
+		 */
+		private boolean deliver(long available)
+		{
+			while (!mClosed && (mNext <= available)) {
+				if (!read(mNext, mEvent)) {
+					return false;
+				}
+
+				advance();
+				mListener.onEvent(mEvent);
+			}
+			return true;
+		}
+
+		/**
+		 * Deliver the latest event of each key up to a sequence number, in order.
+		 * @return false if an event was overwritten before it was read
+		 */
+		private boolean deliverLatest(long available)
+		{
+			Arrays.fill(mLatest, -1);
+			for (long sequence = mNext; sequence <= available; sequence++) {
+				if (!read(sequence, mEvent)) {
+					return false;
+				}
+				mLatest[keyOf(mEvent)] = sequence;
+			}
+
+			while (!mClosed && (mNext <= available)) {
+				if (!read(mNext, mEvent)) {
+					return false;
+				}
+
+				long sequence = mNext;
+				advance();
+				if (mLatest[keyOf(mEvent)] == sequence) {
+					mListener.onEvent(mEvent);
+				} else {
+					mDropped++;
+				}
+			}
+			return true;
+		}
+
+		/** Move past the current event, and let a waiting producer know there is space */
+		private void advance()
+		{
+			mNext++;
+
+			if (mPolicy == Policy.BLOCK) {
+				synchronized (this) {
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	/** Get the coalescing key of an event */
+	private static int keyOf(Event event)
+	{
+		int series = ((event.mSeries >= 0) && (event.mSeries < SampleSource.SERIES_COUNT)) ? event.mSeries : 0;
+
+		return event.mType.ordinal() * SampleSource.SERIES_COUNT + series;
+	}
+
+	/** Event slots */
+	private final Event[] mRing;
+
+	/** Mask of the slot index (capacity - 1) */
+	private final int mMask;
+
+	/** Sequence number of the last published event (-1 if none) */
+	private volatile long mCursor = -1;
+
+	/** Consumers */
+	private final CopyOnWriteArrayList<Consumer> mConsumers = new CopyOnWriteArrayList<Consumer>();
+
+	/**
+	 * Constructor
+	 * @param capacity the ring capacity, rounded up to a power of two
+	 */
+	public EventBus(int capacity)
+	{
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+
+		mRing = new Event[size];
+		for (int i = 0; i < size; i++) {
+			mRing[i] = new Event();
+		}
+		mMask = size - 1;
+	}
+
+	/**
+	 * Subscribe a listener, from the next event published, dropping the oldest events if it falls a ring behind.
+	 * @param listener the listener
+	 * @param handler  the handler of the thread the listener is called on
+	 * @return the consumer (to unsubscribe)
+	 */
+	public Consumer subscribe(Listener listener, Handler handler)
+	{
+		return subscribe(listener, handler, Policy.DROP_OLDEST, mRing.length);
+	}
+
+	/**
+	 * Subscribe a listener, from the next event published.
+	 * @param listener the listener
+	 * @param handler  the handler of the thread the listener is called on
+	 * @param policy   the policy when the listener falls behind
+	 * @param limit    the queue bound (events; at most the ring capacity)
+	 * @return the consumer (to unsubscribe)
+	 */
+	public Consumer subscribe(Listener listener, Handler handler, Policy policy, int limit)
+	{
+		Consumer consumer = new Consumer(listener, handler, policy, limit, mCursor + 1);
+		mConsumers.add(consumer);
+
+		return consumer;
+	}
+
+	/**
+	 * Unsubscribe a consumer; no further events are delivered to it.
+	 */
+	public void unsubscribe(Consumer consumer)
+	{
+		if (consumer == null) {
+			return;
+		}
+
+		consumer.mClosed = true;
+		mConsumers.remove(consumer);
+		consumer.mHandler.removeCallbacks(consumer);
+		synchronized (consumer) {
+			// Release a waiting producer
+			consumer.notifyAll();
+		}
+	}
+
+	/**
+	 * Publish an event (from a single producer thread).
+	 */
+	public void publish(Type type, int series, long time, int value)
+	{
+		long sequence = mCursor + 1;
+		Event slot = mRing[(int) (sequence & mMask)];
+
+		for (Consumer consumer : mConsumers) {
+			if (consumer.mPolicy == Policy.BLOCK) {
+				consumer.awaitSpace(sequence);
+			}
+		}
+
+		// Mark the slot as being written, so readers of the previous event notice;
+		// the fields are written in between the two sequence writes
+		slot.mSequence = -1;
+		slot.mType = type;
+		slot.mSeries = series;
+		slot.mTime = time;
+		slot.mValue = value;
+		slot.mSequence = sequence;
+
+		mCursor = sequence;
+
+		for (Consumer consumer : mConsumers) {
+			consumer.signal();
+		}
+	}
+
+	/**
+	 * Publish an event with no sample.
+	 */
+	public void publish(Type type, long time)
+	{
+		publish(type, 0, time, 0);
+	}
+
+	/** Get the sequence number of the last published event (-1 if none) */
+	public long getCursor()
+	{
+		return mCursor;
+	}
+
+	/** Get the ring capacity */
+	public int getCapacity()
+	{
+		return mRing.length;
+	}
+
+	/**
+	 * Copy an event out of the ring.
+	 * @return false if the event has been overwritten
+	 */
+	private boolean read(long sequence, Event event)
+	{
+		Event slot = mRing[(int) (sequence & mMask)];
+
+		if (slot.mSequence != sequence) {
+			return false;
+		}
+		event.mType = slot.mType;
+		event.mSeries = slot.mSeries;
+		event.mTime = slot.mTime;
+		event.mValue = slot.mValue;
+		event.mSequence = sequence;
+
+		// Still the same event after copying it (not rewritten while the fields were read)
+		return slot.mSequence == sequence;
+	}
+
+}
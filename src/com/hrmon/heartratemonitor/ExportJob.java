@@ -0,0 +1,124 @@
+package com.hrmon.heartratemonitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Background job exporting an archived session to a file.
+ */
+public class ExportJob extends BackgroundJob {
+
+	/** Number of samples between progress updates */
+	private static final int PROGRESS_INTERVAL = 4096;
+
+	/** Archive holding the session */
+	private final SessionArchive mArchive;
+
+	/** Session to export */
+	private final SessionSummary mSummary;
+
+	/** Export format */
+	private final SessionExporter.Format mFormat;
+
+	/** Output file */
+	private final File mFile;
+
+	/**
+	 * Constructor
+	 */
+	public ExportJob(SessionArchive archive, SessionSummary summary, SessionExporter.Format format, File file)
+	{
+		super("Export " + summary.getStartTime() + " (" + format + ")");
+
+		mArchive = archive;
+		mSummary = summary;
+		mFormat = format;
+		mFile = file;
+	}
+
+	/** Get the output file */
+	public File getFile()
+	{
+		return mFile;
+	}
+
+	@Override
+	protected void execute() throws Exception
+	{
+		ArchivedSession session = mArchive.open(mSummary);
+		if (session == null) {
+			throw new IOException("Could not open session " + mSummary.getStartTime());
+		}
+
+		try {
+			SessionExporter exporter = SessionExporter.create(mFormat);
+			exporter.export(new ProgressSource(session, exporter.getSeries()), mFile);
+		} catch (IOException e) {
+			mFile.delete();
+			throw e;
+		} finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Sample source reporting the export progress (over the series the exporter
+	 * visits), and stopping the export when the job is cancelled.
+	 */
+	private class ProgressSource implements SampleSource
+	{
+		private final SampleSource mSource;
+		private final long mTotal;
+		private long mDone = 0;
+
+		ProgressSource(SampleSource source, int[] series)
+		{
+			mSource = source;
+
+			long total = 0;
+			for (int i : series) {
+				total += source.size(i);
+			}
+			mTotal = total;
+		}
+
+		@Override
+		public long getStartTime()
+		{
+			return mSource.getStartTime();
+		}
+
+		@Override
+		public long getDuration()
+		{
+			return mSource.getDuration();
+		}
+
+		@Override
+		public int size(int series)
+		{
+			return mSource.size(series);
+		}
+
+		@Override
+		public void visit(int series, final SampleVisitor visitor) throws IOException
+		{
+			mSource.visit(series, new SampleVisitor() {
+				@Override
+				public void visit(long time, int value) throws IOException
+				{
+					if ((++mDone % PROGRESS_INTERVAL) == 0) {
+						if (isCancelled()) {
+							throw new InterruptedIOException("Export cancelled");
+						}
+						setProgress(mDone, mTotal);
+					}
+
+					visitor.visit(time, value);
+				}
+			});
+		}
+	}
+
+}
@@ -0,0 +1,215 @@
+package com.hrmon.heartratemonitor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Buffered writer of binary and ASCII text data to an NIO channel.
+ *
+ * Numbers and times are encoded straight into the buffer, so that streaming a
+ * series does not allocate per sample.
+ */
+class ExportWriter {
+
+	/** Buffer size (bytes) */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/** Days from 0000-03-01 to 1970-01-01 (proleptic Gregorian) */
+	private static final long DAYS_TO_EPOCH = 719468;
+
+	/** Output channel */
+	private final WritableByteChannel mChannel;
+
+	/** Output buffer */
+	private final ByteBuffer mBuffer;
+
+	/** Decimal digit scratch space */
+	private final byte[] mDigits = new byte[20];
+
+	/** Flag indicating that the FIT CRC is maintained */
+	private final boolean mTrackCrc;
+
+	/** FIT CRC of all data written so far */
+	private int mCrc = 0;
+
+	/** Position in the buffer up to which the CRC is up to date */
+	private int mCrcPosition = 0;
+
+	/** FIT CRC nibble lookup table */
+	private static final int[] CRC_TABLE = {
+		0x0000, 0xCC01, 0xD801, 0x1400, 0xF001, 0x3C00, 0x2800, 0xE401,
+		0xA001, 0x6C00, 0x7800, 0xB401, 0x5000, 0x9C01, 0x8801, 0x4400
+	};
+
+	/**
+	 * Constructor
+	 */
+	ExportWriter(WritableByteChannel channel, ByteOrder order, boolean trackCrc)
+	{
+		mChannel = channel;
+		mTrackCrc = trackCrc;
+		mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		mBuffer.order(order);
+	}
+
+	/** Get the FIT CRC of all data written so far */
+	int getCrc()
+	{
+		updateCrc();
+		return mCrc;
+	}
+
+	/** Make room in the buffer */
+	private void ensure(int bytes) throws IOException
+	{
+		if (mBuffer.remaining() < bytes) {
+			drain();
+		}
+	}
+
+	void putByte(int value) throws IOException
+	{
+		ensure(1);
+		mBuffer.put((byte) value);
+	}
+
+	void putShort(int value) throws IOException
+	{
+		ensure(2);
+		mBuffer.putShort((short) value);
+	}
+
+	void putInt(int value) throws IOException
+	{
+		ensure(4);
+		mBuffer.putInt(value);
+	}
+
+	/** Write an ASCII string */
+	void putAscii(String text) throws IOException
+	{
+		int length = text.length();
+
+		ensure(length);
+		for (int i = 0; i < length; i++) {
+			mBuffer.put((byte) text.charAt(i));
+		}
+	}
+
+	/** Write a number in decimal */
+	void putDecimal(long value) throws IOException
+	{
+		ensure(mDigits.length);
+
+		if (value < 0) {
+			mBuffer.put((byte) '-');
+			value = -value;
+		}
+
+		int count = 0;
+		do {
+			mDigits[count++] = (byte) ('0' + (value % 10));
+			value /= 10;
+		} while (value > 0);
+
+		while (count > 0) {
+			mBuffer.put(mDigits[--count]);
+		}
+	}
+
+	/** Write a number in decimal, zero padded to a width */
+	private void putPadded(long value, int width)
+	{
+		for (int i = width - 1; i >= 0; i--) {
+			mDigits[i] = (byte) ('0' + (value % 10));
+			value /= 10;
+		}
+		mBuffer.put(mDigits, 0, width);
+	}
+
+	/** Write a wall clock time as an ISO 8601 UTC time (e.g. 2012-06-25T09:23:00.000Z) */
+	void putIsoTime(long time) throws IOException
+	{
+		ensure(24);
+
+		long days = time / 86400000;
+		long millis = time % 86400000;
+		if (millis < 0) {
+			days--;
+			millis += 86400000;
+		}
+
+		// Civil date from days since the epoch
+		long z = days + DAYS_TO_EPOCH;
+		long era = (z >= 0 ? z : z - 146096) / 146097;
+		long dayOfEra = z - era * 146097;
+		long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		long monthIndex = (5 * dayOfYear + 2) / 153;
+		long day = dayOfYear - (153 * monthIndex + 2) / 5 + 1;
+		long month = monthIndex < 10 ? monthIndex + 3 : monthIndex - 9;
+		long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+		putPadded(year, 4);
+		mBuffer.put((byte) '-');
+		putPadded(month, 2);
+		mBuffer.put((byte) '-');
+		putPadded(day, 2);
+		mBuffer.put((byte) 'T');
+		putPadded(millis / 3600000, 2);
+		mBuffer.put((byte) ':');
+		putPadded((millis / 60000) % 60, 2);
+		mBuffer.put((byte) ':');
+		putPadded((millis / 1000) % 60, 2);
+		mBuffer.put((byte) '.');
+		putPadded(millis % 1000, 3);
+		mBuffer.put((byte) 'Z');
+	}
+
+	/** Write out the buffered data */
+	void drain() throws IOException
+	{
+		updateCrc();
+
+		mBuffer.flip();
+		while (mBuffer.hasRemaining()) {
+			mChannel.write(mBuffer);
+		}
+		mBuffer.clear();
+		mCrcPosition = 0;
+	}
+
+	/** Update the CRC with the buffered data not yet included */
+	private void updateCrc()
+	{
+		if (!mTrackCrc) {
+			return;
+		}
+
+		int end = mBuffer.position();
+		int crc = mCrc;
+
+		for (int i = mCrcPosition; i < end; i++) {
+			crc = crc(crc, mBuffer.get(i));
+		}
+
+		mCrc = crc;
+		mCrcPosition = end;
+	}
+
+	/** Update a FIT CRC with a byte */
+	static int crc(int crc, int b)
+	{
+		int tmp = CRC_TABLE[crc & 0xF];
+		crc = (crc >> 4) & 0x0FFF;
+		crc = crc ^ tmp ^ CRC_TABLE[b & 0xF];
+		tmp = CRC_TABLE[crc & 0xF];
+		crc = (crc >> 4) & 0x0FFF;
+		crc = crc ^ tmp ^ CRC_TABLE[(b >> 4) & 0xF];
+
+		return crc;
+	}
+
+}
@@ -0,0 +1,174 @@
+package com.hrmon.heartratemonitor;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Exports a session as a Garmin FIT activity file.
+ *
+ * The file holds a file_id message, a record message (timestamp and heart
+ * rate) for each BPM sample and an hrv message for each RR interval.
+ */
+class FitExporter extends SessionExporter {
+
+	/** FIT header size (bytes) */
+	private static final int HEADER_SIZE = 14;
+
+	/** FIT protocol version (1.0) */
+	private static final int PROTOCOL_VERSION = 0x10;
+
+	/** FIT profile version (20.93) */
+	private static final int PROFILE_VERSION = 2093;
+
+	/** Offset of FIT timestamps (1989-12-31T00:00:00Z) from the Unix epoch, in seconds */
+	private static final long FIT_EPOCH_OFFSET = 631065600;
+
+	/** Global message numbers */
+	private static final int MESG_FILE_ID = 0;
+	private static final int MESG_RECORD = 20;
+	private static final int MESG_HRV = 78;
+
+	/** Local message types */
+	private static final int LOCAL_FILE_ID = 0;
+	private static final int LOCAL_RECORD = 1;
+	private static final int LOCAL_HRV = 2;
+
+	/** Record header flag for a definition message */
+	private static final int DEFINITION = 0x40;
+
+	/** Base types */
+	private static final int TYPE_ENUM = 0x00;
+	private static final int TYPE_UINT8 = 0x02;
+	private static final int TYPE_UINT16 = 0x84;
+	private static final int TYPE_UINT32 = 0x86;
+
+	/** File type: activity */
+	private static final int FILE_ACTIVITY = 4;
+
+	/** Manufacturer: development */
+	private static final int MANUFACTURER_DEVELOPMENT = 255;
+
+	/** Message sizes, including the record header (bytes) */
+	private static final int FILE_ID_DEFINITION_SIZE = 6 + 4 * 3;
+	private static final int FILE_ID_SIZE = 1 + 1 + 2 + 2 + 4;
+	private static final int RECORD_DEFINITION_SIZE = 6 + 2 * 3;
+	private static final int RECORD_SIZE = 1 + 4 + 1;
+	private static final int HRV_DEFINITION_SIZE = 6 + 1 * 3;
+	private static final int HRV_SIZE = 1 + 2;
+
+	/** Series written (heart rate records, then RR intervals) */
+	private static final int[] SERIES = { SampleSource.SERIES_BPM, SampleSource.SERIES_RR };
+
+	@Override
+	int[] getSeries()
+	{
+		return SERIES;
+	}
+
+	@Override
+	ExportWriter createWriter(WritableByteChannel channel)
+	{
+		return new ExportWriter(channel, ByteOrder.LITTLE_ENDIAN, true);
+	}
+
+	@Override
+	void write(SampleSource source, final ExportWriter out) throws IOException
+	{
+		// The data size is known up front, so the file can be written in one pass
+		long dataSize = FILE_ID_DEFINITION_SIZE + FILE_ID_SIZE
+				+ RECORD_DEFINITION_SIZE + (long) source.size(SampleSource.SERIES_BPM) * RECORD_SIZE
+				+ HRV_DEFINITION_SIZE + (long) source.size(SampleSource.SERIES_RR) * HRV_SIZE;
+
+		writeHeader(out, (int) dataSize);
+
+		// File ID
+		writeDefinition(out, LOCAL_FILE_ID, MESG_FILE_ID, new int[] {
+				0, 1, TYPE_ENUM,		// type
+				1, 2, TYPE_UINT16,		// manufacturer
+				2, 2, TYPE_UINT16,		// product
+				4, 4, TYPE_UINT32 });	// time_created
+		out.putByte(LOCAL_FILE_ID);
+		out.putByte(FILE_ACTIVITY);
+		out.putShort(MANUFACTURER_DEVELOPMENT);
+		out.putShort(0);
+		out.putInt(toFitTime(source.getStartTime()));
+
+		// Heart rate records
+		writeDefinition(out, LOCAL_RECORD, MESG_RECORD, new int[] {
+				253, 4, TYPE_UINT32,	// timestamp
+				3, 1, TYPE_UINT8 });	// heart_rate
+		source.visit(SampleSource.SERIES_BPM, new SampleVisitor() {
+			@Override
+			public void visit(long time, int value) throws IOException
+			{
+				out.putByte(LOCAL_RECORD);
+				out.putInt(toFitTime(time));
+				out.putByte(Math.min(Math.max(value, 0), 254));
+			}
+		});
+
+		// RR intervals (seconds, scaled by 1000)
+		writeDefinition(out, LOCAL_HRV, MESG_HRV, new int[] {
+				0, 2, TYPE_UINT16 });	// time
+		source.visit(SampleSource.SERIES_RR, new SampleVisitor() {
+			@Override
+			public void visit(long time, int value) throws IOException
+			{
+				out.putByte(LOCAL_HRV);
+				out.putShort(Math.min(Math.max(value, 0), 0xFFFE));
+			}
+		});
+
+		// File CRC (over the header and data)
+		out.putShort(out.getCrc());
+	}
+
+	/** Write the file header */
+	private void writeHeader(ExportWriter out, int dataSize) throws IOException
+	{
+		byte[] header = new byte[HEADER_SIZE - 2];
+		header[0] = (byte) HEADER_SIZE;
+		header[1] = (byte) PROTOCOL_VERSION;
+		header[2] = (byte) PROFILE_VERSION;
+		header[3] = (byte) (PROFILE_VERSION >> 8);
+		header[4] = (byte) dataSize;
+		header[5] = (byte) (dataSize >> 8);
+		header[6] = (byte) (dataSize >> 16);
+		header[7] = (byte) (dataSize >> 24);
+		header[8] = '.';
+		header[9] = 'F';
+		header[10] = 'I';
+		header[11] = 'T';
+
+		int crc = 0;
+		for (int i = 0; i < header.length; i++) {
+			out.putByte(header[i]);
+			crc = ExportWriter.crc(crc, header[i]);
+		}
+		out.putShort(crc);
+	}
+
+	/**
+	 * Write a definition message.
+	 * @param fields   the field definitions (number, size, base type) in order
+	 */
+	private void writeDefinition(ExportWriter out, int localType, int globalMessage, int[] fields) throws IOException
+	{
+		out.putByte(DEFINITION | localType);
+		out.putByte(0);					// Reserved
+		out.putByte(0);					// Architecture (little endian)
+		out.putShort(globalMessage);
+		out.putByte(fields.length / 3);
+		for (int i = 0; i < fields.length; i++) {
+			out.putByte(fields[i]);
+		}
+	}
+
+	/** Convert a wall clock time to a FIT timestamp */
+	private static int toFitTime(long time)
+	{
+		return (int) ((time / 1000) - FIT_EPOCH_OFFSET);
+	}
+
+}
@@ -0,0 +1,44 @@
+package com.hrmon.heartratemonitor;
+
+/**
+ * The data decoded from the latest ANT+ HRM message, with its time.
+ *
+ * The time comes from the radio's RX timestamp when RX timestamps are
+ * enabled, so it does not depend on when the message was handled.
+ */
+class HRMFrame {
+
+	/** RX timestamp value when the message had none */
+	static final int NO_TIMESTAMP = -1;
+
+	/** Previous beat time value when the message had none */
+	static final int NO_BEAT_TIME = -1;
+
+	/** Time of the message (a session clock timestamp) */
+	public long Time;
+
+	/** RX timestamp of the message (1/32768 s), or NO_TIMESTAMP */
+	public int RxTimestamp = NO_TIMESTAMP;
+
+	/** Beat time (1/1024 s) and beat count */
+	public int BeatTime;
+	public int BeatCount;
+
+	/** Previous beat time (1/1024 s, from data page 4), or NO_BEAT_TIME */
+	public int PreviousBeatTime = NO_BEAT_TIME;
+
+	/** Reconstructed time of the latest beat (a session clock timestamp) */
+	public long BeatEventTime;
+
+	/** Latest heart rate, RR interval (ms) and RSSI (dBm) */
+	public int BPM;
+	public int RR;
+	public int RSSI;
+
+	/** Check if the message was timed by the radio */
+	boolean hasRxTimestamp()
+	{
+		return RxTimestamp != NO_TIMESTAMP;
+	}
+
+}
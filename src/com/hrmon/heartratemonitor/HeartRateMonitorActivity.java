@@ -12,6 +12,7 @@ import android.content.ServiceConnection;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.View;
 import android.view.View.OnClickListener;
@@ -25,9 +26,12 @@ public class HeartRateMonitorActivity extends Activity implements SessionManager
 	/** The Log Tag. */
 	public static final String TAG = "HRMon - App";
 
-	/** Update interval */
+	/** Update interval (minimum interval between data refreshes) */
 	public static final long UPDATE_INTERVAL_MILLISEC = 100;
 	
+	/** Clock update interval (the clock shows whole seconds) */
+	public static final long CLOCK_INTERVAL_MILLISEC = 1000;
+	
 	/** Boolean flag to indicate if Heart Rate Monitor Service is bound to this activity. */
 	private boolean mBound;
 	
@@ -36,10 +40,33 @@ public class HeartRateMonitorActivity extends Activity implements SessionManager
 	
 	/** Manager for the session. */
 	private SessionManager mSessionManager;
+	
+	/** Data path instrumentation. */
+	private Instrumentation mInstrumentation;
 
 	/** Handler for timer */
 	private Handler mTimer = new Handler();
 	
+	/** Flag indicating that the activity is in the foreground (rendering is suspended otherwise) */
+	private boolean mVisible = false;
+	
+	/** Flag indicating that new data has not been displayed yet */
+	private boolean mDataChanged = false;
+	
+	/** Flag indicating that a data refresh has been scheduled */
+	private boolean mRefreshPending = false;
+	
+	/** Time of the last data refresh */
+	private long mLastRefreshTime = 0;
+	
+	/** Data widgets (all on the main screen) */
+	private TextView mTextHeart;
+	private TextView mTextSignal;
+	private TextView mTextTime;
+	
+	/** Elapsed time format */
+	private final NumberFormat mTimeFormat = new DecimalFormat("#00");
+	
 	/** ViewFlipper */
 	private ViewFlipper mViewFlipper;
 	
@@ -52,6 +79,9 @@ public class HeartRateMonitorActivity extends Activity implements SessionManager
 	
 	private eDisplayScreen mDisplayScreen = eDisplayScreen.DISP_MAIN;
 	
+	/** Subscription to the session events (while the service is bound). */
+	private EventBus.Consumer mSubscription;
+	
 	/** Bind the service. */
 	private final ServiceConnection mService = new ServiceConnection()
 	{
@@ -60,8 +90,12 @@ public class HeartRateMonitorActivity extends Activity implements SessionManager
 	    {
 	    	mSessionData = null;
 	    	mSessionManager = null;
+	    	mSubscription = null;
+	    	mInstrumentation = null;
 	    	
 	    	mTimer.removeCallbacks(updateTime);
+	    	mTimer.removeCallbacks(refreshData);
+	    	mRefreshPending = false;
 	    	
 	    	Log.i(TAG, "Service disconnected.");
 	    }
@@ -71,10 +105,12 @@ public class HeartRateMonitorActivity extends Activity implements SessionManager
 	    {
 	    	mSessionData = ((HeartRateMonitorService.LocalBinder)service).getSession();
 	    	mSessionManager = ((HeartRateMonitorService.LocalBinder)service).getManager();
+	    	mInstrumentation = ((HeartRateMonitorService.LocalBinder)service).getInstrumentation();
 	    	
-	    	mSessionManager.setCallbacks(HeartRateMonitorActivity.this);
+	    	mSubscription = mSessionManager.subscribe(HeartRateMonitorActivity.this);
 	        
-	        mTimer.postDelayed(updateTime, UPDATE_INTERVAL_MILLISEC);
+	        startClock();
+	        notifyNewData();
 	        
 	        Log.i(TAG, "Service disconnected.");
 	    }
@@ -89,6 +125,9 @@ public class HeartRateMonitorActivity extends Activity implements SessionManager
         setListenerMethods();
         mViewFlipper = (ViewFlipper) findViewById(R.id.index_view_flipper);
         mDisplayScreen = eDisplayScreen.DISP_MAIN;
+        mTextHeart = (TextView) findViewById(R.id.text_heart);
+        mTextSignal = (TextView) findViewById(R.id.text_signal);
+        mTextTime = (TextView) findViewById(R.id.text_time);
 
         displayStatus();
         displayData();
@@ -104,13 +143,39 @@ public class HeartRateMonitorActivity extends Activity implements SessionManager
         super.onStart();
     }
     
+    /** Called when the activity comes to the foreground. */
+    @Override
+    protected void onResume()
+    {
+        super.onResume();
+        
+        // Catch up with what happened while in the background
+        mVisible = true;
+        displayStatus();
+        startClock();
+        notifyNewData();
+    }
+    
+    /** Called when the activity leaves the foreground (e.g. screen off). */
+    @Override
+    protected void onPause()
+    {
+        // Suspend rendering; the session carries on in the service
+        mVisible = false;
+        mTimer.removeCallbacks(updateTime);
+        mTimer.removeCallbacks(refreshData);
+        mRefreshPending = false;
+        
+        super.onPause();
+    }
+    
     /** Called when the activity is stopped. */
     @Override
     protected void onStop()
     {
         if(mSessionManager != null) {
-        	mSessionManager.saveConfiguration(HeartRateMonitorActivity.this);
-            mSessionManager.setCallbacks(null);
+            mSessionManager.unsubscribe(mSubscription);
+            mSubscription = null;
         }
         
         if(mBound) {
@@ -126,14 +191,25 @@ public class HeartRateMonitorActivity extends Activity implements SessionManager
     @Override
     public void notifyStateChanged()
     {
-    	displayStatus();
+    	if (mVisible) {
+    		displayStatus();
+    	}
     }
     
     /** Called when the service reports new incoming data. */
     @Override
     public void notifyNewData()
     {
-    	displayData();
+    	// Refresh at most once per update interval, and only if the data is on screen
+    	mDataChanged = true;
+    	
+    	if (!mVisible || mRefreshPending || (mDisplayScreen != eDisplayScreen.DISP_MAIN)) {
+    		return;
+    	}
+    	
+    	long delay = (mLastRefreshTime + UPDATE_INTERVAL_MILLISEC) - SystemClock.uptimeMillis();
+    	mRefreshPending = true;
+    	mTimer.postDelayed(refreshData, Math.max(0, delay));
     }
     
     /**
@@ -177,23 +253,49 @@ public class HeartRateMonitorActivity extends Activity implements SessionManager
     	alert.show();
     }
     
+    /**
+     * Refresh the displayed data.
+     */
+    private Runnable refreshData = new Runnable() {
+    	public void run() {
+    		mRefreshPending = false;
+    		mLastRefreshTime = SystemClock.uptimeMillis();
+    		
+    		if (mDataChanged) {
+    			mDataChanged = false;
+    			displayData();
+    		}
+    	}
+    };
+    
     /**
      * Update time elapsed.
      */
     private Runnable updateTime = new Runnable() {
     	public void run() {
     		
-    		// Update time every second, if enabled
-	    	
-        	mTimer.postDelayed(this, UPDATE_INTERVAL_MILLISEC);
-	    	
-        	if (mDisplayScreen == eDisplayScreen.DISP_MAIN) {
-        		displayTime(mSessionData.getElapsedTime());
+    		// Update time every second, only while the clock is on screen
+        	if (!mVisible || (mSessionData == null) || (mDisplayScreen != eDisplayScreen.DISP_MAIN)) {
+        		return;
         	}
-
+	    	
+        	long elapsedTime = mSessionData.getElapsedTime();
+        	displayTime(elapsedTime);
+        	
+        	// Next tick when the displayed second changes
+        	mTimer.postDelayed(this, CLOCK_INTERVAL_MILLISEC - (elapsedTime % CLOCK_INTERVAL_MILLISEC));
     	}
     };
     
+    /**
+     * Start (or restart) the clock updates.
+     */
+    private void startClock()
+    {
+    	mTimer.removeCallbacks(updateTime);
+    	mTimer.post(updateTime);
+    }
+    
     /**
      * Display the Heart Rate
      * @param valRR     	value representing the RR interval in the units specified
@@ -213,7 +315,7 @@ public class HeartRateMonitorActivity extends Activity implements SessionManager
      */
     private void displayHR(int valRR, String unitsRR, int valBPM, String unitsBPM)
     {
-    	TextView t = ((TextView)findViewById(R.id.text_heart));
+    	TextView t = mTextHeart;
     	
    		t.setText(
    				valRR + " " + unitsRR + " " +
@@ -239,7 +341,7 @@ public class HeartRateMonitorActivity extends Activity implements SessionManager
      */
     private void displaySignal(int RSSI, String unitsRSSI, int throughput, String unitsThroughput)
     {
-    	TextView t = ((TextView)findViewById(R.id.text_signal));
+    	TextView t = mTextSignal;
     	
 		t.setText(
 			RSSI + " " + unitsRSSI + " " +
@@ -277,8 +379,8 @@ public class HeartRateMonitorActivity extends Activity implements SessionManager
      */
     private void displayTime(int hours, int minutes, int seconds)
     {
-    	TextView t = ((TextView)findViewById(R.id.text_time));
-    	NumberFormat time = new DecimalFormat("#00");
+    	TextView t = mTextTime;
+    	NumberFormat time = mTimeFormat;
     	
 		t.setText(
 			time.format(hours) +
@@ -293,6 +395,7 @@ public class HeartRateMonitorActivity extends Activity implements SessionManager
      */
     private void displayData()
     {
+    	long start = Instrumentation.now();
     	int curRR = 0;
     	int curBPM = 0;
     	long curElapsedTime = 0;
@@ -310,6 +413,10 @@ public class HeartRateMonitorActivity extends Activity implements SessionManager
     	displayHR(curRR, curBPM);
     	displayTime(curElapsedTime);
     	displaySignal(curRSSI, curThroughput);
+    	
+    	if (mInstrumentation != null) {
+    		mInstrumentation.record(Instrumentation.Stage.DISPLAY, start);
+    	}
     }
     
     /**
@@ -421,6 +528,10 @@ public class HeartRateMonitorActivity extends Activity implements SessionManager
     	mViewFlipper.setInAnimation(this, R.anim.in_from_left);
     	mViewFlipper.setOutAnimation(this, R.anim.out_to_right);
     	mViewFlipper.setDisplayedChild(targetIndex);
+    	
+    	// The data widgets are back on screen
+    	startClock();
+    	notifyNewData();
     }
     
     /*
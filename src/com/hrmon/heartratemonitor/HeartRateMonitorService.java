@@ -1,7 +1,7 @@
 package com.hrmon.heartratemonitor;
 
-import android.app.Notification;
-import android.app.PendingIntent;
+import java.io.File;
+
 import android.app.Service;
 import android.content.Intent;
 import android.os.Binder;
@@ -31,6 +31,26 @@ public class HeartRateMonitorService extends Service {
         {
             return mManager;
         }
+        
+        public SessionArchive getArchive()
+        {
+            return mArchive;
+        }
+        
+        public JobExecutor getJobs()
+        {
+            return mJobs;
+        }
+        
+        public Instrumentation getInstrumentation()
+        {
+            return mInstrumentation;
+        }
+        
+        public MetricsSnapshot getMetrics()
+        {
+            return mManager.getMetrics();
+        }
     }
     
     private final LocalBinder mBinder = new LocalBinder();
@@ -43,6 +63,44 @@ public class HeartRateMonitorService extends Service {
     
     /** Manager for the session. */
     private SessionManager mManager;
+    
+    /** Archive of completed sessions. */
+    private SessionArchive mArchive;
+    
+    /** Registry of the sensors seen. */
+    private DeviceRegistry mDevices;
+    
+    /** Executor for background work (e.g. export, archiving). */
+    private JobExecutor mJobs;
+    
+    /** Data path instrumentation. */
+    private Instrumentation mInstrumentation;
+    
+    /** Foreground notification, with the live heart rate. */
+    private LiveNotification mNotification;
+    
+    /** Flag indicating that the service is started (runs with no bound clients). */
+    private boolean mStarted = false;
+    
+    /** Subscription of the service callbacks to the session events. */
+    private EventBus.Consumer mServiceSubscription;
+    
+    /** Service side callbacks: update the notification and stop when idle. */
+    private final SessionManager.Callbacks mServiceCallbacks = new SessionManager.Callbacks()
+    {
+        @Override
+        public void notifyNewData()
+        {
+            mNotification.notifyNewData();
+        }
+        
+        @Override
+        public void notifyStateChanged()
+        {
+            mNotification.notifyStateChanged();
+            stopIfIdle();
+        }
+    };
 	
     @Override
     public IBinder onBind(Intent intent)
@@ -54,6 +112,7 @@ public class HeartRateMonitorService extends Service {
     @Override
     public void onRebind(Intent intent)
     {
+        // Still running (started); nothing to re-initialize
         Log.i(TAG, "Client rebound");
         super.onRebind(intent);
     }
@@ -62,8 +121,10 @@ public class HeartRateMonitorService extends Service {
     public boolean onUnbind(Intent intent)
     {
         Log.i(TAG, "All clients unbound.");
-        // TODO Auto-generated method stub
-        return super.onUnbind(intent);
+        stopIfIdle();
+        
+        // Have onRebind called when a client binds again
+        return true;
     }
 
     @Override
@@ -72,42 +133,86 @@ public class HeartRateMonitorService extends Service {
         Log.i(TAG, "Service created.");
         super.onCreate();
         
-        mConnection = new ConnectionManager();
+        mInstrumentation = new Instrumentation();
+        
+        mConnection = new ConnectionManager(mInstrumentation, Clock.SYSTEM);
         mConnection.start(this);
         
-        mSession = new SessionData();
+        mSession = new SessionData(Clock.SYSTEM);
+        
+        mArchive = new SessionArchive(new File(getFilesDir(), SessionArchive.ARCHIVE_DIR));
+        
+        mDevices = new DeviceRegistry(new File(getFilesDir(), DeviceRegistry.REGISTRY_FILE));
         
-        mManager = new SessionManager(mConnection, mSession);
+        mJobs = new JobExecutor();
+        
+        // Load the known devices in the background, before they are needed
+        if (!mJobs.submit(new RegistryJob(mDevices))) {
+            Log.w(TAG, "onCreate: Devices will be loaded on first use");
+        }
         
-        mManager.loadConfiguration(HeartRateMonitorService.this);
+        mManager = new SessionManager(Clock.SYSTEM, mConnection, mSession, mArchive, mDevices, mJobs, mInstrumentation);
+        
+        mManager.loadConfiguration(new PreferencesStore(getSharedPreferences(SessionManager.PREFS_NAME, 0)));
+        
+        mNotification = new LiveNotification(this, mManager, Clock.SYSTEM);
+        mServiceSubscription = mManager.subscribe(mServiceCallbacks);
     }
 
     @Override
-    public void onStart(Intent intent, int startId)
+    public int onStartCommand(Intent intent, int flags, int startId)
+    {
+        Log.i(TAG, "Service started.");
+        mStarted = true;
+        mNotification.start();
+        
+        // Restarted after being killed (intent is null): nothing to resume unless in use
+        stopIfIdle();
+        
+        // Keep running with no bound clients, while a session or connection is in progress
+        return START_STICKY;
+    }
+    
+    /**
+     * Stop the started service when there is no session in progress and the
+     * channel is not in use. The service is destroyed once all clients are unbound.
+     */
+    private void stopIfIdle()
     {
-        Notification notification = new Notification(R.drawable.ic_notification, getString(R.string.Notify_Started),
-                System.currentTimeMillis());
-        PendingIntent pi = PendingIntent.getActivity(this, 0, new Intent(this, HeartRateMonitorActivity.class),
-                PendingIntent.FLAG_CANCEL_CURRENT);
-        notification.setLatestEventInfo(this, getString(R.string.app_name),
-                getString(R.string.Notify_Started_Body), pi);
-        this.startForeground(NOTIFICATION_ID, notification);
-        super.onStart(intent, startId);
+        if (mStarted && mManager.isIdle()) {
+            Log.i(TAG, "Service idle; stopping.");
+            mStarted = false;
+            mNotification.stop();
+            stopForeground(true);
+            stopSelf();
+        }
     }
 
     @Override
     public void onDestroy()
     {
-    	mManager.setCallbacks(null);
+    	mManager.unsubscribe(mServiceSubscription);
+    	mServiceSubscription = null;
+    	mNotification.stop();
+    	mNotification = null;
+    	mManager.stopSession();
+    	
+    	// The worker completes the queued work (e.g. archiving the last session), then
+    	// saves the configuration and the known devices, without the main thread waiting
+    	mJobs.shutDown(mManager.takeFinalJobs());
+    	mJobs = null;
     	mManager = null;
     	
-    	mSession.stop();
     	mSession = null;
+    	mArchive = null;
+    	mDevices = null;
     	
     	mConnection.setCallbacks(null);
     	mConnection.shutDown();
     	mConnection = null;
     	
+    	mInstrumentation.log();
+    	
         super.onDestroy();
         Log.i(TAG, "Service destroyed.");
     }
@@ -0,0 +1,143 @@
+package com.hrmon.heartratemonitor;
+
+import android.util.Log;
+
+/**
+ * Latency histograms and counters for the data path, from an ANT+ message
+ * arriving to the screen being updated.
+ *
+ * Usage: {@code long start = Instrumentation.now(); ...; record(Stage.DECODE, start);}
+ */
+public class Instrumentation {
+
+	private static final String TAG = "HRMon - Stats";
+
+	/**
+	 * The instrumented stages of the data path.
+	 */
+	public enum Stage
+	{
+		/** Handling of an ANT+ message intent (including decoding) */
+		RX_RECEIVE,
+
+		/** Decoding of an HRM broadcast */
+		DECODE,
+
+		/** Update of the session data */
+		SESSION_UPDATE,
+
+		/** Refresh of the displayed data */
+		DISPLAY,
+		
+		/** Service startup to the first beat */
+		FIRST_BEAT,
+		
+		/** Connect request to tracking data (full open, with ANT reset) */
+		CONNECT,
+		
+		/** Connect request to tracking data (fast reopen, without ANT reset) */
+		RECONNECT
+	}
+
+	/**
+	 * The counted events of the data path.
+	 */
+	public enum Counter
+	{
+		/** ANT+ messages received */
+		RX_MESSAGES,
+
+		/** HRM broadcasts received */
+		RX_BROADCASTS,
+
+		/** New beats decoded */
+		BEATS,
+
+		/** New data notifications delivered to the client */
+		DATA_NOTIFICATIONS
+	}
+
+	/** Stage histograms */
+	private final LatencyHistogram[] mHistograms = new LatencyHistogram[Stage.values().length];
+
+	/** Counters */
+	private final StripedCounter[] mCounters = new StripedCounter[Counter.values().length];
+
+	/**
+	 * Constructor
+	 */
+	public Instrumentation()
+	{
+		for (int i = 0; i < mHistograms.length; i++) {
+			mHistograms[i] = new LatencyHistogram();
+		}
+		for (int i = 0; i < mCounters.length; i++) {
+			mCounters[i] = new StripedCounter();
+		}
+	}
+
+	/** Get the current time for a measurement */
+	public static long now()
+	{
+		return System.nanoTime();
+	}
+
+	/** Record the latency of a stage since its start time */
+	public void record(Stage stage, long start)
+	{
+		mHistograms[stage.ordinal()].record(System.nanoTime() - start);
+	}
+
+	/** Count an event */
+	public void count(Counter counter)
+	{
+		mCounters[counter.ordinal()].increment();
+	}
+
+	/** Get the histogram of a stage */
+	public LatencyHistogram getHistogram(Stage stage)
+	{
+		return mHistograms[stage.ordinal()];
+	}
+
+	/** Get the value of a counter */
+	public long getCount(Counter counter)
+	{
+		return mCounters[counter.ordinal()].get();
+	}
+
+	/** Clear all histograms and counters */
+	public void reset()
+	{
+		for (LatencyHistogram histogram : mHistograms) {
+			histogram.reset();
+		}
+		for (StripedCounter counter : mCounters) {
+			counter.reset();
+		}
+	}
+
+	/** Get a readable summary of all histograms and counters */
+	public String dump()
+	{
+		StringBuilder out = new StringBuilder();
+
+		for (Stage stage : Stage.values()) {
+			out.append(stage).append(": ");
+			mHistograms[stage.ordinal()].dump(out);
+			out.append('\n');
+		}
+		for (Counter counter : Counter.values()) {
+			out.append(counter).append(": ").append(getCount(counter)).append('\n');
+		}
+
+		return out.toString();
+	}
+
+	/** Write the summary to the log */
+	public void log()
+	{
+		Log.i(TAG, dump());
+	}
+
+}
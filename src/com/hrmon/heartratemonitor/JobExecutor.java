@@ -0,0 +1,196 @@
+package com.hrmon.heartratemonitor;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.os.Handler;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Runs heavy work (e.g. export, archiving) on a background worker thread, so
+ * that it never delays the ANT+ message handling on the main thread.
+ *
+ * The work queue is bounded; when it is full, submissions are refused rather
+ * than blocking the caller.
+ */
+public class JobExecutor {
+
+	private static final String TAG = "HRMon - Jobs";
+
+	/** Default work queue capacity */
+	public static final int DEFAULT_QUEUE_CAPACITY = 4;
+
+	/** Worker thread pool (a single, low priority, thread) */
+	private final ThreadPoolExecutor mExecutor;
+
+	/** Jobs run by the worker once the queued jobs are done, after a shut down */
+	private volatile BackgroundJob[] mFinalJobs = new BackgroundJob[0];
+
+	/** Handler for listener notifications (on the creating thread) */
+	private final Handler mHandler = new Handler();
+
+	/**
+	 * Constructor
+	 */
+	public JobExecutor()
+	{
+		this(DEFAULT_QUEUE_CAPACITY);
+	}
+
+	/**
+	 * Constructor
+	 * @param capacity   the work queue capacity
+	 */
+	public JobExecutor(int capacity)
+	{
+		mExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(capacity),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable r)
+					{
+						return new Thread(new Runnable() {
+							@Override
+							public void run()
+							{
+								Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+								r.run();
+							}
+						}, "HRMon - Jobs");
+					}
+				},
+				new ThreadPoolExecutor.AbortPolicy()) {
+			@Override
+			protected void terminated()
+			{
+				runFinalJobs();
+			}
+		};
+		// The worker, rather than the thread shutting down, completes the termination
+		mExecutor.prestartCoreThread();
+	}
+
+	/**
+	 * Submit a job.
+	 * @return true if the job was queued, false if the work queue is full (or
+	 *         the executor has been shut down) and the job should be retried later
+	 */
+	public boolean submit(final BackgroundJob job)
+	{
+		try {
+			mExecutor.execute(new Runnable() {
+				@Override
+				public void run()
+				{
+					Log.d(TAG, "Running " + job.getName());
+					job.run(JobExecutor.this);
+					Log.d(TAG, "Completed " + job);
+					postFinished(job);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			Log.w(TAG, "submit: Work queue full, refused " + job.getName());
+			return false;
+		}
+
+		return true;
+	}
+
+	/** Check if the executor has been shut down (it accepts no new jobs) */
+	public boolean isShutDown()
+	{
+		return mExecutor.isShutdown();
+	}
+
+	/** Get the number of queued (not yet running) jobs */
+	public int getQueuedCount()
+	{
+		return mExecutor.getQueue().size();
+	}
+
+	/** Get the number of free places in the work queue */
+	public int getRemainingCapacity()
+	{
+		return mExecutor.getQueue().remainingCapacity();
+	}
+
+	/**
+	 * Shut down the executor, without waiting. Queued jobs are still run, then the
+	 * final jobs (whatever the queue capacity); no new jobs are accepted. The worker
+	 * is not a daemon thread, so it completes them after the caller has gone.
+	 * @param finalJobs the jobs to run last (e.g. saving state)
+	 */
+	public void shutDown(BackgroundJob... finalJobs)
+	{
+		mFinalJobs = finalJobs;
+		mExecutor.shutdown();
+	}
+
+	/**
+	 * Wait for the jobs queued before the shut down, and the final jobs, to complete.
+	 * @param timeout   the longest wait (ms)
+	 * @return false if the jobs did not complete in time (or the wait was interrupted)
+	 */
+	public boolean awaitTermination(long timeout)
+	{
+		try {
+			return mExecutor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/** Run the final jobs (on the worker, once it has terminated) */
+	private void runFinalJobs()
+	{
+		for (BackgroundJob job : mFinalJobs) {
+			Log.d(TAG, "Running " + job.getName());
+			job.run(this);
+			Log.d(TAG, "Completed " + job);
+		}
+	}
+
+	/** Notify the listener of a job's progress */
+	void postProgress(final BackgroundJob job)
+	{
+		if (job.getListener() == null) {
+			return;
+		}
+
+		mHandler.post(new Runnable() {
+			@Override
+			public void run()
+			{
+				BackgroundJob.Listener listener = job.getListener();
+				if (listener != null) {
+					listener.notifyJobProgress(job);
+				}
+			}
+		});
+	}
+
+	/** Notify the listener of a job's completion */
+	private void postFinished(final BackgroundJob job)
+	{
+		if (job.getListener() == null) {
+			return;
+		}
+
+		mHandler.post(new Runnable() {
+			@Override
+			public void run()
+			{
+				BackgroundJob.Listener listener = job.getListener();
+				if (listener != null) {
+					listener.notifyJobFinished(job);
+				}
+			}
+		});
+	}
+
+}
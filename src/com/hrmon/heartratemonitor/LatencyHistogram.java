@@ -0,0 +1,152 @@
+package com.hrmon.heartratemonitor;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed bucket latency histogram (HDR style: power of two magnitudes, each
+ * split into linear sub-buckets, for a roughly constant relative precision).
+ *
+ * Recording is lock free and does not allocate.
+ */
+public class LatencyHistogram {
+
+	/** Sub-buckets per magnitude (as a power of two); 8 sub-buckets is ~12% precision */
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/** Number of magnitudes */
+	private static final int MAGNITUDES = 32;
+
+	/** Number of buckets */
+	private static final int BUCKETS = SUB_BUCKETS * MAGNITUDES;
+
+	/** Recorded values are in units of 2^UNIT_SHIFT ns (~1us) */
+	private static final int UNIT_SHIFT = 10;
+
+	/** Bucket counts */
+	private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+
+	/** Count, sum and maximum of the recorded values */
+	private final StripedCounter mCount = new StripedCounter();
+	private final StripedCounter mSum = new StripedCounter();
+	private volatile long mMax = 0;
+
+	/** Record a latency in nanoseconds */
+	public void record(long nanos)
+	{
+		if (nanos < 0) {
+			nanos = 0;
+		}
+
+		mCounts.incrementAndGet(indexOf(nanos >> UNIT_SHIFT));
+		mCount.increment();
+		mSum.add(nanos);
+
+		if (nanos > mMax) {
+			mMax = nanos;
+		}
+	}
+
+	/** Get the number of recorded values */
+	public long getCount()
+	{
+		return mCount.get();
+	}
+
+	/** Get the mean of the recorded values (ns) */
+	public long getMean()
+	{
+		long count = mCount.get();
+
+		if (count > 0) {
+			return mSum.get() / count;
+		}
+
+		return 0;
+	}
+
+	/** Get the maximum recorded value (ns) */
+	public long getMax()
+	{
+		return mMax;
+	}
+
+	/**
+	 * Get a percentile of the recorded values (ns).
+	 * The result is the upper bound of the bucket holding the percentile.
+	 * @param percentile   the percentile (0 - 100)
+	 */
+	public long getPercentile(double percentile)
+	{
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += mCounts.get(i);
+		}
+
+		if (total == 0) {
+			return 0;
+		}
+
+		long target = (long) Math.ceil((percentile / 100) * total);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += mCounts.get(i);
+			if ((seen >= target) && (seen > 0)) {
+				return Math.min(((lowerBoundOf(i + 1)) << UNIT_SHIFT) - 1, mMax);
+			}
+		}
+
+		return mMax;
+	}
+
+	/** Clear the recorded values */
+	public void reset()
+	{
+		for (int i = 0; i < BUCKETS; i++) {
+			mCounts.set(i, 0);
+		}
+		mCount.reset();
+		mSum.reset();
+		mMax = 0;
+	}
+
+	/** Append a summary (count, mean, percentiles, max; in microseconds) */
+	public void dump(StringBuilder out)
+	{
+		out.append("n=").append(getCount())
+			.append(" mean=").append(getMean() / 1000)
+			.append(" p50=").append(getPercentile(50) / 1000)
+			.append(" p90=").append(getPercentile(90) / 1000)
+			.append(" p99=").append(getPercentile(99) / 1000)
+			.append(" max=").append(getMax() / 1000)
+			.append(" us");
+	}
+
+	/** Get the bucket index of a value */
+	private static int indexOf(long value)
+	{
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		int index = ((magnitude - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + subBucket;
+
+		return Math.min(index, BUCKETS - 1);
+	}
+
+	/** Get the lowest value of a bucket */
+	private static long lowerBoundOf(int index)
+	{
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+
+		int magnitude = (index >> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+		int subBucket = index & (SUB_BUCKETS - 1);
+
+		return ((long) (SUB_BUCKETS + subBucket)) << (magnitude - SUB_BUCKET_BITS);
+	}
+
+}
@@ -0,0 +1,152 @@
+package com.hrmon.heartratemonitor;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+
+import com.hrmon.heartratemonitor.ConnectionManager.ChannelStates;
+
+/**
+ * The foreground service notification, showing the live heart rate and
+ * elapsed time.
+ *
+ * Updates are rate limited and only posted when the shown text changes;
+ * the notification itself is built once and reused.
+ */
+class LiveNotification implements SessionManager.Callbacks {
+
+	/** Minimum interval between notification updates */
+	static final long UPDATE_INTERVAL_MILLISEC = 5000;
+
+	private final Service mService;
+	private final SessionManager mManager;
+	private final NotificationManager mNotificationManager;
+	private final Clock mClock;
+
+	/** The notification (built once) */
+	private final Notification mNotification;
+	private final PendingIntent mContentIntent;
+	private final String mTitle;
+
+	/** Handler for deferred updates */
+	private final Handler mHandler = new Handler();
+
+	/** Text currently shown */
+	private String mText;
+
+	/** Time of the last update (elapsed realtime, ms) */
+	private long mLastUpdateTime = 0;
+
+	/** Flag indicating that a deferred update has been scheduled */
+	private boolean mUpdatePending = false;
+
+	/** Flag indicating that the notification is shown */
+	private boolean mActive = false;
+
+	/**
+	 * Constructor
+	 */
+	LiveNotification(Service service, SessionManager manager, Clock clock)
+	{
+		mService = service;
+		mManager = manager;
+		mClock = clock;
+		mNotificationManager = (NotificationManager) service.getSystemService(Context.NOTIFICATION_SERVICE);
+
+		mTitle = service.getString(R.string.app_name);
+		mContentIntent = PendingIntent.getActivity(service, 0, new Intent(service, HeartRateMonitorActivity.class),
+				PendingIntent.FLAG_CANCEL_CURRENT);
+		mNotification = new Notification(R.drawable.ic_notification, service.getString(R.string.Notify_Started),
+				clock.currentTimeMillis());
+		mNotification.flags |= Notification.FLAG_ONGOING_EVENT | Notification.FLAG_ONLY_ALERT_ONCE;
+	}
+
+	/** Put the service in the foreground, with this notification */
+	void start()
+	{
+		mText = getText();
+		mNotification.setLatestEventInfo(mService, mTitle, mText, mContentIntent);
+		mService.startForeground(HeartRateMonitorService.NOTIFICATION_ID, mNotification);
+		mLastUpdateTime = mClock.elapsedRealtime();
+		mActive = true;
+	}
+
+	/** Stop updating the notification */
+	void stop()
+	{
+		mActive = false;
+		mHandler.removeCallbacks(mUpdate);
+		mUpdatePending = false;
+	}
+
+	@Override
+	public void notifyNewData()
+	{
+		requestUpdate();
+	}
+
+	@Override
+	public void notifyStateChanged()
+	{
+		requestUpdate();
+	}
+
+	/** Update now, or once the update interval has passed */
+	private void requestUpdate()
+	{
+		if (!mActive || mUpdatePending) {
+			return;
+		}
+
+		long delay = (mLastUpdateTime + UPDATE_INTERVAL_MILLISEC) - mClock.elapsedRealtime();
+		if (delay <= 0) {
+			update();
+		} else {
+			mUpdatePending = true;
+			mHandler.postDelayed(mUpdate, delay);
+		}
+	}
+
+	private final Runnable mUpdate = new Runnable() {
+		@Override
+		public void run()
+		{
+			mUpdatePending = false;
+			update();
+		}
+	};
+
+	/** Post the notification, if its text has changed */
+	private void update()
+	{
+		// The text is checked at most once per interval, changed or not
+		mLastUpdateTime = mClock.elapsedRealtime();
+		String text = getText();
+		if (text.equals(mText)) {
+			return;
+		}
+
+		mText = text;
+		mNotification.setLatestEventInfo(mService, mTitle, mText, mContentIntent);
+		mNotificationManager.notify(HeartRateMonitorService.NOTIFICATION_ID, mNotification);
+	}
+
+	/** Get the notification text from the latest metrics */
+	private String getText()
+	{
+		MetricsSnapshot metrics = mManager.getMetrics();
+
+		if ((metrics.channelState != ChannelStates.TRACKING_DATA) && (metrics.channelState != ChannelStates.TRACKING_STATUS)) {
+			return mService.getString(R.string.Notify_Started_Body);
+		}
+
+		// Elapsed time to the minute; the heart rate drives the updates
+		long minutes = metrics.getElapsedTime(mClock.elapsedRealtime()) / 60000;
+		return mService.getString(R.string.Notify_Live_Body, metrics.lastBPM, (int) (minutes / 60), (int) (minutes % 60));
+	}
+
+}
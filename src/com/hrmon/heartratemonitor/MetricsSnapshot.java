@@ -0,0 +1,149 @@
+package com.hrmon.heartratemonitor;
+
+import com.hrmon.heartratemonitor.ConnectionManager.ChannelStates;
+
+/**
+ * Immutable snapshot of the live session metrics.
+ *
+ * A new snapshot is published (by reference swap) on every update, so any
+ * number of consumers can read a consistent set of values without locking.
+ * Snapshots are versioned; a consumer can skip work when the version is
+ * unchanged.
+ */
+public final class MetricsSnapshot {
+
+	/** Snapshot before any data has been published */
+	public static final MetricsSnapshot EMPTY = new MetricsSnapshot();
+
+	/** Version (incremented on each publish) */
+	public final long version;
+
+	/** Publish time (elapsed realtime, ms) */
+	public final long publishTime;
+
+	/** Channel state */
+	public final ChannelStates channelState;
+
+	/** Session started flag */
+	public final boolean isStarted;
+
+	/** Session elapsed time at the publish time (ms) */
+	public final long elapsedTime;
+
+	/** Latest data */
+	public final int lastRR;
+	public final int lastBPM;
+	public final int lastRSSI;
+
+	/** Packet statistics */
+	public final long packetsReceived;
+	public final long packetsDropped;
+	public final int throughput;
+	public final int searchTimeouts;
+
+	/** Radio quality (rolling throughput, longest dropout, RSSI median and 10th percentile) */
+	public final int rollingThroughput;
+	public final int longestDropoutPackets;
+	public final long longestDropoutTime;
+	public final int rssiMedian;
+	public final int rssiLow;
+
+	/** Session heart rate statistics */
+	public final int beatCount;
+	public final int minBPM;
+	public final int avgBPM;
+	public final int maxBPM;
+
+	/** Instrumentation counters */
+	public final long rxMessages;
+	public final long rxBroadcasts;
+	public final long beats;
+	public final long dataNotifications;
+
+	/** Decode latency (ns) */
+	public final long decodeMean;
+	public final long decodeMax;
+
+	/**
+	 * Constructor (empty snapshot)
+	 */
+	private MetricsSnapshot()
+	{
+		version = 0;
+		publishTime = 0;
+		channelState = ChannelStates.CLOSED;
+		isStarted = false;
+		elapsedTime = 0;
+		lastRR = 0;
+		lastBPM = 0;
+		lastRSSI = 0;
+		packetsReceived = 0;
+		packetsDropped = 0;
+		throughput = 0;
+		searchTimeouts = 0;
+		rollingThroughput = 0;
+		longestDropoutPackets = 0;
+		longestDropoutTime = 0;
+		rssiMedian = 0;
+		rssiLow = 0;
+		beatCount = 0;
+		minBPM = 0;
+		avgBPM = 0;
+		maxBPM = 0;
+		rxMessages = 0;
+		rxBroadcasts = 0;
+		beats = 0;
+		dataNotifications = 0;
+		decodeMean = 0;
+		decodeMax = 0;
+	}
+
+	/**
+	 * Constructor
+	 */
+	MetricsSnapshot(long version, long publishTime, ChannelStates channelState, int searchTimeouts,
+			SessionData session, Instrumentation instrumentation)
+	{
+		this.version = version;
+		this.publishTime = publishTime;
+		this.channelState = channelState;
+		isStarted = session.isStarted();
+		elapsedTime = session.getElapsedTime();
+		lastRR = session.getLastRR();
+		lastBPM = session.getLastBPM();
+		lastRSSI = session.getLastRSSI();
+		packetsReceived = session.getPacketsReceived();
+		packetsDropped = session.getPacketsDropped();
+		throughput = session.getPacketThroughput();
+		this.searchTimeouts = searchTimeouts;
+		rollingThroughput = session.getRollingThroughput();
+		longestDropoutPackets = session.getRadioQuality().getLongestDropoutPackets();
+		longestDropoutTime = session.getRadioQuality().getLongestDropoutTime();
+		rssiMedian = session.getRadioQuality().getRSSIPercentile(50);
+		rssiLow = session.getRadioQuality().getRSSIPercentile(10);
+		beatCount = session.getBeatCount();
+		minBPM = session.getMinBPM();
+		avgBPM = session.getAvgBPM();
+		maxBPM = session.getMaxBPM();
+		rxMessages = instrumentation.getCount(Instrumentation.Counter.RX_MESSAGES);
+		rxBroadcasts = instrumentation.getCount(Instrumentation.Counter.RX_BROADCASTS);
+		beats = instrumentation.getCount(Instrumentation.Counter.BEATS);
+		dataNotifications = instrumentation.getCount(Instrumentation.Counter.DATA_NOTIFICATIONS);
+		decodeMean = instrumentation.getHistogram(Instrumentation.Stage.DECODE).getMean();
+		decodeMax = instrumentation.getHistogram(Instrumentation.Stage.DECODE).getMax();
+	}
+
+	/**
+	 * Get the session elapsed time at a given time (elapsed realtime, ms),
+	 * extrapolated from the publish time while the session is running.
+	 */
+	public long getElapsedTime(long now)
+	{
+		if (isStarted && (now > publishTime)) {
+			return elapsedTime + (now - publishTime);
+		}
+
+		return elapsedTime;
+	}
+
+}
@@ -0,0 +1,33 @@
+package com.hrmon.heartratemonitor;
+
+import android.content.SharedPreferences;
+
+/**
+ * Configuration storage in shared preferences.
+ */
+public class PreferencesStore implements ConfigurationStore {
+
+	/** Shared preferences */
+	private final SharedPreferences mSettings;
+
+	/**
+	 * Constructor
+	 */
+	public PreferencesStore(SharedPreferences settings)
+	{
+		mSettings = settings;
+	}
+
+	@Override
+	public Configuration read()
+	{
+		return Configuration.read(mSettings);
+	}
+
+	@Override
+	public boolean write(Configuration config)
+	{
+		return config.write(mSettings);
+	}
+
+}
@@ -0,0 +1,276 @@
+package com.hrmon.heartratemonitor;
+
+/**
+ * Windowed radio quality metrics over the packet and RSSI data of a session:
+ * rolling throughput, dropouts (runs of dropped packets) and RSSI percentiles.
+ *
+ * All metrics are maintained incrementally, in constant time and space per update.
+ */
+public class RadioQuality {
+
+	/** Default rolling throughput window (seconds) */
+	public static final int DEFAULT_WINDOW_SECONDS = 30;
+
+	/** Number of dropout histogram buckets (1, 2, 3-4, 5-8, ... packets; the last is open ended) */
+	public static final int DROPOUT_BUCKETS = 8;
+
+	/** RSSI range (dBm, signed byte) */
+	private static final int RSSI_MIN = -128;
+	private static final int RSSI_VALUES = 256;
+
+	/** Rolling window length (seconds) */
+	private final int mWindowSeconds;
+
+	/** Per second packet counts (ring buffer) */
+	private final int[] mReceivedBuckets;
+	private final int[] mDroppedBuckets;
+
+	/** Second of the newest bucket */
+	private long mCurrentSecond = Long.MIN_VALUE;
+
+	/** Packet counts within the window */
+	private long mWindowReceived = 0;
+	private long mWindowDropped = 0;
+
+	/** Current dropout (packets and start time), if any */
+	private int mDropoutPackets = 0;
+	private long mDropoutStart = 0;
+
+	/** Longest completed dropout */
+	private int mLongestDropoutPackets = 0;
+	private long mLongestDropoutTime = 0;
+
+	/** Number of completed dropouts, by length */
+	private final int[] mDropouts = new int[DROPOUT_BUCKETS];
+
+	/** RSSI sketch (count of samples at each dBm value) */
+	private final int[] mRSSICounts = new int[RSSI_VALUES];
+	private int mRSSITotal = 0;
+
+	/**
+	 * Constructor
+	 */
+	public RadioQuality()
+	{
+		this(DEFAULT_WINDOW_SECONDS);
+	}
+
+	/**
+	 * Constructor
+	 * @param windowSeconds   the rolling throughput window (seconds)
+	 */
+	public RadioQuality(int windowSeconds)
+	{
+		mWindowSeconds = windowSeconds;
+		mReceivedBuckets = new int[windowSeconds];
+		mDroppedBuckets = new int[windowSeconds];
+	}
+
+	/**
+	 * Add received packets.
+	 * @param time   the time (ms)
+	 */
+	public void addReceived(long time, int packets)
+	{
+		if (packets <= 0) {
+			return;
+		}
+
+		advance(time);
+		mReceivedBuckets[bucketOf(mCurrentSecond)] += packets;
+		mWindowReceived += packets;
+
+		// A received packet ends any dropout
+		if (mDropoutPackets > 0) {
+			endDropout(time);
+		}
+	}
+
+	/**
+	 * Add dropped packets.
+	 * @param time   the time (ms)
+	 */
+	public void addDropped(long time, int packets)
+	{
+		if (packets <= 0) {
+			return;
+		}
+
+		advance(time);
+		mDroppedBuckets[bucketOf(mCurrentSecond)] += packets;
+		mWindowDropped += packets;
+
+		if (mDropoutPackets == 0) {
+			mDropoutStart = time;
+		}
+		mDropoutPackets += packets;
+	}
+
+	/** Add an RSSI sample (dBm) */
+	public void addRSSI(int rssi)
+	{
+		int index = rssi - RSSI_MIN;
+
+		if ((index >= 0) && (index < RSSI_VALUES)) {
+			mRSSICounts[index]++;
+			mRSSITotal++;
+		}
+	}
+
+	/**
+	 * Get the packet throughput (percent) over the rolling window ending at a time.
+	 * The window itself only moves when packets are added.
+	 * @param time   the time (ms)
+	 */
+	public int getThroughput(long time)
+	{
+		long received = mWindowReceived;
+		long dropped = mWindowDropped;
+
+		// Leave out the buckets that have expired by then
+		long second = time / 1000;
+		if ((mCurrentSecond != Long.MIN_VALUE) && (second > mCurrentSecond)) {
+			long steps = Math.min(second - mCurrentSecond, mWindowSeconds);
+			for (long i = 1; i <= steps; i++) {
+				int bucket = bucketOf(mCurrentSecond + i);
+				received -= mReceivedBuckets[bucket];
+				dropped -= mDroppedBuckets[bucket];
+			}
+		}
+
+		long total = received + dropped;
+		if (total > 0) {
+			return (int) ((100 * received) / total);
+		}
+
+		return 0;
+	}
+
+	/** Get the rolling window length (seconds) */
+	public int getWindowSeconds()
+	{
+		return mWindowSeconds;
+	}
+
+	/** Get the length of the current dropout (packets; 0 if none) */
+	public int getCurrentDropoutPackets()
+	{
+		return mDropoutPackets;
+	}
+
+	/** Get the length of the longest completed dropout (packets) */
+	public int getLongestDropoutPackets()
+	{
+		return mLongestDropoutPackets;
+	}
+
+	/** Get the duration of the longest completed dropout (ms) */
+	public long getLongestDropoutTime()
+	{
+		return mLongestDropoutTime;
+	}
+
+	/**
+	 * Get the number of completed dropouts in a histogram bucket.
+	 * Bucket n holds dropouts of 2^(n-1)+1 to 2^n packets (bucket 0: 1 packet);
+	 * the last bucket also holds all longer dropouts.
+	 */
+	public int getDropoutCount(int bucket)
+	{
+		return mDropouts[bucket];
+	}
+
+	/**
+	 * Get an RSSI percentile (dBm).
+	 * @param percentile   the percentile (0 - 100)
+	 */
+	public int getRSSIPercentile(double percentile)
+	{
+		if (mRSSITotal == 0) {
+			return 0;
+		}
+
+		long target = Math.max(1, (long) Math.ceil((percentile / 100) * mRSSITotal));
+		long seen = 0;
+		for (int i = 0; i < RSSI_VALUES; i++) {
+			seen += mRSSICounts[i];
+			if (seen >= target) {
+				return i + RSSI_MIN;
+			}
+		}
+
+		return RSSI_VALUES - 1 + RSSI_MIN;
+	}
+
+	/** Clear all metrics */
+	public void clear()
+	{
+		for (int i = 0; i < mWindowSeconds; i++) {
+			mReceivedBuckets[i] = 0;
+			mDroppedBuckets[i] = 0;
+		}
+		mCurrentSecond = Long.MIN_VALUE;
+		mWindowReceived = 0;
+		mWindowDropped = 0;
+
+		mDropoutPackets = 0;
+		mDropoutStart = 0;
+		mLongestDropoutPackets = 0;
+		mLongestDropoutTime = 0;
+		for (int i = 0; i < DROPOUT_BUCKETS; i++) {
+			mDropouts[i] = 0;
+		}
+
+		for (int i = 0; i < RSSI_VALUES; i++) {
+			mRSSICounts[i] = 0;
+		}
+		mRSSITotal = 0;
+	}
+
+	/** Record the end of the current dropout */
+	private void endDropout(long time)
+	{
+		if (mDropoutPackets > mLongestDropoutPackets) {
+			mLongestDropoutPackets = mDropoutPackets;
+			mLongestDropoutTime = time - mDropoutStart;
+		}
+
+		// Histogram bucket: ceil(log2(packets)), capped
+		int bucket = 32 - Integer.numberOfLeadingZeros(mDropoutPackets - 1);
+		mDropouts[Math.min(bucket, DROPOUT_BUCKETS - 1)]++;
+
+		mDropoutPackets = 0;
+	}
+
+	/** Move the window forward to a time, expiring the buckets that fall out of it */
+	private void advance(long time)
+	{
+		long second = time / 1000;
+
+		if (mCurrentSecond == Long.MIN_VALUE) {
+			mCurrentSecond = second;
+			return;
+		}
+
+		if (second <= mCurrentSecond) {
+			return;
+		}
+
+		long steps = Math.min(second - mCurrentSecond, mWindowSeconds);
+		for (long i = 1; i <= steps; i++) {
+			int bucket = bucketOf(mCurrentSecond + i);
+			mWindowReceived -= mReceivedBuckets[bucket];
+			mWindowDropped -= mDroppedBuckets[bucket];
+			mReceivedBuckets[bucket] = 0;
+			mDroppedBuckets[bucket] = 0;
+		}
+
+		mCurrentSecond = second;
+	}
+
+	private int bucketOf(long second)
+	{
+		return (int) (second % mWindowSeconds);
+	}
+
+}
@@ -0,0 +1,32 @@
+package com.hrmon.heartratemonitor;
+
+import java.io.IOException;
+
+/**
+ * Background job loading the device registry (if not yet loaded), and saving any changes.
+ */
+class RegistryJob extends BackgroundJob {
+
+	/** Registry */
+	private final DeviceRegistry mRegistry;
+
+	/**
+	 * Constructor
+	 */
+	RegistryJob(DeviceRegistry registry)
+	{
+		super("Load/save devices");
+
+		mRegistry = registry;
+	}
+
+	@Override
+	protected void execute() throws Exception
+	{
+		mRegistry.load();
+		if (!mRegistry.save()) {
+			throw new IOException("Could not save the device registry");
+		}
+	}
+
+}
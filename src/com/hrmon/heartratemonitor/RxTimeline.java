@@ -0,0 +1,128 @@
+package com.hrmon.heartratemonitor;
+
+/**
+ * Maps the ANT+ extended data RX timestamps (16 bit, 1/32768 s) of received
+ * messages to elapsed realtime, so that the time of a message does not depend
+ * on when it was delivered (e.g. after event buffering).
+ *
+ * The radio clock is anchored to the first message, then the timestamps are
+ * accumulated (accounting for rollover every 2 s, and for missed periods).
+ * The anchor is moved back whenever a message would otherwise be timed after
+ * its arrival, so it converges on the least delayed delivery.
+ *
+ * The messages of the first batch after anchoring (e.g. a burst of buffered
+ * messages, all arriving at once) are timed provisionally, from the first
+ * message's arrival.
+ * Once the batch has been handled, {@link #settle()} anchors it on its last
+ * message's arrival instead; the caller back-dates the provisional times by
+ * the amount returned.
+ */
+class RxTimeline {
+
+	/** RX timestamp ticks per second */
+	static final int TICKS_PER_SECOND = 32768;
+
+	/** RX timestamp range (ticks) */
+	private static final int TIMESTAMP_RANGE = 0x10000;
+
+	/** Maximum lag of a message behind its arrival before the timeline is re-anchored (ms) */
+	private static final long MAX_LAG_MILLISEC = 60000;
+
+	/** Flag indicating that the timeline is anchored */
+	private boolean mAnchored = false;
+
+	/** Flag indicating that the first batch since the anchor has been settled */
+	private boolean mSettled = false;
+
+	/** Back-dating of the first batch: its latest provisional time after an arrival (ms) */
+	private long mBackdate;
+
+	/** Anchor (elapsed realtime, ms) */
+	private long mAnchorTime;
+
+	/** Ticks accumulated since the anchor */
+	private long mTicks;
+
+	/** Last RX timestamp */
+	private int mLastTimestamp;
+
+	/**
+	 * Get the time of a received message.
+	 * @param timestamp       the RX timestamp (ticks)
+	 * @param arrival         the arrival time (elapsed realtime, ms)
+	 * @param missedPeriods   the number of channel periods missed since the last message
+	 * @param period          the channel period (ticks)
+	 * @return the message time (elapsed realtime, ms)
+	 */
+	long toTime(int timestamp, long arrival, int missedPeriods, int period)
+	{
+		timestamp &= 0xFFFF;
+
+		if (!mAnchored) {
+			anchor(timestamp, arrival);
+			return arrival;
+		}
+
+		// Resolve rollover: choose the delta nearest to the expected interval
+		long delta = (timestamp - mLastTimestamp) & 0xFFFF;
+		long expected = (long) (missedPeriods + 1) * period;
+		while ((expected - delta) > (TIMESTAMP_RANGE / 2)) {
+			delta += TIMESTAMP_RANGE;
+		}
+
+		mTicks += delta;
+		mLastTimestamp = timestamp;
+
+		long time = mAnchorTime + ((mTicks * 1000) / TICKS_PER_SECOND);
+
+		if (!mSettled && (time > arrival)) {
+			// Timed by the first message until the batch is settled
+			mBackdate = Math.max(mBackdate, time - arrival);
+		} else if (time > arrival) {
+			// Cannot have been received after it arrived; move the anchor back
+			mAnchorTime -= (time - arrival);
+			time = arrival;
+		} else if ((arrival - time) > MAX_LAG_MILLISEC) {
+			// Lost track of the radio clock
+			anchor(timestamp, arrival);
+			time = arrival;
+		}
+
+		return time;
+	}
+
+	/**
+	 * Settle the first batch: move the anchor back so that no message of the
+	 * batch is timed after its arrival. Later messages are timed as they arrive.
+	 * @return the time to back-date the provisional times of the batch by (ms)
+	 */
+	long settle()
+	{
+		if (!mAnchored || mSettled) {
+			return 0;
+		}
+
+		long backdate = mBackdate;
+		mAnchorTime -= backdate;
+		mSettled = true;
+		mBackdate = 0;
+		return backdate;
+	}
+
+	/** Forget the anchor (e.g. when the channel is closed) */
+	void reset()
+	{
+		mAnchored = false;
+	}
+
+	private void anchor(int timestamp, long arrival)
+	{
+		mAnchored = true;
+		mAnchorTime = arrival;
+		mTicks = 0;
+		mLastTimestamp = timestamp;
+		mSettled = false;
+		mBackdate = 0;
+	}
+
+}
@@ -0,0 +1,80 @@
+package com.hrmon.heartratemonitor;
+
+/**
+ * Samples staged for a single, later, commit to the session data.
+ * The storage is reused between batches, so staging does not allocate once
+ * the batch has grown to its working size.
+ */
+class SampleBatch {
+
+	/** Initial capacity (samples) */
+	private static final int INITIAL_CAPACITY = 64;
+
+	/** Staged samples (series, time, value) in arrival order */
+	private int[] mSeries = new int[INITIAL_CAPACITY];
+	private long[] mTimes = new long[INITIAL_CAPACITY];
+	private int[] mValues = new int[INITIAL_CAPACITY];
+	private int mSize = 0;
+
+	/** Stage a sample */
+	void add(int series, long time, int value)
+	{
+		if (mSize == mSeries.length) {
+			grow();
+		}
+
+		mSeries[mSize] = series;
+		mTimes[mSize] = time;
+		mValues[mSize] = value;
+		mSize++;
+	}
+
+	int size()
+	{
+		return mSize;
+	}
+
+	int getSeries(int index)
+	{
+		return mSeries[index];
+	}
+
+	long getTime(int index)
+	{
+		return mTimes[index];
+	}
+
+	int getValue(int index)
+	{
+		return mValues[index];
+	}
+
+	/** Move the staged times by an offset (ms) */
+	void shiftTimes(long offset)
+	{
+		for (int i = 0; i < mSize; i++) {
+			mTimes[i] += offset;
+		}
+	}
+
+	void clear()
+	{
+		mSize = 0;
+	}
+
+	private void grow()
+	{
+		int capacity = mSeries.length * 2;
+
+		int[] series = new int[capacity];
+		long[] times = new long[capacity];
+		int[] values = new int[capacity];
+		System.arraycopy(mSeries, 0, series, 0, mSize);
+		System.arraycopy(mTimes, 0, times, 0, mSize);
+		System.arraycopy(mValues, 0, values, 0, mSize);
+		mSeries = series;
+		mTimes = times;
+		mValues = values;
+	}
+
+}
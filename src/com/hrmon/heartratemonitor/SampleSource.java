@@ -0,0 +1,30 @@
+package com.hrmon.heartratemonitor;
+
+import java.io.IOException;
+
+/**
+ * Session data that can be streamed series by series (e.g. for export).
+ */
+public interface SampleSource {
+	
+	/** Series identifiers */
+	public static final int SERIES_RR = 0;
+	public static final int SERIES_BPM = 1;
+	public static final int SERIES_RSSI = 2;
+	public static final int SERIES_RECEIVED_PACKETS = 3;
+	public static final int SERIES_DROPPED_PACKETS = 4;
+	public static final int SERIES_COUNT = 5;
+	
+	/** Get the starting wall clock time */
+	public long getStartTime();
+	
+	/** Get the duration */
+	public long getDuration();
+	
+	/** Get the number of samples in a series */
+	public int size(int series);
+	
+	/** Stream all samples of a series through a visitor */
+	public void visit(int series, SampleVisitor visitor) throws IOException;
+	
+}
@@ -0,0 +1,17 @@
+package com.hrmon.heartratemonitor;
+
+import java.io.IOException;
+
+/**
+ * Receives the samples of a series, in time order.
+ */
+public interface SampleVisitor {
+	
+	/**
+	 * Called for each sample.
+	 * @param time    the sample time in milliseconds
+	 * @param value   the sample value
+	 */
+	public void visit(long time, int value) throws IOException;
+	
+}
@@ -0,0 +1,253 @@
+package com.hrmon.heartratemonitor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.util.Log;
+
+/**
+ * Persistent archive of completed sessions.
+ *
+ * Each session is stored in its own file; a small index of session summaries
+ * allows the history to be browsed without opening the session files.
+ * Session files are read through {@link ArchivedSession}.
+ */
+public class SessionArchive {
+
+	private static final String TAG = "HRMon - Archive";
+
+	/** Archive directory name */
+	public static final String ARCHIVE_DIR = "sessions";
+
+	/** Archive index filename */
+	private static final String INDEX_FILE = "index.dat";
+
+	/** Session filename extension */
+	private static final String SESSION_EXT = ".hrm";
+
+	/** File format identifier ("HRMS") */
+	static final int MAGIC = 0x48524D53;
+
+	/** File format version */
+	static final int VERSION = 1;
+
+	/** Size of a sample record (time + value) in a session file (bytes) */
+	static final int SAMPLE_SIZE = 12;
+
+	/** Size of the session file header (bytes) */
+	static final int HEADER_SIZE = 24 + (SampleSource.SERIES_COUNT * 4);
+
+	/** Size of the index file header (bytes) */
+	private static final int INDEX_HEADER_SIZE = 8;
+
+	/** Archive directory */
+	private final File mDirectory;
+
+	/** Session summaries, loaded from the index on first use */
+	private ArrayList<SessionSummary> mIndex;
+
+	/**
+	 * Constructor
+	 */
+	public SessionArchive(File directory)
+	{
+		mDirectory = directory;
+	}
+
+	/**
+	 * Get the summaries of all archived sessions (oldest first).
+	 */
+	public synchronized List<SessionSummary> getSummaries()
+	{
+		if (mIndex == null) {
+			mIndex = loadIndex();
+		}
+
+		return Collections.unmodifiableList(new ArrayList<SessionSummary>(mIndex));
+	}
+
+	/**
+	 * Archive a session.
+	 * @return the summary of the archived session, or null if it could not be archived
+	 */
+	public synchronized SessionSummary archive(SessionData session)
+	{
+		if (session.getBeatCount() == 0) {
+			// Nothing worth keeping
+			return null;
+		}
+
+		if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+			Log.e(TAG, "archive: Could not create archive directory");
+			return null;
+		}
+
+		SessionSummary summary = SessionSummary.of(session);
+
+		try {
+			writeSession(getSessionFile(summary), session);
+			appendIndex(summary);
+		} catch (IOException e) {
+			Log.e(TAG, "archive: Could not archive session", e);
+			return null;
+		}
+
+		if (mIndex == null) {
+			mIndex = loadIndex();
+		} else {
+			mIndex.add(summary);
+		}
+
+		Log.i(TAG, "archive: Archived session " + summary.getStartTime());
+
+		return summary;
+	}
+
+	/**
+	 * Open an archived session for reading.
+	 * Samples are loaded in pages, on demand, through a cache of the default size.
+	 * @return the session, or null if it could not be opened
+	 */
+	public ArchivedSession open(SessionSummary summary)
+	{
+		return open(summary, ArchivedSession.DEFAULT_CACHE_BYTES);
+	}
+
+	/**
+	 * Open an archived session for reading.
+	 * @param summary      the archived session
+	 * @param cacheLimit   the page cache size (bytes)
+	 * @return the session, or null if it could not be opened
+	 */
+	public ArchivedSession open(SessionSummary summary, long cacheLimit)
+	{
+		try {
+			return new ArchivedSession(summary, getSessionFile(summary), cacheLimit);
+		} catch (IOException e) {
+			Log.e(TAG, "open: Could not open session " + summary.getStartTime(), e);
+			return null;
+		}
+	}
+
+	/** Get the file of an archived session */
+	File getSessionFile(SessionSummary summary)
+	{
+		return new File(mDirectory, summary.getStartTime() + SESSION_EXT);
+	}
+
+	/** Write a session file (a new file, then renamed, so that a failed write leaves no partial session) */
+	private void writeSession(File file, SessionData session) throws IOException
+	{
+		File temp = new File(file.getPath() + ".tmp");
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try {
+				// Header
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(session.getStartTimestamp());
+				out.writeLong(session.getElapsedTime());
+				for (int i = 0; i < SampleSource.SERIES_COUNT; i++) {
+					out.writeInt(session.getSeries(i).size());
+				}
+
+				// Series
+				for (int i = 0; i < SampleSource.SERIES_COUNT; i++) {
+					TimestampedArray<Integer> series = session.getSeries(i);
+					int size = series.size();
+					for (int j = 0; j < size; j++) {
+						out.writeLong(series.getTime(j));
+						out.writeInt(series.get(j));
+					}
+				}
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			temp.delete();
+			throw e;
+		}
+
+		if (!temp.renameTo(file)) {
+			temp.delete();
+			throw new IOException("Could not rename " + temp);
+		}
+	}
+
+	/**
+	 * Append a summary to the index.
+	 * Any partially written trailing record (e.g. from a crash) is cut off first,
+	 * so that the new record stays aligned with the others.
+	 */
+	private void appendIndex(SessionSummary summary) throws IOException
+	{
+		ByteArrayOutputStream record = new ByteArrayOutputStream(INDEX_HEADER_SIZE + SessionSummary.RECORD_SIZE);
+		DataOutputStream out = new DataOutputStream(record);
+
+		RandomAccessFile file = new RandomAccessFile(new File(mDirectory, INDEX_FILE), "rw");
+		try {
+			long length = file.length();
+			if (length < INDEX_HEADER_SIZE) {
+				// New (or truncated) index
+				length = 0;
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+			} else {
+				length -= (length - INDEX_HEADER_SIZE) % SessionSummary.RECORD_SIZE;
+			}
+			summary.write(out);
+
+			file.setLength(length);
+			file.seek(length);
+			file.write(record.toByteArray());
+		} finally {
+			file.close();
+		}
+	}
+
+	/** Load the index */
+	private ArrayList<SessionSummary> loadIndex()
+	{
+		ArrayList<SessionSummary> index = new ArrayList<SessionSummary>();
+		File file = new File(mDirectory, INDEX_FILE);
+
+		if (!file.exists()) {
+			return index;
+		}
+
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+					Log.e(TAG, "loadIndex: Unrecognised index file");
+					return index;
+				}
+
+				// Ignore any partially written trailing record (cut off by the next append)
+				long records = (file.length() - INDEX_HEADER_SIZE) / SessionSummary.RECORD_SIZE;
+				index.ensureCapacity((int) records);
+				for (long i = 0; i < records; i++) {
+					index.add(SessionSummary.read(in));
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "loadIndex: Could not load index", e);
+		}
+
+		return index;
+	}
+
+}
@@ -1,10 +1,10 @@
 package com.hrmon.heartratemonitor;
 
-import android.os.SystemClock;
+import java.io.IOException;
 
-public class SessionData {
+public class SessionData implements SampleSource {
 	
-	/** Time limit (24h) */
+	/** Time limit (12h) */
 	public static final long SESSION_TIMELIMIT_HOURS = 12;
 	public static final long SESSION_TIMELIMIT_MILLISEC = SESSION_TIMELIMIT_HOURS * 3600000;
 	
@@ -14,6 +14,12 @@ public class SessionData {
 	/** Starting elapsed time in milliseconds */
 	private long mStartTime = 0;
 	
+	/** Elapsed time in milliseconds at which the session reaches its time limit */
+	private long mDeadline = 0;
+	
+	/** Starting wall clock time in milliseconds */
+	private long mStartTimestamp = 0;
+	
 	/** Starting elapsed time in milliseconds */
 	private long mElapsedTime = 0;
 	
@@ -29,6 +35,18 @@ public class SessionData {
 	/** Current packet throughput */
 	private int mThroughput = 0;
 	
+	/** Minimum BPM in this session */
+	private int mMinBPM = 0;
+	
+	/** Maximum BPM in this session */
+	private int mMaxBPM = 0;
+	
+	/** Sum of all BPMs in this session (for the average) */
+	private long mSumBPM = 0;
+	
+	/** Windowed radio quality metrics */
+	private final RadioQuality mRadioQuality = new RadioQuality();
+	
 	/** RR data */
 	private TimestampedArray<Integer> mRR = new TimestampedArray<Integer>();
 	
@@ -44,6 +62,15 @@ public class SessionData {
 	/** Received packet status data */
 	private TimestampedArray<Integer> mReceivedPackets = new TimestampedArray<Integer>();
 	
+	/** Clock of the session times */
+	private final Clock mClock;
+	
+	/** Constructor (timed, and timestamped, by the given clock) */
+	public SessionData(Clock clock)
+	{
+		mClock = clock;
+	}
+	
 	/** Get the started flag state */
 	public boolean isStarted()
 	{
@@ -54,12 +81,18 @@ public class SessionData {
 	public long getElapsedTime()
 	{
 		if (mIsStarted) {
-			mElapsedTime = (SystemClock.elapsedRealtime() - mStartTime);
+			mElapsedTime = (mClock.elapsedRealtime() - mStartTime);
 		}
 		
 		return mElapsedTime;
 	}
 	
+	/** Get the starting wall clock time */
+	public long getStartTimestamp()
+	{
+		return mStartTimestamp;
+	}
+	
 	/** Get the current received packets counter */
 	public long getPacketsReceived()
 	{
@@ -84,6 +117,18 @@ public class SessionData {
 		return mThroughput;
 	}
 	
+	/** Get the windowed radio quality metrics */
+	public RadioQuality getRadioQuality()
+	{
+		return mRadioQuality;
+	}
+	
+	/** Get the packet throughput over the radio quality window */
+	public int getRollingThroughput()
+	{
+		return mRadioQuality.getThroughput(mClock.now());
+	}
+	
 	/** Get the last RR */
 	public int getLastRR()
 	{
@@ -120,6 +165,84 @@ public class SessionData {
 		return val;
 	}
 	
+	/** Get the number of beats */
+	public int getBeatCount()
+	{
+		return mBPM.size();
+	}
+	
+	/** Get the minimum BPM */
+	public int getMinBPM()
+	{
+		return mMinBPM;
+	}
+	
+	/** Get the maximum BPM */
+	public int getMaxBPM()
+	{
+		return mMaxBPM;
+	}
+	
+	/** Get the average BPM */
+	public int getAvgBPM()
+	{
+		if (mBPM.size() > 0) {
+			return (int)(mSumBPM / mBPM.size());
+		}
+		
+		return 0;
+	}
+	
+	/** Get a series (without copying) */
+	TimestampedArray<Integer> getSeries(int series)
+	{
+		switch (series) {
+		case SERIES_RR:
+			return mRR;
+		case SERIES_BPM:
+			return mBPM;
+		case SERIES_RSSI:
+			return mRSSI;
+		case SERIES_RECEIVED_PACKETS:
+			return mReceivedPackets;
+		case SERIES_DROPPED_PACKETS:
+			return mDroppedPackets;
+		}
+		
+		throw new IllegalArgumentException("Unknown series " + series);
+	}
+	
+	// SampleSource implementations
+	
+	@Override
+	public long getStartTime()
+	{
+		return getStartTimestamp();
+	}
+	
+	@Override
+	public long getDuration()
+	{
+		return getElapsedTime();
+	}
+	
+	@Override
+	public int size(int series)
+	{
+		return getSeries(series).size();
+	}
+	
+	@Override
+	public void visit(int series, SampleVisitor visitor) throws IOException
+	{
+		TimestampedArray<Integer> values = getSeries(series);
+		int size = values.size();
+		
+		for (int i = 0; i < size; i++) {
+			visitor.visit(values.getTime(i), values.get(i));
+		}
+	}
+	
 	/** Get the RRs */
 	public Integer[] getRRs()
 	{
@@ -182,46 +305,81 @@ public class SessionData {
 	
 	/** Add a new RR to the session data */
 	public void addRR(int curRR)
+	{
+		addRR(curRR, mClock.now());
+	}
+	
+	/** Add a new RR, received at the given time, to the session data */
+	public void addRR(int curRR, long time)
 	{
 		checkTimeLimit();
 		
 		if (mIsStarted) {
-			mRR.add(curRR);
+			mRR.add(curRR, time);
 		}
 	}
 	
 	/** Add a new BPM to the session data */
 	public void addBPM(int curBPM)
+	{
+		addBPM(curBPM, mClock.now());
+	}
+	
+	/** Add a new BPM, received at the given time, to the session data */
+	public void addBPM(int curBPM, long time)
 	{
 		checkTimeLimit();
 		
 		if (mIsStarted) {
-			mBPM.add(curBPM);
+			mBPM.add(curBPM, time);
+			
+			// Update the BPM statistics
+			if ((mBPM.size() == 1) || (curBPM < mMinBPM)) {
+				mMinBPM = curBPM;
+			}
+			if ((mBPM.size() == 1) || (curBPM > mMaxBPM)) {
+				mMaxBPM = curBPM;
+			}
+			mSumBPM += curBPM;
 		}
 	}
 	
 	/** Add a new RSSI to the session data */
 	public void addRSSI(int curRSSI)
+	{
+		addRSSI(curRSSI, mClock.now());
+	}
+	
+	/** Add a new RSSI, received at the given time, to the session data */
+	public void addRSSI(int curRSSI, long time)
 	{
 		checkTimeLimit();
 		
 		if (mIsStarted) {
-			mRSSI.add(curRSSI);
+			mRSSI.add(curRSSI, time);
+			mRadioQuality.addRSSI(curRSSI);
 		}
 	}
 	
 	/** Add the packets received */
 	public void addPacketsReceived(int packetsReceived)
+	{
+		addPacketsReceived(packetsReceived, mClock.now());
+	}
+	
+	/** Add the packets received at the given time */
+	public void addPacketsReceived(int packetsReceived, long time)
 	{
 		checkTimeLimit();
 		
 		if (mIsStarted) {
 			// Add the number of received packets to the packet status data
-			mReceivedPackets.add(packetsReceived);
+			mReceivedPackets.add(packetsReceived, time);
 			
 			// Add the number of received packets to the counter
 			mPacketsReceived += packetsReceived;
 			mTotalPackets += packetsReceived;
+			mRadioQuality.addReceived(time, packetsReceived);
 			
 			// Update the throughput
 			updateThroughput();
@@ -230,16 +388,23 @@ public class SessionData {
 	
 	/** Add the packets dropped */
 	public void addPacketsDropped(int packetsDropped)
+	{
+		addPacketsDropped(packetsDropped, mClock.now());
+	}
+	
+	/** Add the packets dropped at the given time */
+	public void addPacketsDropped(int packetsDropped, long time)
 	{
 		checkTimeLimit();
 		
 		if (mIsStarted) {
 			// Add the number of dropped packets to the packet status data
-			mDroppedPackets.add(packetsDropped);
+			mDroppedPackets.add(packetsDropped, time);
 			
 			// Add the number of dropped packets to the counter
 			mPacketsDropped += packetsDropped;
 			mTotalPackets += packetsDropped;
+			mRadioQuality.addDropped(time, packetsDropped);
 			
 			// Update the throughput
 			updateThroughput();
@@ -262,11 +427,16 @@ public class SessionData {
 		mIsStarted = true;
 		
 		// Set the start time
-		mStartTime = SystemClock.elapsedRealtime();
+		mStartTime = mClock.elapsedRealtime();
+		mStartTimestamp = mClock.currentTimeMillis();
+		mDeadline = mStartTime + SESSION_TIMELIMIT_MILLISEC;
 	}
 
 	/** Stop session */
 	public void stop() {
+		// Freeze the elapsed time
+		getElapsedTime();
+		
 		// Clear the start flag
 		mIsStarted = false;
 	}
@@ -278,21 +448,54 @@ public class SessionData {
 		mPacketsDropped = 0;
 		mTotalPackets = 0;
 		mThroughput = 0;
+		mMinBPM = 0;
+		mMaxBPM = 0;
+		mSumBPM = 0;
+		mRadioQuality.clear();
 		
-		// Clear arrays
-		mRR.clear();
-		mBPM.clear();
-		mRSSI.clear();
-		mReceivedPackets.clear();
-		mDroppedPackets.clear();
+		// Replace (rather than clear) arrays, as they may still be shared by a snapshot
+		mRR = new TimestampedArray<Integer>();
+		mBPM = new TimestampedArray<Integer>();
+		mRSSI = new TimestampedArray<Integer>();
+		mReceivedPackets = new TimestampedArray<Integer>();
+		mDroppedPackets = new TimestampedArray<Integer>();
+	}
+	
+	/**
+	 * Snapshot of the (stopped) session, sharing its data arrays.
+	 * The snapshot stays valid after the session is cleared, so it can be
+	 * handed to another thread (e.g. for archiving).
+	 */
+	SessionData snapshot() {
+		SessionData result = new SessionData(mClock);
+		
+		result.mStartTime = mStartTime;
+		result.mDeadline = mDeadline;
+		result.mStartTimestamp = mStartTimestamp;
+		result.mElapsedTime = getElapsedTime();
+		result.mPacketsReceived = mPacketsReceived;
+		result.mPacketsDropped = mPacketsDropped;
+		result.mTotalPackets = mTotalPackets;
+		result.mThroughput = mThroughput;
+		result.mMinBPM = mMinBPM;
+		result.mMaxBPM = mMaxBPM;
+		result.mSumBPM = mSumBPM;
+		result.mRR = mRR;
+		result.mBPM = mBPM;
+		result.mRSSI = mRSSI;
+		result.mReceivedPackets = mReceivedPackets;
+		result.mDroppedPackets = mDroppedPackets;
+		
+		return result;
 	}
 	
 	/** Check time limit */
 	public void checkTimeLimit() {
-		if (mIsStarted) {
-			if (getElapsedTime() >= SESSION_TIMELIMIT_MILLISEC) {
-				stop();
-			}
+		if (mIsStarted && (mClock.elapsedRealtime() >= mDeadline)) {
+			stop();
+			
+			// The session ended at its limit, rather than at the first sample after it
+			mElapsedTime = SESSION_TIMELIMIT_MILLISEC;
 		}
 	}
 	
@@ -0,0 +1,87 @@
+package com.hrmon.heartratemonitor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Exports session data to a file.
+ *
+ * Exporters stream the series straight from the source into a buffered
+ * channel; no intermediate copies of the series are made.
+ */
+public abstract class SessionExporter {
+
+	/**
+	 * The supported export formats.
+	 */
+	public enum Format
+	{
+		/** Comma separated values (all series) */
+		CSV("csv"),
+
+		/** Garmin FIT (heart rate records and RR intervals) */
+		FIT("fit"),
+
+		/** Garmin Training Center XML (heart rate track) */
+		TCX("tcx");
+
+		private final String mExtension;
+
+		private Format(String extension)
+		{
+			mExtension = extension;
+		}
+
+		/** Get the filename extension */
+		public String getExtension()
+		{
+			return mExtension;
+		}
+	}
+
+	/**
+	 * Create an exporter for a format.
+	 */
+	public static SessionExporter create(Format format)
+	{
+		switch (format) {
+		case FIT:
+			return new FitExporter();
+		case TCX:
+			return new TcxExporter();
+		default:
+			return new CsvExporter();
+		}
+	}
+
+	/**
+	 * Export session data to a file.
+	 */
+	public void export(SampleSource source, File file) throws IOException
+	{
+		FileOutputStream stream = new FileOutputStream(file);
+		try {
+			ExportWriter out = createWriter(stream.getChannel());
+			write(source, out);
+			out.drain();
+		} finally {
+			stream.close();
+		}
+	}
+
+	/** Create the writer for the output channel */
+	ExportWriter createWriter(WritableByteChannel channel)
+	{
+		return new ExportWriter(channel, ByteOrder.BIG_ENDIAN, false);
+	}
+
+	/** Get the series written (each visited once, in this order) */
+	abstract int[] getSeries();
+
+	/** Write the session data */
+	abstract void write(SampleSource source, ExportWriter out) throws IOException;
+
+}
@@ -1,9 +1,12 @@
 package com.hrmon.heartratemonitor;
 
+import com.hrmon.heartratemonitor.ConnectionManager.ChannelPeriod;
 import com.hrmon.heartratemonitor.ConnectionManager.ChannelStates;
 
-import android.content.Context;
-import android.content.SharedPreferences;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.os.Handler;
 import android.util.Log;
 
 public class SessionManager implements ConnectionManager.Callbacks {
@@ -15,19 +18,80 @@ public class SessionManager implements ConnectionManager.Callbacks {
     
 	/** Data handler for the monitor session. */
     private SessionData mSession;
+    
+    /** Archive of completed sessions. */
+    private SessionArchive mArchive;
+    
+    /** Executor for background work. */
+    private JobExecutor mJobs;
+    
+    /** Registry of the sensors seen. */
+    private DeviceRegistry mDevices;
+    
+    /** Acquisition time (ms) of a device whose number is not yet known, or -1. */
+    private int mPendingAcquisition = -1;
+    
+    /** Flag indicating that the HRM channel is tracking data. */
+    private boolean mTracking = false;
+    
+    /** Data path instrumentation. */
+    private Instrumentation mInstrumentation;
+    
+    /** Clock of the session (and of its events). */
+    private final Clock mClock;
+    
+    /** Latest published metrics (replaced, never modified). */
+    private volatile MetricsSnapshot mMetrics = MetricsSnapshot.EMPTY;
+    
+    /** Time the manager (i.e. the service) was created, until the first beat. */
+    private long mStartupTime;
+    
+    /** Flag indicating that a beat has been received. */
+    private boolean mHasBeat = false;
+    
+    /** Time of the pending connect request (0 if none), and the stage measuring it. */
+    private long mConnectTime = 0;
+    private Instrumentation.Stage mConnectStage;
+    
+    /** Flag indicating that the session data has not yet been archived. */
+    private boolean mArchivePending = false;
+    
+    /** Samples decoded from buffered messages, not yet committed to the session data. */
+    private final SampleBatch mBatch = new SampleBatch();
+    
+    /** Flag indicating that a batch commit has been scheduled. */
+    private boolean mCommitPending = false;
+    
+    /** Handler for the batch commits (on the creating thread). */
+    private final Handler mHandler = new Handler();
+    
+    /** Delay from the first message of a burst of buffered messages to its commit. */
+    private static final long BATCH_COMMIT_DELAY_MILLISEC = 50;
     	
 	/** Pair to any device. */
 	static final short WILDCARD = 0;
 	   
-	/** The default proximity search bin. */
-	private static final byte DEFAULT_BIN = 7;
-	
-	/** The default event buffering buffer threshold. */
-	private static final short DEFAULT_BUFFER_THRESHOLD = 0;
-	   
 	/** Shared preferences data filename. */
 	public static final String PREFS_NAME = "HRMonPrefs";
 	
+	/** Delay from a configuration change to its write, so that changes in quick succession are written once. */
+	private static final long CONFIG_SAVE_DELAY_MILLISEC = 1000;
+	
+	/** Delay before submitting again a job refused by the full work queue. */
+	private static final long JOB_RETRY_DELAY_MILLISEC = 1000;
+	
+	/** Snapshots of the sessions to archive, refused by the full work queue. */
+	private final List<SessionData> mArchiveRetries = new ArrayList<SessionData>();
+	
+	/** Current configuration (replaced, never modified). */
+	private volatile Configuration mConfig = Configuration.DEFAULT;
+	
+	/** Configuration as last written to the shared preferences. */
+	private Configuration mSavedConfig;
+	
+	/** Storage of the configuration (null until loaded). */
+	private ConfigurationStore mStore;
+	
     /**
      * Defines the interface needed to work with all call backs this class makes
      */
@@ -37,21 +101,58 @@ public class SessionManager implements ConnectionManager.Callbacks {
         public void notifyStateChanged();
     }
     
-    /** Callback sink. */
-    private Callbacks mCallbackSink;
+    /** Bus of the session events, for any number of consumers. */
+    private final EventBus mBus = new EventBus(EventBus.DEFAULT_CAPACITY);
     
-    public void setCallbacks(Callbacks callbacks)
+    public EventBus getEventBus()
     {
-        mCallbackSink = callbacks;
+        return mBus;
+    }
+    
+    /**
+     * Subscribe callbacks to the data and state changes (called on this thread).
+     * A slow consumer is only told of the latest change of each kind.
+     * @return the consumer (to unsubscribe)
+     */
+    public EventBus.Consumer subscribe(final Callbacks callbacks)
+    {
+        return mBus.subscribe(new EventBus.Listener() {
+        	@Override
+        	public void onEvent(EventBus.Event event)
+        	{
+        		switch (event.getType()) {
+        		case DATA:
+        			callbacks.notifyNewData();
+        			break;
+        		case STATE:
+        			callbacks.notifyStateChanged();
+        			break;
+        		}
+        	}
+        }, mHandler, EventBus.Policy.COALESCE_LATEST, EventBus.DEFAULT_CAPACITY);
+    }
+    
+    /**
+     * Unsubscribe callbacks (or any other consumer).
+     */
+    public void unsubscribe(EventBus.Consumer consumer)
+    {
+        mBus.unsubscribe(consumer);
     }
     
     /**
      * Constructor
      */
-    public SessionManager(ConnectionManager connection, SessionData session)
+    public SessionManager(Clock clock, ConnectionManager connection, SessionData session, SessionArchive archive, DeviceRegistry devices, JobExecutor jobs, Instrumentation instrumentation)
     {
+    	mClock = clock;
     	mConnection = connection;
     	mSession = session;
+    	mArchive = archive;
+    	mDevices = devices;
+    	mJobs = jobs;
+    	mInstrumentation = instrumentation;
+    	mStartupTime = Instrumentation.now();
     	
         mConnection.setCallbacks(SessionManager.this);
     }
@@ -64,6 +165,35 @@ public class SessionManager implements ConnectionManager.Callbacks {
     	return mConnection.getHrmState();
     }
     
+    /**
+     * Check if there is nothing to keep the service running for
+     * (no session in progress and the channel is not in use).
+     */
+    public boolean isIdle()
+    {
+    	return !mSession.isStarted() && !mConnection.isChannelOpen(ConnectionManager.HRM_CHANNEL)
+    			&& !mConnection.isReacquiring();
+    }
+    
+    /**
+     * Get the latest metrics snapshot.
+     * Safe to call from any thread; the snapshot is immutable.
+     */
+    public MetricsSnapshot getMetrics()
+    {
+    	return mMetrics;
+    }
+    
+    /**
+     * Publish a new metrics snapshot.
+     */
+    private void publishMetrics()
+    {
+    	mMetrics = new MetricsSnapshot(mMetrics.version + 1, mClock.elapsedRealtime(),
+    			mConnection.getHrmState(), mConnection.getCounters().getSearchTimeouts(ConnectionManager.HRM_CHANNEL),
+    			mSession, mInstrumentation);
+    }
+    
     /**
      * Get connection state text.
      */
@@ -77,30 +207,110 @@ public class SessionManager implements ConnectionManager.Callbacks {
     }
     
     /**
-     * Store application persistent data.
+     * Retrieve application persistent data (once, when the service starts).
+     */
+    public void loadConfiguration(ConfigurationStore store)
+    {
+    	Configuration config;
+    	synchronized (this) {
+    		mStore = store;
+    		mSavedConfig = store.read();
+    		config = mSavedConfig;
+    	}
+    	mConfig = config;
+    	applyConfiguration(config);
+    }
+    
+    /**
+     * Cancel the delayed saves and retries, and get the jobs doing them instead (the
+     * final jobs of the executor, when shutting down): archiving the sessions not yet
+     * archived, then writing the configuration and saving the devices, if changed.
+     */
+    public BackgroundJob[] takeFinalJobs()
+    {
+    	mHandler.removeCallbacks(mSaveConfiguration);
+    	mHandler.removeCallbacks(mSaveDevices);
+    	mHandler.removeCallbacks(mRetryArchives);
+    	
+    	List<BackgroundJob> jobs = new ArrayList<BackgroundJob>();
+    	for (SessionData snapshot : mArchiveRetries) {
+    		jobs.add(new ArchiveJob(mArchive, snapshot));
+    	}
+    	mArchiveRetries.clear();
+    	jobs.add(new ConfigurationJob(this));
+    	jobs.add(new RegistryJob(mDevices));
+    	
+    	return jobs.toArray(new BackgroundJob[jobs.size()]);
+    }
+    
+    /**
+     * Write the current configuration, if it has changed (from a background job).
+     * @return false if it could not be written
      */
-    public void saveConfiguration(Context C)
+    synchronized boolean writeConfiguration()
     {
-       // Save current Channel Id in preferences
-       // We need an Editor object to make changes
-       SharedPreferences settings = C.getSharedPreferences(PREFS_NAME, 0);
-       SharedPreferences.Editor editor = settings.edit();
-       editor.putInt("DeviceNumberHRM", mConnection.getDeviceNumberHRM());
-       editor.putInt("ProximityThreshold", mConnection.getProximityThreshold());
-       editor.putInt("BufferThreshold", mConnection.getBufferThreshold());
-       editor.commit();
+    	Configuration config = mConfig;
+    	if ((mStore == null) || config.equals(mSavedConfig)) {
+    		return true;
+    	}
+    	
+    	if (!mStore.write(config)) {
+    		return false;
+    	}
+    	mSavedConfig = config;
+    	return true;
     }
     
     /**
-     * Retrieve application persistent data.
+     * Get the current configuration.
      */
-    public void loadConfiguration(Context C)
+    public Configuration getConfiguration()
     {
-       // Restore preferences
-       SharedPreferences settings = C.getSharedPreferences(PREFS_NAME, 0);
-       mConnection.setDeviceNumberHRM((short) settings.getInt("DeviceNumberHRM", WILDCARD));
-       mConnection.setProximityThreshold((byte) settings.getInt("ProximityThreshold", DEFAULT_BIN));
-       mConnection.setBufferThreshold((short) settings.getInt("BufferThreshold", DEFAULT_BUFFER_THRESHOLD));       
+    	return mConfig;
+    }
+    
+    /**
+     * Replace the configuration; it is written in the background shortly after.
+     * Changes to the channel settings are applied when the channel is next opened
+     * (or by setAntConfiguration).
+     */
+    public void setConfiguration(Configuration config)
+    {
+    	if (config.equals(mConfig)) {
+    		return;
+    	}
+    	
+    	mConfig = config;
+    	applyConfiguration(config);
+    	
+    	mHandler.removeCallbacks(mSaveConfiguration);
+    	mHandler.postDelayed(mSaveConfiguration, CONFIG_SAVE_DELAY_MILLISEC);
+    }
+    
+    /**
+     * Writes the current configuration in the background.
+     */
+    private final Runnable mSaveConfiguration = new Runnable() {
+    	@Override
+    	public void run() {
+    		if (!mJobs.submit(new ConfigurationJob(SessionManager.this))) {
+    			// Work queue is full; try again later
+    			mHandler.postDelayed(mSaveConfiguration, CONFIG_SAVE_DELAY_MILLISEC);
+    		}
+    	}
+    };
+    
+    /**
+     * Pass a configuration on to the connection.
+     */
+    private void applyConfiguration(Configuration config)
+    {
+    	mConnection.setDeviceNumberHRM(config.getDeviceNumber());
+    	mConnection.setProximityThreshold(config.getProximityThreshold());
+    	mConnection.setBufferThreshold(config.getBufferThreshold());
+    	mConnection.setRxTimestamps(config.getRxTimestamps());
+    	mConnection.setChannelPeriod(config.getChannelPeriod());
+    	mConnection.setFastSearchTimeout(config.getFastSearchTimeout());
     }
     
     /**
@@ -110,9 +320,16 @@ public class SessionManager implements ConnectionManager.Callbacks {
     {
     	disconnectSensor();
     	
-    	mConnection.setDeviceNumberHRM(WILDCARD);
-    	mConnection.setProximityThreshold(DEFAULT_BIN);
-    	mConnection.setBufferThreshold(DEFAULT_BUFFER_THRESHOLD);
+    	setConfiguration(Configuration.DEFAULT);
+    }
+    
+    /**
+     * Select the channel period profile (applied straight away if the channel is open).
+     */
+    public void setChannelPeriod(ChannelPeriod channelPeriod)
+    {
+    	setConfiguration(mConfig.withChannelPeriod(channelPeriod));
+    	mConnection.setAntConfiguration();
     }
     
     /**
@@ -143,13 +360,30 @@ public class SessionManager implements ConnectionManager.Callbacks {
     	}
     	
     	// Open HRM channel
-    	// (reset on all attempts; otherwise would call 
-    	// "openChannel(HRM_CHANNEL, false)" and exclude "requestReset()" 
+    	// (reopen straight away if the radio is known good and the sensor is paired,
+    	// otherwise reset first)
         if (!mConnection.isChannelOpen(ConnectionManager.HRM_CHANNEL)) {
-            Log.d(TAG, "onClick (HRM): Open channel");
-            // Defer opening the channel until an ANT_RESET has been received
-            mConnection.openChannel(ConnectionManager.HRM_CHANNEL, true);
-            mConnection.requestReset();
+        	mConnectTime = Instrumentation.now();
+        	
+        	// Metadata of a known sensor, rather than waiting for its pages
+        	int deviceNumber = mConnection.getDeviceNumberHRM() & 0xFFFF;
+        	if (deviceNumber != WILDCARD) {
+        		DeviceInfo known = mDevices.get(deviceNumber);
+        		if (known != null) {
+        			mConnection.setDeviceInfo(known);
+        		}
+        	}
+        	
+        	if (mConnection.reopenChannel(ConnectionManager.HRM_CHANNEL)) {
+        		Log.d(TAG, "onClick (HRM): Reopen channel");
+        		mConnectStage = Instrumentation.Stage.RECONNECT;
+        	} else {
+        		Log.d(TAG, "onClick (HRM): Open channel");
+        		mConnectStage = Instrumentation.Stage.CONNECT;
+        		// Defer opening the channel until an ANT_RESET has been received
+        		mConnection.openChannel(ConnectionManager.HRM_CHANNEL, true);
+        		mConnection.requestReset();
+        	}
         }
     }
     
@@ -196,8 +430,15 @@ public class SessionManager implements ConnectionManager.Callbacks {
      */
     public void startSession()
     {
+    	// Keep the previous session, if it stopped itself (e.g. time limit)
+    	flushSamples();
+    	archiveSession();
+    	
     	mSession.clear();
     	mSession.start();
+    	mArchivePending = true;
+    	
+    	stateChanged();
     }
     
     /**
@@ -205,15 +446,120 @@ public class SessionManager implements ConnectionManager.Callbacks {
      */
     public void stopSession()
     {
+    	flushSamples();
     	mSession.stop();
+    	archiveSession();
+    	
+    	stateChanged();
+    }
+    
+    /**
+     * Get what is known about the paired sensor (metadata received so far, if it is not in the registry).
+     */
+    public DeviceInfo getDeviceInfo()
+    {
+    	DeviceInfo current = mConnection.getDeviceInfo();
+    	DeviceInfo known = mDevices.get(current.getDeviceNumber());
+    	
+    	return (known != null) ? known.withMetadata(current) : current;
+    }
+    
+    /**
+     * Get the sensors seen.
+     */
+    public List<DeviceInfo> getKnownDevices()
+    {
+    	return mDevices.getAll();
+    }
+    
+    /**
+     * Merge the metadata (and any pending acquisition) of the paired sensor into the registry.
+     * @return the updated registry entry, or null if the device number is not yet known
+     */
+    private DeviceInfo updateDevice()
+    {
+    	DeviceInfo current = mConnection.getDeviceInfo();
+    	if (current.getDeviceNumber() == WILDCARD) {
+    		return null;
+    	}
+    	
+    	DeviceInfo known = mDevices.get(current.getDeviceNumber());
+    	DeviceInfo device = ((known != null) ? known : new DeviceInfo(current.getDeviceNumber())).withMetadata(current);
+    	if (mPendingAcquisition >= 0) {
+    		device = device.withAcquisition(mPendingAcquisition);
+    		mPendingAcquisition = -1;
+    	}
+    	mDevices.put(device);
+    	
+    	return device;
     }
     
+    /**
+     * Saves the device registry in the background, if it has changed.
+     */
+    private void saveDevices()
+    {
+    	mHandler.removeCallbacks(mSaveDevices);
+    	if (mDevices.isDirty() && !mJobs.submit(new RegistryJob(mDevices)) && !mJobs.isShutDown()) {
+    		// Work queue is full; try again later
+    		mHandler.postDelayed(mSaveDevices, JOB_RETRY_DELAY_MILLISEC);
+    	}
+    }
+    
+    private final Runnable mSaveDevices = new Runnable() {
+    	@Override
+    	public void run() {
+    		saveDevices();
+    	}
+    };
+    
+    /**
+     * Archives the session data, if not already archived.
+     */
+    private void archiveSession()
+    {
+    	if (mArchivePending && !mSession.isStarted()) {
+    		mArchivePending = false;
+    		
+    		// Write the archive in the background; the snapshot stays valid after the session is cleared
+    		mArchiveRetries.add(mSession.snapshot());
+    		retryArchives();
+    	}
+    }
+    
+    /**
+     * Submits the archive jobs of the snapshots not yet archived, in order. Those
+     * refused by the full work queue are kept, and submitted again later (or taken
+     * as final jobs).
+     */
+    private void retryArchives()
+    {
+    	mHandler.removeCallbacks(mRetryArchives);
+    	while (!mArchiveRetries.isEmpty()) {
+    		if (!mJobs.submit(new ArchiveJob(mArchive, mArchiveRetries.get(0)))) {
+    			Log.w(TAG, "retryArchives: Work queue full; " + mArchiveRetries.size() + " sessions to archive later");
+    			if (!mJobs.isShutDown()) {
+    				mHandler.postDelayed(mRetryArchives, JOB_RETRY_DELAY_MILLISEC);
+    			}
+    			return;
+    		}
+    		mArchiveRetries.remove(0);
+    	}
+    }
+    
+    private final Runnable mRetryArchives = new Runnable() {
+    	@Override
+    	public void run() {
+    		retryArchives();
+    	}
+    };
+    
     /**
      * Update HR data.
      */
     private void updateRR()
     {
-    	mSession.addRR(mConnection.getRR());
+    	addSample(SampleSource.SERIES_RR, mConnection.getFrame().BeatEventTime, mConnection.getRR());
     }
     
     /**
@@ -221,18 +567,148 @@ public class SessionManager implements ConnectionManager.Callbacks {
      */
     private void updateBPM()
     {
-    	mSession.addBPM(mConnection.getBPM());
+    	addSample(SampleSource.SERIES_BPM, mConnection.getFrame().BeatEventTime, mConnection.getBPM());
+    }
+    
+    /**
+     * Update packet data.
+     */
+    private void updatePackets()
+    {
+    	// Dropped packets preceded any packet just received
+    	int dropped = mConnection.takePacketsDropped();
+    	if (dropped > 0) {
+    		addSample(SampleSource.SERIES_DROPPED_PACKETS, dropped);
+    	}
+    	int received = mConnection.takePacketsReceived();
+    	if (received > 0) {
+    		addSample(SampleSource.SERIES_RECEIVED_PACKETS, received);
+    	}
     }
     
     /**
      * Update signal data.
      */
-    private void updateSignal()
+    private void updateRSSI()
+    {
+    	addSample(SampleSource.SERIES_RSSI, mConnection.getRSSI());
+    }
+    
+    /**
+     * Add a sample, timed by the message (frame) it was decoded from.
+     * With event buffering, the sample is staged until the whole batch has been decoded.
+     */
+    private void addSample(int series, int value)
+    {
+    	addSample(series, mConnection.getFrame().Time, value);
+    }
+    
+    /**
+     * Add a sample at the given time.
+     */
+    private void addSample(int series, long time, int value)
+    {
+    	mBatch.add(series, time, value);
+    	
+    	if (!mConnection.isBuffering()) {
+    		commitSamples();
+    	}
+    }
+    
+    /**
+     * Commit the staged samples to the session data.
+     */
+    private void commitSamples()
     {
-    	mSession.addPacketsReceived(mConnection.getPacketsReceived());
-    	mSession.addPacketsDropped(mConnection.getPacketsDropped());
+    	long start = Instrumentation.now();
+    	
+    	// The first batch is timed from its first message until now; anchor it on its last
+    	long backdate = mConnection.settleTimeline();
+    	if (backdate > 0) {
+    		mBatch.shiftTimes(-backdate);
+    	}
+    	
+    	for (int i = 0; i < mBatch.size(); i++) {
+    		int value = mBatch.getValue(i);
+    		long time = mBatch.getTime(i);
+    		
+    		switch (mBatch.getSeries(i)) {
+    		case SampleSource.SERIES_RR:
+    			mSession.addRR(value, time);
+    			break;
+    		case SampleSource.SERIES_BPM:
+    			mSession.addBPM(value, time);
+    			break;
+    		case SampleSource.SERIES_RSSI:
+    			mSession.addRSSI(value, time);
+    			break;
+    		case SampleSource.SERIES_RECEIVED_PACKETS:
+    			mSession.addPacketsReceived(value, time);
+    			break;
+    		case SampleSource.SERIES_DROPPED_PACKETS:
+    			mSession.addPacketsDropped(value, time);
+    			break;
+    		}
+    		mBus.publish(EventBus.Type.SAMPLE, mBatch.getSeries(i), time, value);
+    	}
+    	mBatch.clear();
     	
-    	mSession.addRSSI(mConnection.getRSSI());
+    	mInstrumentation.record(Instrumentation.Stage.SESSION_UPDATE, start);
+    }
+    
+    /**
+     * Commit any staged samples now, rather than when their batch is complete.
+     */
+    private void flushSamples()
+    {
+    	if (mCommitPending) {
+    		mHandler.removeCallbacks(mCommitBatch);
+    		mCommitPending = false;
+    	}
+    	commitSamples();
+    }
+    
+    /** Commits a batch of buffered samples, once the burst of messages has been decoded */
+    private final Runnable mCommitBatch = new Runnable() {
+    	@Override
+    	public void run()
+    	{
+    		mCommitPending = false;
+    		commitSamples();
+    		notifyData();
+    	}
+    };
+    
+    /**
+     * Publish the new data and notify the client.
+     * With event buffering, this happens once per batch.
+     */
+    private void dataChanged()
+    {
+    	if (!mConnection.isBuffering()) {
+    		notifyData();
+    	} else if (!mCommitPending) {
+    		mCommitPending = true;
+    		mHandler.postDelayed(mCommitBatch, BATCH_COMMIT_DELAY_MILLISEC);
+    	}
+    }
+    
+    private void notifyData()
+    {
+    	publishMetrics();
+    	
+    	mInstrumentation.count(Instrumentation.Counter.DATA_NOTIFICATIONS);
+    	mBus.publish(EventBus.Type.DATA, mClock.now());
+    }
+    
+    /**
+     * Publish the new state and notify the consumers.
+     */
+    private void stateChanged()
+    {
+    	publishMetrics();
+    	
+    	mBus.publish(EventBus.Type.STATE, mClock.now());
     }
 
  // ConnectionManager callback implementations
@@ -241,18 +717,14 @@ public class SessionManager implements ConnectionManager.Callbacks {
  	public void errorCallback()
  	{
  		// Update state with error
- 		if(mCallbackSink != null) {
- 			mCallbackSink.notifyStateChanged();
- 		}
+ 		stateChanged();
  	}
 
  	@Override
  	public void notifyAntStateChanged()
  	{
  		// Update state based on new ANT+ status
- 		if(mCallbackSink != null) {
- 			mCallbackSink.notifyStateChanged();
- 		}
+ 		stateChanged();
  	}
  	
  	@Override
@@ -261,20 +733,22 @@ public class SessionManager implements ConnectionManager.Callbacks {
  		// Update data with new stream from channel
  	 	updateRR();
  	 	
- 		if(mCallbackSink != null) {
- 			mCallbackSink.notifyNewData();
- 		}
+ 		dataChanged();
  	}
  	
  	@Override
  	public void notifyNewBPMData()
  	{
+ 		if (!mHasBeat) {
+ 			mHasBeat = true;
+ 			mInstrumentation.record(Instrumentation.Stage.FIRST_BEAT, mStartupTime);
+ 			Log.i(TAG, "First beat " + ((Instrumentation.now() - mStartupTime) / 1000000) + " ms after startup");
+ 		}
+ 		
  		// Update data with new stream from channel
  	 	updateBPM();
  	 	
- 		if(mCallbackSink != null) {
- 			mCallbackSink.notifyNewData();
- 		}
+ 		dataChanged();
  	}
  	
  	@Override
@@ -282,11 +756,21 @@ public class SessionManager implements ConnectionManager.Callbacks {
  	{
  		// Update data with new stream from channel
  	 	// Don't need to worry about channel; only using HRM
- 	 	updateSignal();
- 	 	
- 		if(mCallbackSink != null) {
- 			mCallbackSink.notifyNewData();
+ 	 	// (clients are notified by the packet stats update that follows)
+ 	 	updateRSSI();
+ 	}
+ 	
+ 	@Override
+ 	public void notifyPacketStatsChanged(byte channel)
+ 	{
+ 		if (channel != ConnectionManager.HRM_CHANNEL) {
+ 			return;
  		}
+ 		
+ 		// Update packet data from channel events
+ 		updatePackets();
+ 	 	
+ 		dataChanged();
  	}
  	
  	@Override
@@ -294,23 +778,63 @@ public class SessionManager implements ConnectionManager.Callbacks {
  	{
  		// Update state based on new channel status
  		// Don't need to worry about channel; only using HRM
- 		if(mCallbackSink != null) {
- 			mCallbackSink.notifyStateChanged();
+ 		ChannelStates state = mConnection.getHrmState();
+ 		if ((mConnectTime != 0) && (state == ChannelStates.TRACKING_DATA)) {
+ 			mInstrumentation.record(mConnectStage, mConnectTime);
+ 			mPendingAcquisition = (int) ((Instrumentation.now() - mConnectTime) / 1000000);
+ 			Log.i(TAG, mConnectStage + ": tracking " + mPendingAcquisition + " ms after connect request");
+ 			mConnectTime = 0;
+ 		} else if ((state == ChannelStates.CLOSED) || (state == ChannelStates.OFFLINE)) {
+ 			// Connect attempt abandoned
+ 			mConnectTime = 0;
+ 		}
+ 		
+ 		if (state == ChannelStates.TRACKING_DATA) {
+ 			if (!mTracking) {
+ 				mTracking = true;
+ 				if (updateDevice() != null) {
+ 					saveDevices();
+ 				}
+ 			}
+ 		} else if (mTracking) {
+ 			// Device lost or disconnected: remember how it was last seen
+ 			mTracking = false;
+ 			DeviceInfo device = updateDevice();
+ 			if (device != null) {
+ 				mDevices.put(device.withLastSeen(mClock.currentTimeMillis(), mConnection.getRSSI()));
+ 				saveDevices();
+ 			}
  		}
+ 		
+ 		stateChanged();
  	}
      
  	@Override
+ 	public void notifyDeviceInfoChanged(byte channel)
+ 	{
+ 		// Keep the pairing
+ 		short deviceNumber = mConnection.getDeviceNumberHRM();
+ 		if (deviceNumber != mConfig.getDeviceNumber()) {
+ 			setConfiguration(mConfig.withDeviceNumber(deviceNumber));
+ 		}
+ 		
+ 		// New metadata, or the device number of a paired sensor
+ 		if (updateDevice() != null) {
+ 			saveDevices();
+ 		}
+ 	}
+     
+	@Override
  	public void notifyChannelDataChanged(byte channel)
  	{
  		// Update data with new stream from channel
  		// Don't need to worry about channel; only using HRM
  		updateRR();
  		updateBPM();
- 		updateSignal();
+ 		updateRSSI();
+ 		updatePackets();
      	
- 		if(mCallbackSink != null) {
- 			mCallbackSink.notifyNewData();
- 		}
+ 		dataChanged();
  	}
 	
 }
@@ -0,0 +1,133 @@
+package com.hrmon.heartratemonitor;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Header summary of an archived session, as stored in the archive index.
+ */
+public class SessionSummary {
+
+	/** Size of a summary record in the archive index (bytes) */
+	public static final int RECORD_SIZE = 36;
+
+	/** Starting wall clock time in milliseconds (also identifies the session) */
+	private final long mStartTime;
+
+	/** Session duration in milliseconds */
+	private final long mDuration;
+
+	/** Number of beats */
+	private final int mBeatCount;
+
+	/** Minimum BPM */
+	private final int mMinBPM;
+
+	/** Average BPM */
+	private final int mAvgBPM;
+
+	/** Maximum BPM */
+	private final int mMaxBPM;
+
+	/** Packet throughput */
+	private final int mThroughput;
+
+	/**
+	 * Constructor
+	 */
+	public SessionSummary(long startTime, long duration, int beatCount, int minBPM, int avgBPM, int maxBPM, int throughput)
+	{
+		mStartTime = startTime;
+		mDuration = duration;
+		mBeatCount = beatCount;
+		mMinBPM = minBPM;
+		mAvgBPM = avgBPM;
+		mMaxBPM = maxBPM;
+		mThroughput = throughput;
+	}
+
+	/**
+	 * Build the summary of a session.
+	 */
+	public static SessionSummary of(SessionData session)
+	{
+		return new SessionSummary(
+				session.getStartTimestamp(),
+				session.getElapsedTime(),
+				session.getBeatCount(),
+				session.getMinBPM(),
+				session.getAvgBPM(),
+				session.getMaxBPM(),
+				session.getPacketThroughput());
+	}
+
+	/** Get the starting wall clock time */
+	public long getStartTime()
+	{
+		return mStartTime;
+	}
+
+	/** Get the duration */
+	public long getDuration()
+	{
+		return mDuration;
+	}
+
+	/** Get the number of beats */
+	public int getBeatCount()
+	{
+		return mBeatCount;
+	}
+
+	/** Get the minimum BPM */
+	public int getMinBPM()
+	{
+		return mMinBPM;
+	}
+
+	/** Get the average BPM */
+	public int getAvgBPM()
+	{
+		return mAvgBPM;
+	}
+
+	/** Get the maximum BPM */
+	public int getMaxBPM()
+	{
+		return mMaxBPM;
+	}
+
+	/** Get the packet throughput */
+	public int getThroughput()
+	{
+		return mThroughput;
+	}
+
+	/** Write the summary as a fixed size record */
+	void write(DataOutput out) throws IOException
+	{
+		out.writeLong(mStartTime);
+		out.writeLong(mDuration);
+		out.writeInt(mBeatCount);
+		out.writeInt(mMinBPM);
+		out.writeInt(mAvgBPM);
+		out.writeInt(mMaxBPM);
+		out.writeInt(mThroughput);
+	}
+
+	/** Read a summary from a fixed size record */
+	static SessionSummary read(DataInput in) throws IOException
+	{
+		long startTime = in.readLong();
+		long duration = in.readLong();
+		int beatCount = in.readInt();
+		int minBPM = in.readInt();
+		int avgBPM = in.readInt();
+		int maxBPM = in.readInt();
+		int throughput = in.readInt();
+
+		return new SessionSummary(startTime, duration, beatCount, minBPM, avgBPM, maxBPM, throughput);
+	}
+
+}
@@ -0,0 +1,53 @@
+package com.hrmon.heartratemonitor;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter striped over padded cells, so that threads updating it concurrently
+ * do not contend on one cache line. Updates are lock free and do not allocate.
+ */
+public class StripedCounter {
+
+	/** Number of stripes (power of two) */
+	private static final int STRIPES = 4;
+
+	/** Cell spacing, in longs (one 64 byte cache line) */
+	private static final int PADDING = 8;
+
+	/** Cells */
+	private final AtomicLongArray mCells = new AtomicLongArray(STRIPES * PADDING);
+
+	public void increment()
+	{
+		add(1);
+	}
+
+	public void add(long delta)
+	{
+		mCells.addAndGet(cellOf(Thread.currentThread()), delta);
+	}
+
+	/** Get the current total */
+	public long get()
+	{
+		long total = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			total += mCells.get(i * PADDING);
+		}
+
+		return total;
+	}
+
+	public void reset()
+	{
+		for (int i = 0; i < STRIPES; i++) {
+			mCells.set(i * PADDING, 0);
+		}
+	}
+
+	private static int cellOf(Thread thread)
+	{
+		return ((int) thread.getId() & (STRIPES - 1)) * PADDING;
+	}
+
+}
@@ -0,0 +1,59 @@
+package com.hrmon.heartratemonitor;
+
+import java.io.IOException;
+
+/**
+ * Exports the heart rate of a session as a Garmin Training Center (TCX)
+ * activity with a single lap.
+ */
+class TcxExporter extends SessionExporter {
+
+	/** Series written */
+	private static final int[] SERIES = { SampleSource.SERIES_BPM };
+
+	@Override
+	int[] getSeries()
+	{
+		return SERIES;
+	}
+
+	@Override
+	void write(SampleSource source, final ExportWriter out) throws IOException
+	{
+		long duration = source.getDuration();
+
+		out.putAscii("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		out.putAscii("<TrainingCenterDatabase xmlns=\"http://www.garmin.com/xmlschemas/TrainingCenterDatabase/v2\">\n");
+		out.putAscii(" <Activities>\n  <Activity Sport=\"Other\">\n   <Id>");
+		out.putIsoTime(source.getStartTime());
+		out.putAscii("</Id>\n   <Lap StartTime=\"");
+		out.putIsoTime(source.getStartTime());
+		out.putAscii("\">\n    <TotalTimeSeconds>");
+		out.putDecimal(duration / 1000);
+		out.putByte('.');
+		out.putDecimal((duration % 1000) / 100);
+		out.putAscii("</TotalTimeSeconds>\n    <DistanceMeters>0</DistanceMeters>\n");
+		out.putAscii("    <Calories>0</Calories>\n    <Intensity>Active</Intensity>\n");
+		out.putAscii("    <TriggerMethod>Manual</TriggerMethod>\n    <Track>\n");
+
+		source.visit(SampleSource.SERIES_BPM, new SampleVisitor() {
+			@Override
+			public void visit(long time, int value) throws IOException
+			{
+				if (value <= 0) {
+					// TCX heart rates must be positive
+					return;
+				}
+
+				out.putAscii("     <Trackpoint><Time>");
+				out.putIsoTime(time);
+				out.putAscii("</Time><HeartRateBpm><Value>");
+				out.putDecimal(value);
+				out.putAscii("</Value></HeartRateBpm></Trackpoint>\n");
+			}
+		});
+
+		out.putAscii("    </Track>\n   </Lap>\n  </Activity>\n </Activities>\n</TrainingCenterDatabase>\n");
+	}
+
+}
@@ -1,19 +1,16 @@
 package com.hrmon.heartratemonitor;
 
 import java.util.ArrayList;
-import android.os.SystemClock;
 
 public class TimestampedArray<V> {
 	private ArrayList<Long> times = new ArrayList<Long>();
 	private ArrayList<V> values = new ArrayList<V>();
 	private int size = 0;
 	
-	// Taking the elapsed offset, to ensure that the timestamps are consistent, even if the user changes the system clock
-	private static long elapsedOffset = System.currentTimeMillis() - SystemClock.elapsedRealtime();
-	
-	public void add(V value)
+	// Add a value at a timestamp (taken by the caller, from its clock)
+	public void add(V value, long time)
 	{
-		times.add(elapsedOffset + SystemClock.elapsedRealtime());
+		times.add(time);
 		values.add(value);
 		size++;
 	}